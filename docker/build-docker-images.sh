@@ -15,3 +15,6 @@ docker build -t stests/snmpd ./snmpd
 
 echo "Building Tomcat image"
 docker build -t stests/tomcat ./tomcat
+
+echo "Building farm image"
+docker build -t stests/farm ./farm
@@ -0,0 +1,7 @@
+#!/bin/bash -e
+# Every simulated device holds its own socket
+ulimit -n 1048576 2>/dev/null || ulimit -n 65536 2>/dev/null || true
+echo "Open file limit: $(ulimit -n)"
+
+# The first argument is the name of the simulator to run
+exec java ${FARM_JAVA_OPTS:--Xmx1g} -cp /opt/farm/classes "$@"
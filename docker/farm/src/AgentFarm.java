@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Serves thousands of virtual SNMP agents from a single JVM.
+ *
+ * Every agent listens on port 161 of its own address, and answers SNMPv1
+ * and SNMPv2c get, get-next and get-bulk requests from a {@link Mib}
+ * snapshot shared by all of the agents. The channels of the agents are
+ * spread over a few selector threads, which decode the requests and
+ * send the responses.
+ *
+ * The farm is configured with the following environment variables:
+ *
+ *   AGENT_COMMUNITY    the read community, defaults to public
+ *   AGENT_INTERFACES   the number of interfaces of the generated MIB, defaults to 4
+ *   AGENT_SNMPWALK     the output of snmpwalk -On, used as MIB instead of the generated one
+ *   AGENT_THREADS      the number of selector threads
+ *
+ * In addition to the commands supported by every {@link Farm}, the agent farm supports:
+ *
+ *   STATS
+ *     Replies with STATS <requests> <varbinds> <errors> <agents>, where the agents are the number
+ *     of agents that received requests since the last STATS command, and the others are totals.
+ *
+ * @author jwhite
+ */
+public class AgentFarm extends Farm {
+
+    private static final int SNMP_PORT = 161;
+
+    private static final int GET_REQUEST = 0xa0;
+    private static final int GET_NEXT_REQUEST = 0xa1;
+    private static final int GET_RESPONSE = 0xa2;
+    private static final int GET_BULK_REQUEST = 0xa5;
+
+    private static final int VERSION_1 = 0;
+    private static final int VERSION_2C = 1;
+
+    private static final int NO_ERROR = 0;
+    private static final int TOO_BIG = 1;
+    private static final int NO_SUCH_NAME = 2;
+
+    /**
+     * Largest response sent, same as the default of Net-SNMP
+     */
+    private static final int MAX_RESPONSE_SIZE = 1472;
+
+    private static final byte[] NULL_VALUE = new byte[] { Ber.NULL, 0 };
+
+    private final Mib mib;
+    private final byte[] community;
+    private final Worker[] workers;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong varbinds = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLongArray requestsByAgent;
+    private int agents = 0;
+
+    public static void main(String[] args) throws IOException {
+        new AgentFarm().serve();
+    }
+
+    private AgentFarm() throws IOException {
+        final String walk = getEnv("AGENT_SNMPWALK", null);
+        mib = walk != null ? Mib.load(Paths.get(walk)) : Mib.synthetic(Integer.parseInt(getEnv("AGENT_INTERFACES", "4")));
+        System.out.printf("Serving a MIB of %d OIDs%n", mib.size());
+        community = getEnv("AGENT_COMMUNITY", "public").getBytes(StandardCharsets.US_ASCII);
+        requestsByAgent = new AtomicLongArray(getCapacity());
+
+        workers = new Worker[Integer.parseInt(getEnv("AGENT_THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())))];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+            final Thread thread = new Thread(workers[i], "agent-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    protected void provisioned(List<InetAddress> added) throws IOException {
+        for (InetAddress address : added) {
+            final DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(address, SNMP_PORT));
+            channel.configureBlocking(false);
+            workers[agents % workers.length].register(channel, agents);
+            agents++;
+        }
+    }
+
+    @Override
+    protected boolean handle(String[] tokens, Writer out) throws Exception {
+        if ("STATS".equals(tokens[0]) && tokens.length == 1) {
+            int active = 0;
+            for (int i = 0; i < agents; i++) {
+                if (requestsByAgent.getAndSet(i, 0) > 0) {
+                    active++;
+                }
+            }
+            out.write(String.format("STATS %d %d %d %d%n", requests.get(), varbinds.get(), errors.get(), active));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the request and returns the encoded response, or null if the request is dropped.
+     */
+    private byte[] respond(int agent, byte[] request, int length) {
+        final Ber.Reader reader = new Ber.Reader(request, 0, length);
+        reader.readHeader(Ber.SEQUENCE);
+        final long version = reader.readInteger();
+        final byte[] requestCommunity = reader.readOctetString();
+        if ((version != VERSION_1 && version != VERSION_2C) || !Arrays.equals(community, requestCommunity)) {
+            return null;
+        }
+        final int pduType = reader.readTag();
+        reader.readLength();
+        final long requestId = reader.readInteger();
+        final long nonRepeaters = reader.readInteger();
+        final long maxRepetitions = reader.readInteger();
+        final List<int[]> oids = new ArrayList<>();
+        final int varbindsLength = reader.readHeader(Ber.SEQUENCE);
+        final int varbindsEnd = reader.getPosition() + varbindsLength;
+        while (reader.getPosition() < varbindsEnd) {
+            reader.readHeader(Ber.SEQUENCE);
+            oids.add(reader.readOid());
+            reader.skip();
+        }
+
+        final List<byte[]> response = new ArrayList<>();
+        int errorStatus = NO_ERROR;
+        int errorIndex = 0;
+        switch (pduType) {
+        case GET_REQUEST:
+        case GET_NEXT_REQUEST:
+            for (int i = 0; i < oids.size() && errorStatus == NO_ERROR; i++) {
+                final int[] oid = oids.get(i);
+                final int index = pduType == GET_REQUEST ? mib.find(oid) : mib.next(oid);
+                if (index >= 0) {
+                    response.add(varbind(mib.getOid(index), mib.getValue(agent, index)));
+                } else if (version == VERSION_1) {
+                    errorStatus = NO_SUCH_NAME;
+                    errorIndex = i + 1;
+                } else {
+                    response.add(varbind(oid, new byte[] { (byte)(pduType == GET_REQUEST ? Ber.NO_SUCH_OBJECT : Ber.END_OF_MIB_VIEW), 0 }));
+                }
+            }
+            break;
+        case GET_BULK_REQUEST:
+            if (version == VERSION_1) {
+                return null;
+            }
+            final int n = (int)Math.max(0, Math.min(nonRepeaters, oids.size()));
+            for (int i = 0; i < n; i++) {
+                response.add(next(agent, oids.get(i)));
+            }
+            final int[][] cursors = oids.subList(n, oids.size()).toArray(new int[0][]);
+            int size = response.stream().mapToInt(vb -> vb.length).sum();
+            for (long r = 0; r < maxRepetitions && cursors.length > 0 && size < MAX_RESPONSE_SIZE; r++) {
+                boolean more = false;
+                for (int i = 0; i < cursors.length && size < MAX_RESPONSE_SIZE; i++) {
+                    final int index = mib.next(cursors[i]);
+                    final byte[] vb = index >= 0 ? varbind(mib.getOid(index), mib.getValue(agent, index)) : endOfMibView(cursors[i]);
+                    response.add(vb);
+                    size += vb.length;
+                    if (index >= 0) {
+                        cursors[i] = mib.getOid(index);
+                        more = true;
+                    }
+                }
+                if (!more) {
+                    break;
+                }
+            }
+            break;
+        default:
+            return null;
+        }
+
+        byte[] encoded = encodeResponse(version, requestCommunity, requestId, errorStatus, errorIndex,
+                errorStatus == NO_ERROR ? response : requestVarbinds(oids));
+        if (encoded.length > MAX_RESPONSE_SIZE) {
+            if (pduType == GET_BULK_REQUEST) {
+                // Drop the repetitions that don't fit
+                while (encoded.length > MAX_RESPONSE_SIZE && response.size() > 1) {
+                    response.remove(response.size() - 1);
+                    encoded = encodeResponse(version, requestCommunity, requestId, NO_ERROR, 0, response);
+                }
+            } else {
+                encoded = encodeResponse(version, requestCommunity, requestId, TOO_BIG, 0, requestVarbinds(oids));
+            }
+        }
+        varbinds.addAndGet(oids.size());
+        requests.incrementAndGet();
+        requestsByAgent.incrementAndGet(agent);
+        return encoded;
+    }
+
+    private byte[] next(int agent, int[] oid) {
+        final int index = mib.next(oid);
+        if (index >= 0) {
+            return varbind(mib.getOid(index), mib.getValue(agent, index));
+        }
+        return endOfMibView(oid);
+    }
+
+    private static byte[] endOfMibView(int[] oid) {
+        return varbind(oid, new byte[] { (byte)Ber.END_OF_MIB_VIEW, 0 });
+    }
+
+    private static List<byte[]> requestVarbinds(List<int[]> oids) {
+        final List<byte[]> vbs = new ArrayList<>();
+        for (int[] oid : oids) {
+            vbs.add(varbind(oid, NULL_VALUE));
+        }
+        return vbs;
+    }
+
+    private static byte[] varbind(int[] oid, byte[] value) {
+        return Ber.tlv(Ber.SEQUENCE, Ber.encodeOid(oid), value);
+    }
+
+    private static byte[] encodeResponse(long version, byte[] community, long requestId, int errorStatus, int errorIndex, List<byte[]> vbs) {
+        final ByteArrayOutputStream encodedVbs = new ByteArrayOutputStream();
+        for (byte[] vb : vbs) {
+            encodedVbs.write(vb, 0, vb.length);
+        }
+        return Ber.tlv(Ber.SEQUENCE,
+                Ber.encodeInteger(Ber.INTEGER, version),
+                Ber.tlv(Ber.OCTET_STRING, community),
+                Ber.tlv(GET_RESPONSE,
+                        Ber.encodeInteger(Ber.INTEGER, requestId),
+                        Ber.encodeInteger(Ber.INTEGER, errorStatus),
+                        Ber.encodeInteger(Ber.INTEGER, errorIndex),
+                        Ber.tlv(Ber.SEQUENCE, encodedVbs.toByteArray())));
+    }
+
+    /**
+     * Receives the requests of the agents registered with it, and sends the responses.
+     */
+    private class Worker implements Runnable {
+        private final Selector selector;
+        private final Queue<Object[]> pending = new ConcurrentLinkedQueue<>();
+
+        private Worker() throws IOException {
+            selector = Selector.open();
+        }
+
+        private void register(DatagramChannel channel, int agent) {
+            pending.add(new Object[] { channel, agent });
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            final ByteBuffer buffer = ByteBuffer.allocate(65536);
+            while (true) {
+                try {
+                    selector.select();
+                    Object[] registration;
+                    while ((registration = pending.poll()) != null) {
+                        ((DatagramChannel)registration[0]).register(selector, SelectionKey.OP_READ, registration[1]);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        final DatagramChannel channel = (DatagramChannel)key.channel();
+                        final int agent = (Integer)key.attachment();
+                        SocketAddress source;
+                        while ((source = receive(channel, buffer)) != null) {
+                            try {
+                                final byte[] response = respond(agent, buffer.array(), buffer.position());
+                                if (response != null) {
+                                    channel.send(ByteBuffer.wrap(response), source);
+                                } else {
+                                    errors.incrementAndGet();
+                                }
+                            } catch (RuntimeException e) {
+                                // Malformed request
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                } catch (IOException e) {
+                    System.out.printf("Agent worker failed: %s%n", e);
+                }
+            }
+        }
+
+        private SocketAddress receive(DatagramChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.clear();
+            return channel.receive(buffer);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+
+/**
+ * The subset of the Basic Encoding Rules used by SNMP.
+ *
+ * @author jwhite
+ */
+public final class Ber {
+
+    public static final int INTEGER = 0x02;
+    public static final int OCTET_STRING = 0x04;
+    public static final int NULL = 0x05;
+    public static final int OBJECT_IDENTIFIER = 0x06;
+    public static final int SEQUENCE = 0x30;
+    public static final int IP_ADDRESS = 0x40;
+    public static final int COUNTER32 = 0x41;
+    public static final int GAUGE32 = 0x42;
+    public static final int TIMETICKS = 0x43;
+    public static final int OPAQUE = 0x44;
+    public static final int COUNTER64 = 0x46;
+    public static final int NO_SUCH_OBJECT = 0x80;
+    public static final int NO_SUCH_INSTANCE = 0x81;
+    public static final int END_OF_MIB_VIEW = 0x82;
+
+    private Ber() {
+    }
+
+    /**
+     * Encodes a tag-length-value triplet, using the definite length form.
+     */
+    public static byte[] tlv(int tag, byte[]... contents) {
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        for (byte[] content : contents) {
+            value.write(content, 0, content.length);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(value.size() + 6);
+        out.write(tag);
+        writeLength(out, value.size());
+        out.write(value.toByteArray(), 0, value.size());
+        return out.toByteArray();
+    }
+
+    public static void writeLength(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xff) {
+            out.write(0x81);
+            out.write(length);
+        } else if (length <= 0xffff) {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        } else {
+            out.write(0x83);
+            out.write(length >> 16);
+            out.write(length >> 8);
+            out.write(length);
+        }
+    }
+
+    /**
+     * Encodes the value using the minimal number of bytes, as a two's complement integer.
+     */
+    public static byte[] encodeInteger(int tag, long value) {
+        return tlv(tag, BigInteger.valueOf(value).toByteArray());
+    }
+
+    /**
+     * Encodes the unsigned value of the given number of bits, i.e. a Counter32, Gauge32,
+     * TimeTicks or Counter64, prepending a zero byte when the high bit is set.
+     */
+    public static byte[] encodeUnsigned(int tag, long value, int bits) {
+        BigInteger unsigned = BigInteger.valueOf(value);
+        if (value < 0) {
+            unsigned = unsigned.add(BigInteger.ONE.shiftLeft(64));
+        }
+        return tlv(tag, unsigned.mod(BigInteger.ONE.shiftLeft(bits)).toByteArray());
+    }
+
+    public static byte[] encodeOid(int[] arcs) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (arcs.length < 2) {
+            writeBase128(out, arcs.length > 0 ? arcs[0] * 40L : 0);
+        } else {
+            writeBase128(out, arcs[0] * 40L + (arcs[1] & 0xffffffffL));
+            for (int i = 2; i < arcs.length; i++) {
+                writeBase128(out, arcs[i] & 0xffffffffL);
+            }
+        }
+        return tlv(OBJECT_IDENTIFIER, out.toByteArray());
+    }
+
+    private static void writeBase128(ByteArrayOutputStream out, long value) {
+        int groups = 1;
+        while ((value >> (7 * groups)) != 0) {
+            groups++;
+        }
+        for (int i = groups - 1; i >= 0; i--) {
+            final int group = (int)((value >> (7 * i)) & 0x7f);
+            out.write(i > 0 ? group | 0x80 : group);
+        }
+    }
+
+    public static int[] parseOid(String oid) {
+        final String[] tokens = oid.trim().replaceFirst("^\\.", "").split("\\.");
+        final int[] arcs = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            arcs[i] = (int)Long.parseLong(tokens[i]);
+        }
+        return arcs;
+    }
+
+    /**
+     * Compares the OIDs arc by arc, treating the arcs as unsigned, i.e. in lexicographic order.
+     */
+    public static int compare(int[] a, int[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return Integer.compareUnsigned(a[i], b[i]);
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    /**
+     * Reads BER encoded values from a buffer.
+     */
+    public static class Reader {
+        private final byte[] buffer;
+        private int position;
+        private final int limit;
+
+        public Reader(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        public boolean hasRemaining() {
+            return position < limit;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Reads the tag of the next value, leaving the reader positioned on its length.
+         */
+        public int readTag() {
+            checkRemaining(1);
+            return buffer[position++] & 0xff;
+        }
+
+        public int readLength() {
+            checkRemaining(1);
+            final int first = buffer[position++] & 0xff;
+            if (first < 0x80) {
+                return first;
+            }
+            final int bytes = first & 0x7f;
+            if (bytes < 1 || bytes > 3) {
+                throw new IllegalArgumentException("Unsupported length: " + bytes + " byte(s)");
+            }
+            checkRemaining(bytes);
+            int length = 0;
+            for (int i = 0; i < bytes; i++) {
+                length = (length << 8) | (buffer[position++] & 0xff);
+            }
+            checkRemaining(length);
+            return length;
+        }
+
+        /**
+         * Reads the header of a constructed value with the expected tag, returning its length.
+         */
+        public int readHeader(int expectedTag) {
+            final int tag = readTag();
+            if (tag != expectedTag) {
+                throw new IllegalArgumentException(String.format("Expected tag 0x%02x, got 0x%02x.", expectedTag, tag));
+            }
+            return readLength();
+        }
+
+        public long readInteger() {
+            final int length = readHeader(INTEGER);
+            if (length < 1 || length > 8) {
+                throw new IllegalArgumentException("Unsupported integer length: " + length);
+            }
+            long value = buffer[position] < 0 ? -1 : 0;
+            for (int i = 0; i < length; i++) {
+                value = (value << 8) | (buffer[position++] & 0xff);
+            }
+            return value;
+        }
+
+        public byte[] readOctetString() {
+            final int length = readHeader(OCTET_STRING);
+            final byte[] value = new byte[length];
+            System.arraycopy(buffer, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        public int[] readOid() {
+            final int length = readHeader(OBJECT_IDENTIFIER);
+            final int end = position + length;
+            final int[] arcs = new int[length + 1];
+            int count = 0;
+            long value = 0;
+            while (position < end) {
+                final int b = buffer[position++] & 0xff;
+                value = (value << 7) | (b & 0x7f);
+                if ((b & 0x80) == 0) {
+                    if (count == 0) {
+                        final int first = (int)Math.min(2, value / 40);
+                        arcs[count++] = first;
+                        arcs[count++] = (int)(value - first * 40L);
+                    } else {
+                        arcs[count++] = (int)value;
+                    }
+                    value = 0;
+                }
+            }
+            final int[] oid = new int[count];
+            System.arraycopy(arcs, 0, oid, 0, count);
+            return oid;
+        }
+
+        /**
+         * Skips over the next value, whatever its type.
+         */
+        public void skip() {
+            readTag();
+            final int length = readLength();
+            position += length;
+        }
+
+        private void checkRemaining(int bytes) {
+            if (position + bytes > limit) {
+                throw new IllegalArgumentException("Truncated message.");
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class of the simulators that run in the farm container, each of which
+ * simulates many hosts, with their own address, from a single JVM.
+ *
+ * The hosts' addresses are aliased on the container's interface, taken from
+ * the top of the stack network's subnet, while Docker allocates the addresses
+ * of the containers from the bottom. Farms that run side by side are given
+ * disjoint ranges with FARM_ADDRESS_OFFSET and FARM_ADDRESS_LIMIT, out of a
+ * budget of FARM_ADDRESS_TOTAL addresses. When the subnet is smaller than the
+ * budget, every farm scales its range down by the same factor, so that the
+ * ranges still fit in the subnet without overlapping.
+ *
+ * The farms are driven over a line based control protocol. All of them support:
+ *
+ *   PROVISION <hosts>
+ *     Aliases the addresses of the given number of hosts, if not already
+ *     done, and replies with ADDRESSES <hosts>, one address per line, and END.
+ *
+ *   CAPACITY
+ *     Replies with CAPACITY <hosts> <lowest address>, the number of hosts that
+ *     can be provisioned and the address of the last one.
+ *
+ * Errors are replied to with ERROR <message>.
+ *
+ * @author jwhite
+ */
+public abstract class Farm {
+
+    /**
+     * Number of addresses at the bottom of the subnet left to Docker
+     */
+    private static final int RESERVED_ADDRESSES = 1024;
+
+    private final String interfaceName;
+    private final InetAddress interfaceAddress;
+    private final int firstAddress;
+    private final int capacity;
+    private final List<InetAddress> addresses = new ArrayList<>();
+
+    protected Farm() throws IOException {
+        interfaceName = getEnv("FARM_INTERFACE", "eth0");
+        final NetworkInterface iface = NetworkInterface.getByName(interfaceName);
+        if (iface == null) {
+            throw new IOException("No such interface: " + interfaceName);
+        }
+        InterfaceAddress ifaceAddress = null;
+        for (InterfaceAddress candidate : iface.getInterfaceAddresses()) {
+            if (candidate.getAddress() instanceof Inet4Address) {
+                ifaceAddress = candidate;
+            }
+        }
+        if (ifaceAddress == null) {
+            throw new IOException("No IPv4 address on interface: " + interfaceName);
+        }
+        interfaceAddress = ifaceAddress.getAddress();
+
+        long offset = Long.parseLong(getEnv("FARM_ADDRESS_OFFSET", "0"));
+        long limit = Long.parseLong(getEnv("FARM_ADDRESS_LIMIT", Integer.toString(Integer.MAX_VALUE)));
+        final long total = Long.parseLong(getEnv("FARM_ADDRESS_TOTAL", "0"));
+        final int hostBits = 32 - ifaceAddress.getNetworkPrefixLength();
+        final long hosts = (1L << hostBits) - 2;
+        final long available = hosts - Math.min(RESERVED_ADDRESSES, hosts / 2);
+        if (total > available) {
+            System.out.printf("The /%d subnet only has %d addresses for the farms' %d, scaling the range at offset %d down.%n",
+                    ifaceAddress.getNetworkPrefixLength(), available, total, offset);
+            offset = offset * available / total;
+            limit = limit * available / total;
+        }
+        final int mask = hostBits == 32 ? 0 : -1 << hostBits;
+        final int broadcast = (toInt(ifaceAddress.getAddress()) & mask) | ~mask;
+        // Allocate downwards from the address before the broadcast address
+        firstAddress = broadcast - 1 - (int)offset;
+        capacity = (int)Math.max(0, Math.min(limit, Math.min(Integer.MAX_VALUE, available - offset)));
+    }
+
+    /**
+     * Called once the addresses of newly provisioned hosts are aliased,
+     * in the order in which they were provisioned.
+     */
+    protected abstract void provisioned(List<InetAddress> added) throws IOException;
+
+    /**
+     * Handles the commands specific to the farm.
+     *
+     * @return false if the command is not supported
+     */
+    protected boolean handle(String[] tokens, Writer out) throws Exception {
+        return false;
+    }
+
+    /**
+     * Returns the addresses of the hosts that were provisioned, in order.
+     */
+    protected List<InetAddress> getAddresses() {
+        return Collections.unmodifiableList(addresses);
+    }
+
+    /**
+     * Returns the container's own address on the interface, which isn't one of the hosts'.
+     */
+    protected InetAddress getInterfaceAddress() {
+        return interfaceAddress;
+    }
+
+    protected int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Accepts commands on the control port, one connection at a time, since they share the hosts.
+     */
+    protected void serve() throws IOException {
+        final int controlPort = Integer.parseInt(getEnv("FARM_CONTROL_PORT", "9000"));
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(controlPort));
+            System.out.printf("%s of up to %d hosts listening on tcp/%d%n", getClass().getSimpleName(), capacity, controlPort);
+
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    handle(socket);
+                } catch (IOException e) {
+                    System.out.printf("Control connection failed: %s%n", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)));
+        String line;
+        while ((line = in.readLine()) != null) {
+            final String[] tokens = line.trim().split("\\s+");
+            try {
+                if ("PROVISION".equals(tokens[0]) && tokens.length == 2) {
+                    provision(Integer.parseInt(tokens[1]), out);
+                } else if ("CAPACITY".equals(tokens[0]) && tokens.length == 1) {
+                    out.printf("CAPACITY %d %s%n", capacity,
+                            capacity > 0 ? toAddress(firstAddress - capacity + 1).getHostAddress() : "-");
+                } else if (!handle(tokens, out)) {
+                    throw new IllegalArgumentException("Invalid command: " + line);
+                }
+            } catch (Exception e) {
+                out.printf("ERROR %s%n", String.valueOf(e.getMessage()).replace('\n', ' '));
+            }
+            out.flush();
+        }
+    }
+
+    private void provision(int hosts, Writer out) throws IOException, InterruptedException {
+        if (hosts < 1 || hosts > capacity) {
+            throw new IllegalArgumentException(String.format("Can provision between 1 and %d hosts, not %d.", capacity, hosts));
+        }
+
+        if (hosts > addresses.size()) {
+            final List<InetAddress> added = new ArrayList<>();
+            for (int i = addresses.size(); i < hosts; i++) {
+                added.add(toAddress(firstAddress - i));
+            }
+            addAliases(added);
+            provisioned(added);
+            addresses.addAll(added);
+            System.out.printf("Provisioned %d host(s)%n", addresses.size());
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("ADDRESSES ").append(hosts).append('\n');
+        for (int i = 0; i < hosts; i++) {
+            sb.append(addresses.get(i).getHostAddress()).append('\n');
+        }
+        sb.append("END\n");
+        out.write(sb.toString());
+    }
+
+    /**
+     * Adds the addresses to the interface, in a single invocation of ip.
+     */
+    private void addAliases(List<InetAddress> aliases) throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder("ip", "-batch", "-")
+                .redirectErrorStream(true)
+                .start();
+        try (Writer writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII)) {
+            for (InetAddress alias : aliases) {
+                writer.write(String.format("address add %s/32 dev %s%n", alias.getHostAddress(), interfaceName));
+            }
+        }
+        final String output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))
+                .lines().reduce("", (a, b) -> a + b + " ");
+        if (process.waitFor() != 0) {
+            throw new IOException("Failed to add the addresses: " + output);
+        }
+    }
+
+    private static int toInt(InetAddress address) {
+        final byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+    }
+
+    private static InetAddress toAddress(int value) throws IOException {
+        return InetAddress.getByAddress(new byte[] { (byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value });
+    }
+
+    protected static String getEnv(String name, String defaultValue) {
+        final String value = System.getenv(name);
+        return value != null && !value.trim().isEmpty() ? value.trim() : defaultValue;
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a fleet of devices, each sending from its own source address.
+ *
+ * Every device has its own datagram channel bound to its address, so that
+ * the receiver sees the packets coming from distinct hosts. In addition
+ * to the commands supported by every {@link Farm}, the fleet supports:
+ *
+ *   SEND <host> <port> <rate> <count> <duration ms> <devices> <threads> <sequence offset> <timestamp offset> <template>
+ *     Sends the Base64 encoded template from the first <devices> devices, in a
+ *     round-robin fashion, patching the sequence number and the send time
+ *     (see SequencedLoad) at the given offsets in every packet. A count or
+ *     duration of 0 is unlimited. Replies with DONE <sent> <errors> <elapsed ns>
+ *     <sequences used by each thread, comma separated>.
+ *
+ * @author jwhite
+ */
+public class Fleet extends Farm {
+
+    private static final int SEQUENCE_DIGITS = 19;
+
+    private static final int TIMESTAMP_DIGITS = 16;
+
+    /**
+     * Number of packets sent between checks of the clock when the rate is unlimited
+     */
+    private static final int UNLIMITED_BATCH_SIZE = 256;
+
+    private static final long START_EPOCH_MICROS = System.currentTimeMillis() * 1000L;
+    private static final long START_NANOS = System.nanoTime();
+
+    private final List<DatagramChannel> channels = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        new Fleet().serve();
+    }
+
+    private Fleet() throws IOException {
+    }
+
+    @Override
+    protected void provisioned(List<InetAddress> added) throws IOException {
+        for (InetAddress address : added) {
+            final DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(address, 0));
+            channels.add(channel);
+        }
+    }
+
+    @Override
+    protected boolean handle(String[] tokens, Writer out) throws Exception {
+        if ("SEND".equals(tokens[0]) && tokens.length == 11) {
+            send(tokens, out);
+            return true;
+        }
+        return false;
+    }
+
+    private void send(String[] tokens, Writer out) throws IOException, InterruptedException {
+        final InetSocketAddress target = new InetSocketAddress(tokens[1], Integer.parseInt(tokens[2]));
+        final double rate = Math.max(0, Double.parseDouble(tokens[3]));
+        final long count = Long.parseLong(tokens[4]) > 0 ? Long.parseLong(tokens[4]) : Long.MAX_VALUE;
+        final long durationNanos = Long.parseLong(tokens[5]) > 0 ? Long.parseLong(tokens[5]) * 1000000L : Long.MAX_VALUE;
+        final int devices = Integer.parseInt(tokens[6]);
+        final int threads = Integer.parseInt(tokens[7]);
+        final int sequenceOffset = Integer.parseInt(tokens[8]);
+        final int timestampOffset = Integer.parseInt(tokens[9]);
+        final byte[] template = Base64.getDecoder().decode(tokens[10]);
+        if (devices < 1 || devices > channels.size()) {
+            throw new IllegalArgumentException(String.format("%d device(s) were provisioned, not %d.", channels.size(), devices));
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required.");
+        }
+
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long[] sequencesByThread = new long[threads];
+        final List<Thread> senders = new ArrayList<>();
+        final long start = System.nanoTime();
+        final long deadline = durationNanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + durationNanos;
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            final long threadCount = count == Long.MAX_VALUE ? Long.MAX_VALUE
+                    : count / threads + (i < count % threads ? 1 : 0);
+            final Thread thread = new Thread(() -> {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(template.length);
+                buffer.put(template);
+                final double intervalNanos = rate > 0 ? threads * 1e9 / rate : 0;
+                long sentByThread = 0;
+                try {
+                    while (sentByThread < threadCount) {
+                        // Interleave the sequence numbers of the threads, and spread them over the devices
+                        final long sequence = sentByThread * threads + index;
+                        putDigits(buffer, sequenceOffset, SEQUENCE_DIGITS, sequence);
+                        putDigits(buffer, timestampOffset, TIMESTAMP_DIGITS, currentTimeMicros());
+                        buffer.clear();
+                        try {
+                            channels.get((int)(sequence % devices)).send(buffer, target);
+                            sent.incrementAndGet();
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        sentByThread++;
+
+                        if (intervalNanos > 0) {
+                            final long due = start + (long)(sentByThread * intervalNanos);
+                            final long now = System.nanoTime();
+                            if (due > now) {
+                                LockSupport.parkNanos(due - now);
+                            }
+                            if (System.nanoTime() >= deadline) {
+                                break;
+                            }
+                        } else if (sentByThread % UNLIMITED_BATCH_SIZE == 0 && System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+                } finally {
+                    // Read once the thread is joined
+                    sequencesByThread[index] = sentByThread;
+                }
+            }, "fleet-sender-" + i);
+            senders.add(thread);
+            thread.start();
+        }
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        final long elapsedNanos = System.nanoTime() - start;
+
+        final StringBuilder sequences = new StringBuilder();
+        for (long sequencesUsed : sequencesByThread) {
+            sequences.append(sequences.length() > 0 ? "," : "").append(sequencesUsed);
+        }
+        System.out.printf("Sent %d packet(s) to %s from %d device(s), %d error(s)%n", sent.get(), target, devices, errors.get());
+        out.write(String.format("DONE %d %d %d %s%n", sent.get(), errors.get(), elapsedNanos, sequences));
+    }
+
+    private static long currentTimeMicros() {
+        return START_EPOCH_MICROS + (System.nanoTime() - START_NANOS) / 1000L;
+    }
+
+    private static void putDigits(ByteBuffer buffer, int offset, int width, long value) {
+        if (offset < 0) {
+            return;
+        }
+        long remaining = Math.abs(value);
+        for (int i = width - 1; i >= 0; i--) {
+            buffer.put(offset + i, (byte)('0' + remaining % 10));
+            remaining /= 10;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXServiceURL;
+import javax.management.remote.MBeanServerForwarder;
+import javax.management.remote.rmi.RMIConnectorServer;
+import javax.management.remote.rmi.RMIJRMPServerImpl;
+
+/**
+ * Serves hundreds of JMX targets from a single JVM.
+ *
+ * Every target has its own MBean server, with JMX_MBEANS MBeans named
+ * stests:type=Farm,name=m<N>, each of which has JMX_ATTRIBUTES read-only
+ * attributes named Counter<N>. The counters advance at a different rate
+ * on every target, MBean and attribute, and are computed when read.
+ *
+ * Every target has its own RMI registry on port JMX_REGISTRY_PORT of the
+ * target's address, in which its connector is bound as jmxrmi, so that
+ * the targets are reached with service:jmx:rmi:///jndi/rmi://<address>:<port>/jmxrmi
+ * just like a JVM started with com.sun.management.jmxremote.port.
+ * The connectors of all of the targets are exported on JMX_SERVER_PORT
+ * of the container's own address, where RMI tells them apart by their
+ * object IDs, so that they share a single listener.
+ *
+ * The farm is configured with the following environment variables:
+ *
+ *   JMX_MBEANS          the number of MBeans of every target, defaults to 10
+ *   JMX_ATTRIBUTES      the number of attributes of every MBean, defaults to 10
+ *   JMX_REGISTRY_PORT   the port of the targets' registries, defaults to 9999
+ *   JMX_SERVER_PORT     the port of the targets' connectors, defaults to 9998
+ *
+ * In addition to the commands supported by every {@link Farm}, the JMX farm supports:
+ *
+ *   STATS
+ *     Replies with STATS <connections> <attributes> <sessions> <mean session us> <max session us> <targets>,
+ *     where the connections and the attributes read are totals, and the others are counted since the last
+ *     STATS command. A session lasts from the time a connection is opened until it is closed, which
+ *     includes all of the requests made by a single collection.
+ *
+ * @author jwhite
+ */
+public class JmxFarm extends Farm {
+
+    public static final String OBJECT_NAME_FORMAT = "stests:type=Farm,name=m%d";
+
+    public static final String ATTRIBUTE_PREFIX = "Counter";
+
+    private static final long MAX_COUNTER_RATE = 1000;
+
+    private final int mbeans;
+    private final int attributes;
+    private final int registryPort;
+    private final int serverPort;
+    private final MBeanInfo mbeanInfo;
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * The connector servers are only weakly referenced by RMI once exported
+     */
+    private final List<RMIConnectorServer> connectorServers = new ArrayList<>();
+    private final List<Registry> registries = new ArrayList<>();
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong attributeReads = new AtomicLong();
+    private final AtomicLongArray readsByTarget;
+    private final Map<String, Long> openedNanosByConnectionId = new ConcurrentHashMap<>();
+    private long sessions = 0;
+    private long sessionNanos = 0;
+    private long maxSessionNanos = 0;
+
+    public static void main(String[] args) throws IOException {
+        new JmxFarm().serve();
+    }
+
+    private JmxFarm() throws IOException {
+        mbeans = Integer.parseInt(getEnv("JMX_MBEANS", "10"));
+        attributes = Integer.parseInt(getEnv("JMX_ATTRIBUTES", "10"));
+        registryPort = Integer.parseInt(getEnv("JMX_REGISTRY_PORT", "9999"));
+        serverPort = Integer.parseInt(getEnv("JMX_SERVER_PORT", "9998"));
+        readsByTarget = new AtomicLongArray(getCapacity());
+        System.out.printf("Serving %d MBeans with %d attributes per target%n", mbeans, attributes);
+
+        // The stubs of the connectors point to the container's own address
+        System.setProperty("java.rmi.server.hostname", getInterfaceAddress().getHostAddress());
+
+        final MBeanAttributeInfo[] attributeInfos = new MBeanAttributeInfo[attributes];
+        for (int i = 0; i < attributes; i++) {
+            attributeInfos[i] = new MBeanAttributeInfo(ATTRIBUTE_PREFIX + i, Long.class.getName(),
+                    "Counter " + i, true, false, false);
+        }
+        mbeanInfo = new MBeanInfo(FarmMBean.class.getName(), "Simulated MBean", attributeInfos,
+                new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    @Override
+    protected void provisioned(List<InetAddress> added) throws IOException {
+        for (InetAddress address : added) {
+            final int target = registries.size();
+            final MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+            try {
+                for (int i = 0; i < mbeans; i++) {
+                    mbeanServer.registerMBean(new FarmMBean(target, i), new ObjectName(String.format(OBJECT_NAME_FORMAT, i)));
+                }
+            } catch (Exception e) {
+                throw new IOException("Failed to register the MBeans: " + e, e);
+            }
+
+            // Every registry gets its own socket factory, and so its own listener, on the target's address
+            final Registry registry = LocateRegistry.createRegistry(registryPort, null, new AddressServerSocketFactory(address));
+            final RMIJRMPServerImpl server = new RMIJRMPServerImpl(serverPort, null, null, null);
+            final RMIConnectorServer connectorServer = new RMIConnectorServer(new JMXServiceURL("rmi", null, serverPort),
+                    null, server, mbeanServer);
+            connectorServer.setMBeanServerForwarder(newCountingForwarder(target));
+            connectorServer.addNotificationListener((notification, handback) -> {
+                if (notification instanceof JMXConnectionNotification) {
+                    onConnectionNotification((JMXConnectionNotification)notification);
+                }
+            }, null, null);
+            connectorServer.start();
+            try {
+                registry.bind("jmxrmi", server.toStub());
+            } catch (Exception e) {
+                throw new IOException("Failed to bind the connector: " + e, e);
+            }
+            registries.add(registry);
+            connectorServers.add(connectorServer);
+        }
+    }
+
+    @Override
+    protected boolean handle(String[] tokens, Writer out) throws Exception {
+        if ("STATS".equals(tokens[0]) && tokens.length == 1) {
+            int active = 0;
+            for (int i = 0; i < registries.size(); i++) {
+                if (readsByTarget.getAndSet(i, 0) > 0) {
+                    active++;
+                }
+            }
+            synchronized (this) {
+                out.write(String.format("STATS %d %d %d %d %d %d%n", connections.get(), attributeReads.get(),
+                        sessions, sessions > 0 ? sessionNanos / sessions / 1000 : 0, maxSessionNanos / 1000, active));
+                sessions = 0;
+                sessionNanos = 0;
+                maxSessionNanos = 0;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void onConnectionNotification(JMXConnectionNotification notification) {
+        if (JMXConnectionNotification.OPENED.equals(notification.getType())) {
+            connections.incrementAndGet();
+            openedNanosByConnectionId.put(notification.getConnectionId(), System.nanoTime());
+        } else if (JMXConnectionNotification.CLOSED.equals(notification.getType())
+                || JMXConnectionNotification.FAILED.equals(notification.getType())) {
+            final Long openedNanos = openedNanosByConnectionId.remove(notification.getConnectionId());
+            if (openedNanos != null) {
+                final long elapsedNanos = System.nanoTime() - openedNanos;
+                synchronized (this) {
+                    sessions++;
+                    sessionNanos += elapsedNanos;
+                    maxSessionNanos = Math.max(maxSessionNanos, elapsedNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a forwarder that counts the attributes read from the target's MBean server.
+     */
+    private MBeanServerForwarder newCountingForwarder(int target) {
+        final MBeanServer[] delegate = new MBeanServer[1];
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "setMBeanServer":
+                delegate[0] = (MBeanServer)args[0];
+                return null;
+            case "getMBeanServer":
+                return delegate[0];
+            default:
+                break;
+            }
+            final Object result;
+            try {
+                result = method.invoke(delegate[0], args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if ("getAttribute".equals(method.getName())) {
+                countReads(target, 1);
+            } else if ("getAttributes".equals(method.getName())) {
+                countReads(target, ((AttributeList)result).size());
+            }
+            return result;
+        };
+        return (MBeanServerForwarder)Proxy.newProxyInstance(MBeanServerForwarder.class.getClassLoader(),
+                new Class<?>[] { MBeanServerForwarder.class }, handler);
+    }
+
+    private void countReads(int target, int reads) {
+        attributeReads.addAndGet(reads);
+        readsByTarget.addAndGet(target, reads);
+    }
+
+    /**
+     * Listens on a single address, instead of the wildcard address.
+     * Equality is left to the identity, so that every factory gets its own listener.
+     */
+    private static class AddressServerSocketFactory implements RMIServerSocketFactory {
+        private final InetAddress address;
+
+        private AddressServerSocketFactory(InetAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return new ServerSocket(port, 50, address);
+        }
+    }
+
+    /**
+     * An MBean of a target, whose attributes are computed when read.
+     */
+    private class FarmMBean implements DynamicMBean {
+        private final int target;
+        private final int mbean;
+
+        private FarmMBean(int target, int mbean) {
+            this.target = target;
+            this.mbean = mbean;
+        }
+
+        @Override
+        public Object getAttribute(String name) throws AttributeNotFoundException {
+            final int attribute = getIndex(name);
+            if (attribute < 0) {
+                throw new AttributeNotFoundException(name);
+            }
+            final long seed = Mib.mix((target * 1000003L + mbean) * 1000003L + attribute);
+            final long rate = 1 + Math.floorMod(seed, MAX_COUNTER_RATE);
+            return Math.floorMod(seed >>> 16, 1L << 31) + rate * (System.currentTimeMillis() - startMillis) / 1000;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] names) {
+            final AttributeList list = new AttributeList();
+            for (String name : names) {
+                if (getIndex(name) >= 0) {
+                    try {
+                        list.add(new Attribute(name, getAttribute(name)));
+                    } catch (AttributeNotFoundException e) {
+                        // Checked above
+                    }
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("The attributes are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList list) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return mbeanInfo;
+        }
+
+        private int getIndex(String name) {
+            if (name == null || !name.startsWith(ATTRIBUTE_PREFIX)) {
+                return -1;
+            }
+            try {
+                final int index = Integer.parseInt(name.substring(ATTRIBUTE_PREFIX.length()));
+                return index >= 0 && index < attributes ? index : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A snapshot of an agent's MIB, shared by all of the agents of the farm.
+ *
+ * The OIDs and the encoded values are kept in sorted arrays, so that the
+ * snapshot takes the same amount of memory regardless of the number of agents.
+ * The values that differ between agents are computed on every request rather
+ * than stored: the counters advance at a rate derived from the agent and the
+ * OID, sysUpTime advances from a boot time derived from the agent, and
+ * sysName is the name of the agent.
+ *
+ * The snapshot is either read from the output of snmpwalk -On, or
+ * generated with the system group and the given number of interfaces.
+ *
+ * @author jwhite
+ */
+public class Mib {
+
+    private static final byte STATIC = 0;
+    private static final byte COUNTER32 = 1;
+    private static final byte COUNTER64 = 2;
+    private static final byte UPTIME = 3;
+    private static final byte NAME = 4;
+
+    private static final int[] SYS_UPTIME_OID = Ber.parseOid(".1.3.6.1.2.1.1.3.0");
+    private static final int[] SYS_NAME_OID = Ber.parseOid(".1.3.6.1.2.1.1.5.0");
+
+    /**
+     * Upper bound of the rate at which the counters advance, per second
+     */
+    private static final long MAX_COUNTER_RATE = 125000;
+
+    private static final Pattern WALK_LINE = Pattern.compile("^(\\.?[0-9]+(?:\\.[0-9]+)+)\\s+=\\s+(?:([A-Za-z0-9-]+):\\s*)?(.*)$");
+
+    private final int[][] oids;
+    private final byte[][] values;
+    private final long[] bases;
+    private final byte[] kinds;
+    private final long startMillis = System.currentTimeMillis();
+
+    private Mib(TreeMap<int[], Object[]> entries) {
+        final int size = entries.size();
+        oids = new int[size][];
+        values = new byte[size][];
+        bases = new long[size];
+        kinds = new byte[size];
+        int i = 0;
+        for (Map.Entry<int[], Object[]> entry : entries.entrySet()) {
+            oids[i] = entry.getKey();
+            kinds[i] = (Byte)entry.getValue()[0];
+            if (kinds[i] == STATIC) {
+                values[i] = (byte[])entry.getValue()[1];
+            } else if (kinds[i] == COUNTER32 || kinds[i] == COUNTER64) {
+                bases[i] = (Long)entry.getValue()[1];
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Reads the output of snmpwalk -On, with the types of the values.
+     */
+    public static Mib load(Path walk) throws IOException {
+        final TreeMap<int[], Object[]> entries = new TreeMap<>(Ber::compare);
+        try (BufferedReader reader = Files.newBufferedReader(walk, StandardCharsets.ISO_8859_1)) {
+            String line;
+            int[] lastOid = null;
+            String lastValue = null;
+            while ((line = reader.readLine()) != null) {
+                final Matcher m = WALK_LINE.matcher(line);
+                if (!m.matches()) {
+                    if (lastOid != null && lastValue != null && !line.isEmpty()) {
+                        // Continuation of a multi-line string
+                        lastValue = lastValue + "\n" + line;
+                        entries.put(lastOid, staticEntry(Ber.tlv(Ber.OCTET_STRING, unquote(lastValue).getBytes(StandardCharsets.ISO_8859_1))));
+                    }
+                    continue;
+                }
+                final int[] oid = Ber.parseOid(m.group(1));
+                final String type = m.group(2) != null ? m.group(2) : "STRING";
+                final String value = m.group(3).trim();
+                lastOid = null;
+                lastValue = null;
+                final Object[] entry;
+                try {
+                    entry = parseValue(type, value);
+                } catch (RuntimeException e) {
+                    System.out.printf("Skipping %s: %s%n", m.group(1), e.getMessage());
+                    continue;
+                }
+                if (entry != null) {
+                    entries.put(oid, entry);
+                    if ("STRING".equals(type)) {
+                        lastOid = oid;
+                        lastValue = value;
+                    }
+                }
+            }
+        }
+        return new Mib(withAgentValues(entries));
+    }
+
+    /**
+     * Generates the system group, and the interfaces and ifX tables with the given number of interfaces.
+     */
+    public static Mib synthetic(int interfaces) {
+        final TreeMap<int[], Object[]> entries = new TreeMap<>(Ber::compare);
+        putString(entries, ".1.3.6.1.2.1.1.1.0", "Linux stests-agent 3.10.0 #1 SMP x86_64");
+        entries.put(Ber.parseOid(".1.3.6.1.2.1.1.2.0"), staticEntry(Ber.encodeOid(Ber.parseOid(".1.3.6.1.4.1.8072.3.2.10"))));
+        putString(entries, ".1.3.6.1.2.1.1.4.0", "stests@opennms.org");
+        putString(entries, ".1.3.6.1.2.1.1.6.0", "farm");
+        putInteger(entries, ".1.3.6.1.2.1.1.7.0", Ber.INTEGER, 72);
+        putInteger(entries, ".1.3.6.1.2.1.2.1.0", Ber.INTEGER, interfaces);
+        for (int i = 1; i <= interfaces; i++) {
+            final String ifName = "eth" + (i - 1);
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.1." + i, Ber.INTEGER, i);
+            putString(entries, ".1.3.6.1.2.1.2.2.1.2." + i, ifName);
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.3." + i, Ber.INTEGER, 6); // ethernetCsmacd
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.4." + i, Ber.INTEGER, 1500);
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.5." + i, Ber.GAUGE32, 1000000000L);
+            entries.put(Ber.parseOid(".1.3.6.1.2.1.2.2.1.6." + i), staticEntry(Ber.tlv(Ber.OCTET_STRING,
+                    new byte[] { 0x02, 0x42, (byte)0xac, 0x00, (byte)(i >> 8), (byte)i })));
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.7." + i, Ber.INTEGER, 1); // up
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.8." + i, Ber.INTEGER, 1); // up
+            putInteger(entries, ".1.3.6.1.2.1.2.2.1.9." + i, Ber.TIMETICKS, 0);
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.10." + i, COUNTER32); // ifInOctets
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.11." + i, COUNTER32); // ifInUcastPkts
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.13." + i, COUNTER32); // ifInDiscards
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.14." + i, COUNTER32); // ifInErrors
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.16." + i, COUNTER32); // ifOutOctets
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.17." + i, COUNTER32); // ifOutUcastPkts
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.19." + i, COUNTER32); // ifOutDiscards
+            putCounter(entries, ".1.3.6.1.2.1.2.2.1.20." + i, COUNTER32); // ifOutErrors
+            putString(entries, ".1.3.6.1.2.1.31.1.1.1.1." + i, ifName);
+            putCounter(entries, ".1.3.6.1.2.1.31.1.1.1.6." + i, COUNTER64); // ifHCInOctets
+            putCounter(entries, ".1.3.6.1.2.1.31.1.1.1.7." + i, COUNTER64); // ifHCInUcastPkts
+            putCounter(entries, ".1.3.6.1.2.1.31.1.1.1.10." + i, COUNTER64); // ifHCOutOctets
+            putCounter(entries, ".1.3.6.1.2.1.31.1.1.1.11." + i, COUNTER64); // ifHCOutUcastPkts
+            putInteger(entries, ".1.3.6.1.2.1.31.1.1.1.15." + i, Ber.GAUGE32, 1000);
+            putString(entries, ".1.3.6.1.2.1.31.1.1.1.18." + i, "");
+        }
+        return new Mib(withAgentValues(entries));
+    }
+
+    public int size() {
+        return oids.length;
+    }
+
+    public int[] getOid(int index) {
+        return oids[index];
+    }
+
+    /**
+     * Returns the index of the given OID, or -1 if it's not part of the snapshot.
+     */
+    public int find(int[] oid) {
+        int low = 0;
+        int high = oids.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = Ber.compare(oids[mid], oid);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first OID that follows the given OID, or -1 at the end of the MIB.
+     */
+    public int next(int[] oid) {
+        int low = 0;
+        int high = oids.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (Ber.compare(oids[mid], oid) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < oids.length ? low : -1;
+    }
+
+    /**
+     * Returns the encoded value of the OID at the given index, as seen by the given agent.
+     */
+    public byte[] getValue(int agent, int index) {
+        final long elapsedMs = System.currentTimeMillis() - startMillis;
+        switch (kinds[index]) {
+        case COUNTER32:
+        case COUNTER64:
+            final long seed = mix(agent * 1000003L + index);
+            final long rate = 1 + Math.floorMod(seed, MAX_COUNTER_RATE);
+            final long value = bases[index] + Math.floorMod(seed >>> 16, 1L << 31) + rate * elapsedMs / 1000;
+            return kinds[index] == COUNTER32 ? Ber.encodeUnsigned(Ber.COUNTER32, value, 32) : Ber.encodeUnsigned(Ber.COUNTER64, value, 64);
+        case UPTIME:
+            // Agents were booted up to a day before the farm
+            return Ber.encodeUnsigned(Ber.TIMETICKS, elapsedMs / 10 + Math.floorMod(mix(agent), 8640000L), 32);
+        case NAME:
+            return Ber.tlv(Ber.OCTET_STRING, ("agent-" + agent).getBytes(StandardCharsets.US_ASCII));
+        default:
+            return values[index];
+        }
+    }
+
+    private static TreeMap<int[], Object[]> withAgentValues(TreeMap<int[], Object[]> entries) {
+        entries.put(SYS_UPTIME_OID, new Object[] { UPTIME });
+        entries.put(SYS_NAME_OID, new Object[] { NAME });
+        return entries;
+    }
+
+    private static Object[] parseValue(String type, String value) throws IOException {
+        switch (type) {
+        case "STRING":
+            return staticEntry(Ber.tlv(Ber.OCTET_STRING, unquote(value).getBytes(StandardCharsets.ISO_8859_1)));
+        case "Hex-STRING":
+        case "BITS":
+            final String hex = value.replaceAll("[^0-9A-Fa-f ]", " ").trim();
+            final String[] pairs = hex.isEmpty() ? new String[0] : hex.split("\\s+");
+            final byte[] bytes = new byte[pairs.length];
+            for (int i = 0; i < pairs.length; i++) {
+                bytes[i] = (byte)Integer.parseInt(pairs[i], 16);
+            }
+            return staticEntry(Ber.tlv(Ber.OCTET_STRING, bytes));
+        case "OID":
+            return staticEntry(Ber.encodeOid(Ber.parseOid(value)));
+        case "INTEGER":
+            return staticEntry(Ber.encodeInteger(Ber.INTEGER, parseNumber(value)));
+        case "Gauge32":
+        case "Unsigned32":
+            return staticEntry(Ber.encodeUnsigned(Ber.GAUGE32, parseNumber(value), 32));
+        case "Timeticks":
+            return staticEntry(Ber.encodeUnsigned(Ber.TIMETICKS, parseNumber(value), 32));
+        case "Counter32":
+            return new Object[] { COUNTER32, parseNumber(value) };
+        case "Counter64":
+            return new Object[] { COUNTER64, parseNumber(value) };
+        case "IpAddress":
+            return staticEntry(Ber.tlv(Ber.IP_ADDRESS, InetAddress.getByName(value).getAddress()));
+        default:
+            // i.e. No Such Object available on this agent at this OID
+            return null;
+        }
+    }
+
+    /**
+     * Parses numbers as printed by snmpwalk, i.e. 42, up(1) or (4200) 0:00:42.00.
+     */
+    private static long parseNumber(String value) {
+        final Matcher m = Pattern.compile("\\((-?[0-9]+)\\)|(-?[0-9]+)").matcher(value);
+        if (!m.find()) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+        return Long.parseLong(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+
+    private static String unquote(String value) {
+        return value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static Object[] staticEntry(byte[] value) {
+        return new Object[] { STATIC, value };
+    }
+
+    private static void putString(TreeMap<int[], Object[]> entries, String oid, String value) {
+        entries.put(Ber.parseOid(oid), staticEntry(Ber.tlv(Ber.OCTET_STRING, value.getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    private static void putInteger(TreeMap<int[], Object[]> entries, String oid, int tag, long value) {
+        entries.put(Ber.parseOid(oid), staticEntry(tag == Ber.INTEGER ? Ber.encodeInteger(tag, value) : Ber.encodeUnsigned(tag, value, 32)));
+    }
+
+    private static void putCounter(TreeMap<int[], Object[]> entries, String oid, byte kind) {
+        entries.put(Ber.parseOid(oid), new Object[] { kind, 0L });
+    }
+
+    /**
+     * Scrambles the bits of the value, see SplitMix64.
+     */
+    static long mix(long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accepts syslog messages over TCP, framed as per RFC 6587, and forwards
+ * every message as a datagram to the Minion's UDP syslog listener.
+ *
+ * Minion's syslog listener only supports UDP, so this relay is used
+ * to exercise the TCP ingestion path. Both octet-counting and
+ * non-transparent (LF delimited) framing are supported, and detected
+ * per message.
+ *
+ * Every connection is handled by its own thread, reading with blocking I/O.
+ * The datagrams are written to the loopback interface, which practically
+ * never blocks, so the senders are not pushed back on when the Minion is
+ * overloaded: the excess datagrams are dropped at the Minion's UDP socket.
+ * The only flow control the senders see is that of the relay itself.
+ *
+ * The relay is supervised by the bootstrap script, which stops the
+ * container if it exits.
+ *
+ * @author jwhite
+ */
+public class SyslogTcpRelay {
+
+    private static final int MAX_MESSAGE_SIZE = 64 * 1024;
+
+    private static final AtomicLong connections = new AtomicLong();
+    private static final AtomicLong messages = new AtomicLong();
+
+    public static void main(String[] args) throws IOException {
+        final int listenPort = Integer.parseInt(getEnv("SYSLOG_TCP_PORT", "1514"));
+        final InetSocketAddress forwardTo = new InetSocketAddress("127.0.0.1",
+                Integer.parseInt(getEnv("SYSLOG_UDP_PORT", "1514")));
+
+        try (ServerSocket serverSocket = new ServerSocket()) {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(listenPort), 1024);
+            System.out.printf("Relaying syslog messages from tcp/%d to udp/%d%n", listenPort, forwardTo.getPort());
+
+            final Thread reporter = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.printf("Relay: %d connection(s), %d message(s) forwarded%n", connections.get(), messages.get());
+                }
+            }, "relay-reporter");
+            reporter.setDaemon(true);
+            reporter.start();
+
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                final Thread handler = new Thread(() -> handle(socket, forwardTo), "relay-" + socket.getRemoteSocketAddress());
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+    }
+
+    private static void handle(Socket socket, InetSocketAddress forwardTo) {
+        connections.incrementAndGet();
+        try (Socket s = socket;
+             DatagramChannel channel = DatagramChannel.open()) {
+            s.setReceiveBufferSize(256 * 1024);
+            channel.connect(forwardTo);
+            final InputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (true) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                } else if (b == '\n' || b == '\r') {
+                    // Trailing delimiter after an octet-counted frame
+                    continue;
+                }
+                datagram.clear();
+                if (b >= '1' && b <= '9') {
+                    // Octet-counting: MSG-LEN SP SYSLOG-MSG
+                    int length = b - '0';
+                    while ((b = in.read()) != ' ') {
+                        if (b < '0' || b > '9') {
+                            throw new IOException("Invalid frame length.");
+                        }
+                        length = length * 10 + (b - '0');
+                        if (length > MAX_MESSAGE_SIZE) {
+                            throw new IOException("Frame too large: " + length);
+                        }
+                    }
+                    for (int i = 0; i < length; i++) {
+                        b = in.read();
+                        if (b < 0) {
+                            throw new EOFException();
+                        }
+                        datagram.put((byte)b);
+                    }
+                } else {
+                    // Non-transparent framing: SYSLOG-MSG LF
+                    line.reset();
+                    while (b >= 0 && b != '\n') {
+                        if (line.size() < MAX_MESSAGE_SIZE) {
+                            line.write(b);
+                        }
+                        b = in.read();
+                    }
+                    datagram.put(line.toByteArray());
+                }
+                datagram.flip();
+                channel.write(datagram);
+                messages.incrementAndGet();
+            }
+        } catch (IOException e) {
+            System.out.printf("Relay connection from %s closed: %s%n", socket.getRemoteSocketAddress(), e.getMessage());
+        } finally {
+            connections.decrementAndGet();
+        }
+    }
+
+    private static String getEnv(String name, String defaultValue) {
+        final String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : defaultValue;
+    }
+}
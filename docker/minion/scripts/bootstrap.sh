@@ -10,10 +10,46 @@ sed -i s/sshHost.*/sshHost=0.0.0.0/g "${MINION_HOME}/etc/org.apache.karaf.shell.
 sed -i s/rmiRegistryHost.*/rmiRegistryHost=0.0.0.0/g "${MINION_HOME}/etc/org.apache.karaf.management.cfg"
 sed -i s/rmiServerHost.*/rmiServerHost=0.0.0.0/g "${MINION_HOME}/etc/org.apache.karaf.management.cfg"
 
-echo "location = MINION" > $MINION_HOME/etc/org.opennms.minion.controller.cfg
-echo "id = 00000000-0000-0000-0000-000000ddba11" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
-echo "http-url = http://${OPENNMS_PORT_8980_TCP_ADDR}:${OPENNMS_PORT_8980_TCP_PORT}" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
-echo "broker-url = tcp://${OPENNMS_PORT_61616_TCP_ADDR}:${OPENNMS_PORT_61616_TCP_PORT}" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
+# The ID and location can be overridden when running more than one Minion
+MINION_ID=${MINION_ID:-00000000-0000-0000-0000-000000ddba11}
+MINION_LOCATION=${MINION_LOCATION:-MINION}
+echo "MINION ID: ${MINION_ID} LOCATION: ${MINION_LOCATION}"
+
+# The link environment variables are only set on the default bridge network,
+# on user-defined networks the linked container is resolved by its alias
+OPENNMS_HTTP_ADDR=${OPENNMS_PORT_8980_TCP_ADDR:-opennms}
+OPENNMS_HTTP_PORT=${OPENNMS_PORT_8980_TCP_PORT:-8980}
+OPENNMS_BROKER_ADDR=${OPENNMS_PORT_61616_TCP_ADDR:-opennms}
+OPENNMS_BROKER_PORT=${OPENNMS_PORT_61616_TCP_PORT:-61616}
+
+echo "location = ${MINION_LOCATION}" > $MINION_HOME/etc/org.opennms.minion.controller.cfg
+echo "id = ${MINION_ID}" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
+echo "http-url = http://${OPENNMS_HTTP_ADDR}:${OPENNMS_HTTP_PORT}" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
+echo "broker-url = tcp://${OPENNMS_BROKER_ADDR}:${OPENNMS_BROKER_PORT}" >> $MINION_HOME/etc/org.opennms.minion.controller.cfg
+
+# Relay syslog messages received over TCP to the UDP listener
+java -cp "${MINION_HOME}/relay" SyslogTcpRelay &
+RELAY_PID=$!
 
 rm -rf $MINION_HOME/data
-$MINION_HOME/bin/karaf clean server
+$MINION_HOME/bin/karaf clean server &
+KARAF_PID=$!
+
+STOPPING=0
+trap 'STOPPING=1; kill $KARAF_PID $RELAY_PID 2>/dev/null || true' TERM INT
+
+# Stop the container when the relay exits, so that losing the TCP path
+# fails the tests instead of going unnoticed
+while kill -0 $KARAF_PID 2>/dev/null; do
+    if [ $STOPPING -eq 0 ] && ! kill -0 $RELAY_PID 2>/dev/null; then
+        RELAY_STATUS=0
+        wait $RELAY_PID || RELAY_STATUS=$?
+        echo "SyslogTcpRelay exited with status ${RELAY_STATUS}, stopping the Minion"
+        kill $KARAF_PID 2>/dev/null || true
+        wait $KARAF_PID || true
+        exit 1
+    fi
+    sleep 1
+done
+kill $RELAY_PID 2>/dev/null || true
+wait $KARAF_PID
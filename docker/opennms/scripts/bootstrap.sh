@@ -3,9 +3,24 @@ OPENNMS_HOME=/opt/opennms
 
 echo "OPENNMS HOME: "${OPENNMS_HOME}
 
+# The link environment variables are only set on the default bridge network,
+# on user-defined networks the linked container is resolved by its alias
+POSTGRES_HOST=${POSTGRES_PORT_5432_TCP_ADDR:-postgres}
+POSTGRES_PORT=${POSTGRES_PORT_5432_TCP_PORT:-5432}
+
 # Point PostgreSQL to the linked container
-sed -i 's|url=.*opennms.*|url="jdbc:postgresql://'"${POSTGRES_PORT_5432_TCP_ADDR}:${POSTGRES_PORT_5432_TCP_PORT}/opennms"'"|g' "${OPENNMS_HOME}/etc/opennms-datasources.xml"
-sed -i 's|url=.*template1.*|url="jdbc:postgresql://'"${POSTGRES_PORT_5432_TCP_ADDR}:${POSTGRES_PORT_5432_TCP_PORT}/template1"'"|g' "${OPENNMS_HOME}/etc/opennms-datasources.xml"
+sed -i 's|url=.*opennms.*|url="jdbc:postgresql://'"${POSTGRES_HOST}:${POSTGRES_PORT}/opennms"'"|g' "${OPENNMS_HOME}/etc/opennms-datasources.xml"
+sed -i 's|url=.*template1.*|url="jdbc:postgresql://'"${POSTGRES_HOST}:${POSTGRES_PORT}/template1"'"|g' "${OPENNMS_HOME}/etc/opennms-datasources.xml"
+
+# Size the heap when the container's resources are limited
+if [ -n "$JAVA_HEAP_SIZE" ]; then
+  echo "JAVA_HEAP_SIZE=${JAVA_HEAP_SIZE}" >> "${OPENNMS_HOME}/etc/opennms.conf"
+fi
+
+# Set the rate at which Discovery sends pings, which defaults to 1 per second
+if [ -n "$DISCOVERY_PACKETS_PER_SECOND" ]; then
+  sed -i 's/packets-per-second="[0-9.]*"/packets-per-second="'"${DISCOVERY_PACKETS_PER_SECOND}"'"/' "${OPENNMS_HOME}/etc/discovery-configuration.xml"
+fi
 
 # Expose the Karaf shell
 sed -i s/sshHost.*/sshHost=0.0.0.0/g "${OPENNMS_HOME}/etc/org.apache.karaf.shell.cfg"
@@ -20,6 +35,56 @@ ed "${OPENNMS_HOME}/etc/opennms-activemq.xml" <<EOF
 wq
 EOF
 
+# Collect from the targets of the JMX farm, when it's spawned
+# The attributes of its MBeans are numbered from 0 to JMX_FARM_ATTRIBUTES - 1
+if [ -n "$JMX_FARM_ATTRIBUTES" ]; then
+  echo "Editing collectd-configuration.xml..."
+  # Insert the package and its collector before the first collector
+  ed "${OPENNMS_HOME}/etc/collectd-configuration.xml" <<EOF
+/<collector /i
+<package name="jmx-farm">
+  <filter>IPADDR != '0.0.0.0'</filter>
+  <include-range begin="1.1.1.1" end="254.254.254.254"/>
+  <service name="JMX-Farm" interval="300000" user-defined="false" status="on">
+    <parameter key="port" value="9999"/>
+    <parameter key="retry" value="2"/>
+    <parameter key="timeout" value="3000"/>
+    <parameter key="protocol" value="rmi"/>
+    <parameter key="urlPath" value="/jmxrmi"/>
+    <parameter key="rrd-base-name" value="java"/>
+    <parameter key="ds-name" value="jmx-farm"/>
+    <parameter key="friendly-name" value="jmx-farm"/>
+    <parameter key="collection" value="jmx-farm"/>
+    <parameter key="thresholding-enabled" value="false"/>
+  </service>
+</package>
+<collector service="JMX-Farm" class-name="org.opennms.netmgt.collectd.Jsr160Collector"/>
+.
+wq
+EOF
+
+  echo "Editing jmx-datacollection-config.xml..."
+  ATTRIBS=""
+  for i in $(seq 0 $((JMX_FARM_ATTRIBUTES - 1))); do
+    ATTRIBS+="      <attrib name=\"Counter${i}\" alias=\"c${i}\" type=\"counter\"/>"$'\n'
+  done
+  # Insert the collection before the closing tag, matching all of the MBeans of the targets
+  ed "${OPENNMS_HOME}/etc/jmx-datacollection-config.xml" <<EOF
+/<\/jmx-datacollection-config>/i
+<jmx-collection name="jmx-farm">
+  <rrd step="300">
+    <rra>RRA:AVERAGE:0.5:1:2016</rra>
+  </rrd>
+  <mbeans>
+    <mbean name="Farm" objectname="stests:type=Farm,name=*" keyfield="name">
+${ATTRIBS}    </mbean>
+  </mbeans>
+</jmx-collection>
+.
+wq
+EOF
+fi
+
 #echo "Editing custom.properties..."
 #ed "${OPENNMS_HOME}/etc/custom.properties" <<EOF
 #/org.opennms.netmgt.snmp;/a
@@ -30,7 +95,7 @@ EOF
 
 echo "Waiting for Postgres to start..."
 WAIT=0
-while ! $(timeout 1 bash -c 'cat < /dev/null > /dev/tcp/$POSTGRES_PORT_5432_TCP_ADDR/$POSTGRES_PORT_5432_TCP_PORT'); do
+while ! $(timeout 1 bash -c "cat < /dev/null > /dev/tcp/${POSTGRES_HOST}/${POSTGRES_PORT}"); do
   sleep 1
   WAIT=$(($WAIT + 1))
   if [ "$WAIT" -gt 15 ]; then
@@ -42,5 +107,18 @@ done
 # Start OpenNMS
 rm -rf ${OPENNMS_HOME}/data
 ${OPENNMS_HOME}/bin/runjava -s
-${OPENNMS_HOME}/bin/install -dis
+if [ "$OPENNMS_SKIP_INSTALL" = "true" ]; then
+  # The database was restored from a snapshot, so we only need to flag the install as complete
+  echo "Skipping the installer."
+  touch "${OPENNMS_HOME}/etc/configured"
+else
+  ${OPENNMS_HOME}/bin/install -dis || exit 1
+fi
+
+# Used to create the database snapshots
+if [ "$OPENNMS_INSTALL_ONLY" = "true" ]; then
+  echo "Install complete."
+  exit 0
+fi
+
 "${OPENNMS_HOME}/bin/opennms" -f start
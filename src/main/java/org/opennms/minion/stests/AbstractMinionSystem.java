@@ -28,19 +28,65 @@
 package org.opennms.minion.stests;
 
 import java.net.InetSocketAddress;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
 import org.opennms.minion.stests.junit.ExternalResourceRule;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.EventWatcher;
+import org.opennms.minion.stests.utils.HibernateDaoFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.AttachedNetwork;
 import com.spotify.docker.client.messages.ContainerInfo;
 import com.spotify.docker.client.messages.PortBinding;
 
 public abstract class AbstractMinionSystem extends ExternalResourceRule implements MinionSystem {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractMinionSystem.class);
+
+    private HibernateDaoFactory daoFactory;
+
     public abstract DockerClient getDockerClient();
 
+    @Override
+    public synchronized HibernateDaoFactory getDaoFactory() {
+        if (daoFactory == null) {
+            daoFactory = new HibernateDaoFactory(getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        }
+        return daoFactory;
+    }
+
+    /**
+     * Closes the DAO factory, if it was created. Must be called before the system is torn down.
+     */
+    protected synchronized void closeDaoFactory() {
+        if (daoFactory != null) {
+            daoFactory.close();
+            daoFactory = null;
+        }
+    }
+
+    /**
+     * Removes the trigger installed by the {@link EventWatcher}s from OpenNMS's events
+     * table, unless watchers are still listening. Must be called before the system is
+     * torn down, when the database is kept in place.
+     */
+    protected void removeEventTrigger() {
+        if (getContainerInfo(ContainerAlias.POSTGRES) == null) {
+            return;
+        }
+        try {
+            EventWatcher.uninstallIfUnused(DbUtils.getOpenNMSDataSource(getServiceAddress(ContainerAlias.POSTGRES, 5432)));
+        } catch (SQLException e) {
+            LOG.warn("Failed to remove the event trigger.", e);
+        }
+    }
+
     @Override
     public InetSocketAddress getServiceAddress(ContainerAlias alias, int port) {
         return getServiceAddress(alias, port, "tcp");
@@ -52,14 +98,49 @@ public abstract class AbstractMinionSystem extends ExternalResourceRule implemen
         if (info == null) {
             throw new IllegalArgumentException(String.format("No container found with alias: %s", alias));
         }
+        return getServiceAddress(info, port, type);
+    }
+
+    @Override
+    public InetSocketAddress getServiceAddress(ContainerInfo info, int port, String type) {
         final String portKey = port + "/" + type;
         final List<PortBinding> bindings = info.networkSettings().ports().get(portKey);
         if (bindings == null) {
-            throw new IllegalArgumentException(String.format("No bindings found for port %s on alias: %s",
-                    portKey, alias));
+            throw new IllegalArgumentException(String.format("No bindings found for port %s on container: %s",
+                    portKey, info.name()));
         }
         final PortBinding binding = bindings.iterator().next();
         final String host = "0.0.0.0".equals(binding.hostIp()) ? getDockerClient().getHost() : binding.hostIp();
         return new InetSocketAddress(host, Integer.valueOf(binding.hostPort()));
     }
+
+    @Override
+    public String getContainerIpAddress(ContainerAlias alias) {
+        final ContainerInfo info = getContainerInfo(alias);
+        if (info == null) {
+            throw new IllegalArgumentException(String.format("No container found with alias: %s", alias));
+        }
+        return getContainerIpAddress(info);
+    }
+
+    /**
+     * Returns the IP address of the given container. Containers attached to a
+     * user-defined network only have an address in the network settings for
+     * that network.
+     */
+    public static String getContainerIpAddress(ContainerInfo info) {
+        final String ipAddress = info.networkSettings().ipAddress();
+        if (ipAddress != null && !ipAddress.isEmpty()) {
+            return ipAddress;
+        }
+        final Map<String, AttachedNetwork> networks = info.networkSettings().networks();
+        if (networks != null) {
+            for (AttachedNetwork network : networks.values()) {
+                if (network.ipAddress() != null && !network.ipAddress().isEmpty()) {
+                    return network.ipAddress();
+                }
+            }
+        }
+        throw new IllegalStateException(String.format("No IP address found for container: %s", info.name()));
+    }
 }
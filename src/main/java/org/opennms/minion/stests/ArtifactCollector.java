@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerException;
+
+/**
+ * Copies directories from containers to tar archives on disk.
+ *
+ * The containers are copied from in parallel, and the copies for any
+ * given container are abandoned once its timeout expires, so that a
+ * stuck copy can't hang the tests.
+ *
+ * @author jwhite
+ */
+public class ArtifactCollector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactCollector.class);
+
+    private final DockerClient docker;
+
+    private final Path destination;
+
+    private final long timeoutMs;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "artifact-collector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<PendingCopy> pendingCopies = Lists.newArrayList();
+
+    private static class PendingCopy {
+        private final String name;
+        private final Future<?> future;
+        private final long deadline;
+
+        private PendingCopy(String name, Future<?> future, long deadline) {
+            this.name = name;
+            this.future = future;
+            this.deadline = deadline;
+        }
+    }
+
+    public ArtifactCollector(DockerClient docker, Path destination, long timeout, TimeUnit unit) {
+        this.docker = docker;
+        this.destination = destination;
+        this.timeoutMs = unit.toMillis(timeout);
+    }
+
+    /**
+     * Starts copying the given paths from the container.
+     *
+     * The archives are streamed to the destination directory as
+     * <name><path>.tar, with the slashes in the path replaced by underscores.
+     */
+    public void collect(String name, String containerId, Collection<String> paths) {
+        final Future<?> future = executor.submit(() -> {
+            for (String path : paths) {
+                final Path archive = destination.resolve(String.format("%s%s.tar", name, path.replace('/', '_')));
+                LOG.info("Copying {} from {} to {}.", path, name, archive);
+                try {
+                    Files.createDirectories(destination);
+                    try (final InputStream in = docker.copyContainer(containerId, path)) {
+                        Files.copy(in, archive, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (DockerException | IOException e) {
+                    LOG.warn("Failed to copy {} from {}.", path, name, e);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        pendingCopies.add(new PendingCopy(name, future, System.currentTimeMillis() + timeoutMs));
+    }
+
+    /**
+     * Blocks until all of the copies have completed, or timed out.
+     */
+    public void awaitCompletion() {
+        try {
+            for (PendingCopy pendingCopy : pendingCopies) {
+                try {
+                    pendingCopy.future.get(Math.max(0, pendingCopy.deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // The stream isn't closed here, since closing it may block until the rest of the archive is read.
+                    // The connection is aborted when the Docker client is closed.
+                    LOG.warn("Timed out after {} ms copying artifacts from {}. The archives may be incomplete.", timeoutMs, pendingCopy.name);
+                    pendingCopy.future.cancel(true);
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to copy artifacts from {}.", pendingCopy.name, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        } finally {
+            pendingCopies.clear();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.RollingFileOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.LogsParam;
+import com.spotify.docker.client.DockerException;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.LogStream;
+import com.spotify.docker.client.messages.ContainerInfo;
+import com.spotify.docker.client.messages.Event;
+
+/**
+ * Follows the Docker event stream and the output of the containers
+ * in the Minion System in order to detect containers that will never
+ * become ready.
+ *
+ * Services are probed with a short exponential backoff, and the probes
+ * are aborted as soon as the container exits or logs a fatal error,
+ * instead of waiting for the timeout to expire.
+ *
+ * The output of the containers is streamed to rotating files in
+ * target/logs while the containers run, and only the last lines of
+ * output are kept in memory.
+ *
+ * @author jwhite
+ */
+public class ContainerMonitor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerMonitor.class);
+
+    private static final long INITIAL_PROBE_DELAY_MS = 100;
+
+    private static final long MAX_PROBE_DELAY_MS = 2000;
+
+    /**
+     * Directory in which the container output is stored
+     */
+    public static final Path OUTPUT_DIRECTORY = Paths.get("target", "logs");
+
+    private static final long MAX_OUTPUT_FILE_SIZE = 50 * 1024 * 1024;
+
+    private static final int MAX_ROTATED_OUTPUT_FILES = 4;
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private static final long OUTPUT_FLUSH_INTERVAL_MS = 1000;
+
+    /**
+     * Number of lines of output kept in memory for every container
+     */
+    public static final int OUTPUT_TAIL_LINES = 200;
+
+    /**
+     * Lines longer than this are truncated in the tail, and when matching fatal output
+     */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private static final String JVM_FAILURES = "Error occurred during initialization of VM|Error: Could not create the Java Virtual Machine";
+
+    /**
+     * Output that indicates that the container will never become ready
+     */
+    public static final ImmutableMap<ContainerAlias, Pattern> FATAL_OUTPUT_BY_ALIAS =
+            new ImmutableMap.Builder<ContainerAlias, Pattern>()
+                .put(ContainerAlias.OPENNMS, Pattern.compile(".*(" + JVM_FAILURES
+                        + "|Error: Timeout waiting for Postgres to start|Exception in thread \"main\").*"))
+                .put(ContainerAlias.MINION, Pattern.compile(".*(" + JVM_FAILURES + "|SyslogTcpRelay exited).*"))
+                .put(ContainerAlias.TOMCAT, Pattern.compile(".*(" + JVM_FAILURES + ").*"))
+                .put(ContainerAlias.FLEET, Pattern.compile(".*(" + JVM_FAILURES + "|Exception in thread \"main\").*"))
+                .put(ContainerAlias.SNMP_AGENTS, Pattern.compile(".*(" + JVM_FAILURES + "|Exception in thread \"main\").*"))
+                .put(ContainerAlias.JMX_TARGETS, Pattern.compile(".*(" + JVM_FAILURES + "|Exception in thread \"main\").*"))
+                .build();
+
+    private final DockerClient docker;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "container-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Aliases of the containers that were created, events for any other containers are ignored
+     */
+    private final Map<String, ContainerAlias> aliasesById = Maps.newConcurrentMap();
+
+    /**
+     * IDs of the containers that are being watched, guarded by exitedIds
+     */
+    private final Set<String> watchedIds = Sets.newHashSet();
+
+    /**
+     * IDs of the containers that exited before we started watching them,
+     * removed once they're checked by {@link #watch(ContainerAlias, String)}
+     */
+    private final Set<String> exitedIds = Sets.newHashSet();
+
+    private final Map<ContainerAlias, String> failuresByAlias = Maps.newConcurrentMap();
+
+    private final Set<LogStream> logStreams = Sets.newConcurrentHashSet();
+
+    private final Map<String, Deque<String>> outputTailsById = Maps.newConcurrentMap();
+
+    private final Map<String, Path> outputFilesById = Maps.newConcurrentMap();
+
+    private EventStream eventStream;
+
+    public ContainerMonitor(DockerClient docker) {
+        this.docker = docker;
+    }
+
+    /**
+     * Starts following the Docker event stream.
+     *
+     * This should be called before any of the containers are created
+     * so that we don't miss any of their events.
+     */
+    public synchronized void start() throws DockerException, InterruptedException {
+        eventStream = docker.events();
+        final EventStream events = eventStream;
+        executor.execute(() -> {
+            try {
+                while (events.hasNext()) {
+                    final Event event = events.next();
+                    if (!"die".equals(event.status()) && !"oom".equals(event.status())) {
+                        continue;
+                    }
+                    // The stream includes the events of every container on the host
+                    final ContainerAlias alias = aliasesById.get(event.id());
+                    if (alias == null) {
+                        continue;
+                    }
+                    synchronized (exitedIds) {
+                        if (!watchedIds.contains(event.id())) {
+                            exitedIds.add(event.id());
+                            continue;
+                        }
+                    }
+                    fail(alias, describeExit(event.id(), event.status()));
+                }
+            } catch (RuntimeException e) {
+                // The stream was closed
+                LOG.debug("Stopped following the Docker event stream: {}", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Registers a container that was created, but not started yet, so that
+     * its events are tracked until it's watched.
+     */
+    public void expect(ContainerAlias alias, String containerId) {
+        aliasesById.put(containerId, alias);
+    }
+
+    /**
+     * Starts monitoring the given container, which should be running, and should
+     * have been registered with {@link #expect(ContainerAlias, String)} before it
+     * was started, so that an early exit isn't missed.
+     */
+    public void watch(ContainerAlias alias, String containerId) throws DockerException, InterruptedException {
+        aliasesById.put(containerId, alias);
+        final boolean exited;
+        synchronized (exitedIds) {
+            watchedIds.add(containerId);
+            exited = exitedIds.remove(containerId);
+        }
+        if (exited) {
+            fail(alias, describeExit(containerId, "die"));
+            return;
+        }
+
+        final LogStream logStream = docker.logs(containerId, LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr());
+        logStreams.add(logStream);
+        final Path outputFile = OUTPUT_DIRECTORY.resolve(String.format("%s-%s.log",
+                alias.toString().toLowerCase(), containerId.substring(0, Math.min(12, containerId.length()))));
+        final Deque<String> tail = new ArrayDeque<>(OUTPUT_TAIL_LINES);
+        outputFilesById.put(containerId, outputFile);
+        outputTailsById.put(containerId, tail);
+
+        final Pattern fatalOutput = FATAL_OUTPUT_BY_ALIAS.get(alias);
+        executor.execute(() -> {
+            final StringBuilder line = new StringBuilder();
+            byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+            long lastFlush = System.currentTimeMillis();
+            try (
+                final OutputStream out = new BufferedOutputStream(new RollingFileOutputStream(
+                        outputFile, MAX_OUTPUT_FILE_SIZE, MAX_ROTATED_OUTPUT_FILES), OUTPUT_BUFFER_SIZE);
+            ) {
+                while (logStream.hasNext()) {
+                    final ByteBuffer content = logStream.next().content();
+                    final int length = content.remaining();
+                    if (length > buffer.length) {
+                        buffer = new byte[length];
+                    }
+                    content.get(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                    if (System.currentTimeMillis() - lastFlush > OUTPUT_FLUSH_INTERVAL_MS) {
+                        out.flush();
+                        lastFlush = System.currentTimeMillis();
+                    }
+
+                    line.append(new String(buffer, 0, length, StandardCharsets.UTF_8));
+                    int eol;
+                    while ((eol = line.indexOf("\n")) >= 0 || line.length() > MAX_LINE_LENGTH) {
+                        final String completeLine = line.substring(0, eol >= 0 ? Math.min(eol, MAX_LINE_LENGTH) : MAX_LINE_LENGTH);
+                        line.delete(0, eol >= 0 ? eol + 1 : MAX_LINE_LENGTH);
+                        if (fatalOutput != null && fatalOutput.matcher(completeLine).matches()) {
+                            fail(alias, String.format("container logged '%s'", completeLine.trim()));
+                        }
+                        synchronized (tail) {
+                            if (tail.size() >= OUTPUT_TAIL_LINES) {
+                                tail.removeFirst();
+                            }
+                            tail.addLast(completeLine);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Failed to write the output of {} to {}.", alias, outputFile, e);
+            } catch (RuntimeException e) {
+                // The stream was closed
+                LOG.debug("Stopped following the output of {}: {}", alias, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the last lines of output for the given container, or
+     * an empty list if the container isn't being watched.
+     */
+    public List<String> getOutputTail(String containerId) {
+        final Deque<String> tail = outputTailsById.get(containerId);
+        if (tail == null) {
+            return Collections.emptyList();
+        }
+        synchronized (tail) {
+            return ImmutableList.copyOf(tail);
+        }
+    }
+
+    /**
+     * Returns the file containing the output of the given container, or
+     * null if the container isn't being watched.
+     */
+    public Path getOutputFile(String containerId) {
+        return outputFilesById.get(containerId);
+    }
+
+    /**
+     * Invokes the probe with an exponential backoff until it succeeds.
+     *
+     * @throws IllegalStateException as soon as the container exits or logs a fatal error
+     * @throws TimeoutException if the probe does not succeed within the given timeout
+     */
+    public void await(ContainerAlias alias, String description, Callable<Boolean> probe, long timeout, TimeUnit unit) throws Exception {
+        final long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        long delayMs = INITIAL_PROBE_DELAY_MS;
+        while (true) {
+            checkForFailure(alias);
+            if (Boolean.TRUE.equals(probe.call())) {
+                return;
+            }
+
+            final long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                throw new TimeoutException(String.format("Timed out after %d %s waiting for %s on %s.",
+                        timeout, unit, description, alias));
+            }
+            synchronized (this) {
+                if (!failuresByAlias.containsKey(alias)) {
+                    wait(Math.min(delayMs, remainingMs));
+                }
+            }
+            delayMs = Math.min(delayMs * 2, MAX_PROBE_DELAY_MS);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the container has exited or logged a fatal error
+     */
+    public void checkForFailure(ContainerAlias alias) {
+        final String failure = failuresByAlias.get(alias);
+        if (failure != null) {
+            throw new IllegalStateException(String.format("The %s container failed: %s", alias, failure));
+        }
+    }
+
+    private String describeExit(String containerId, String status) {
+        try {
+            final ContainerInfo info = docker.inspectContainer(containerId);
+            return String.format("container received '%s' event (exit code: %s)", status, info.state().exitCode());
+        } catch (DockerException | InterruptedException e) {
+            LOG.debug("Failed to inspect container {}.", containerId, e);
+            return String.format("container received '%s' event", status);
+        }
+    }
+
+    private void fail(ContainerAlias alias, String reason) {
+        LOG.error("************************************************************");
+        LOG.error("The {} container failed: {}", alias, reason);
+        LOG.error("************************************************************");
+        synchronized (this) {
+            failuresByAlias.putIfAbsent(alias, reason);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (eventStream != null) {
+            eventStream.close();
+            eventStream = null;
+        }
+        for (LogStream logStream : logStreams) {
+            logStream.close();
+        }
+        logStreams.clear();
+        executor.shutdownNow();
+        try {
+            // Give the followers a chance to flush the output to disk
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.spotify.docker.client.DockerClient;
+
+/**
+ * Stops and removes containers concurrently.
+ *
+ * Every container is given a grace period to stop before being killed,
+ * and containers that aren't removed within the deadline are reported
+ * as leftovers instead of holding up the remaining containers.
+ *
+ * @author jwhite
+ */
+public class ContainerReaper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerReaper.class);
+
+    private final DockerClient docker;
+
+    private final int stopTimeoutSeconds;
+
+    private final long deadlineMs;
+
+    public ContainerReaper(DockerClient docker, int stopTimeoutSeconds, long deadline, TimeUnit unit) {
+        this.docker = docker;
+        this.stopTimeoutSeconds = stopTimeoutSeconds;
+        this.deadlineMs = unit.toMillis(deadline);
+    }
+
+    /**
+     * Stops and removes the given containers, blocking until they are all
+     * removed or the deadline expires.
+     *
+     * @return the IDs of the containers that could not be removed
+     */
+    public List<String> reap(Collection<String> containerIds) {
+        if (containerIds.isEmpty()) {
+            return Lists.newArrayList();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(containerIds.size(), r -> {
+            final Thread thread = new Thread(r, "container-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long start = System.currentTimeMillis();
+        final Map<String, Future<Long>> futuresById = Maps.newLinkedHashMap();
+        for (String containerId : containerIds) {
+            futuresById.put(containerId, executor.submit(() -> {
+                try {
+                    // Docker kills the container if it doesn't stop within the timeout
+                    docker.stopContainer(containerId, stopTimeoutSeconds);
+                } catch (Exception e) {
+                    LOG.warn("Failed to stop container with id: {}. Killing it.", containerId, e);
+                    docker.killContainer(containerId);
+                }
+                docker.removeContainer(containerId, true);
+                return System.currentTimeMillis() - start;
+            }));
+        }
+
+        final List<String> leftovers = Lists.newArrayList();
+        try {
+            LOG.info("************************************************************");
+            for (Map.Entry<String, Future<Long>> entry : futuresById.entrySet()) {
+                final String containerId = entry.getKey();
+                try {
+                    final long durationMs = entry.getValue().get(Math.max(0, start + deadlineMs - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    LOG.info("Removed container with id: {} in {} ms", containerId, durationMs);
+                } catch (TimeoutException e) {
+                    LOG.error("Timed out after {} ms removing container with id: {}", deadlineMs, containerId);
+                    entry.getValue().cancel(true);
+                    leftovers.add(containerId);
+                } catch (ExecutionException e) {
+                    LOG.error("Failed to remove container with id: {}", containerId, e.getCause());
+                    leftovers.add(containerId);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    leftovers.add(containerId);
+                }
+            }
+            if (!leftovers.isEmpty()) {
+                LOG.error("The following containers were left behind and must be removed manually: {}", leftovers);
+            }
+            LOG.info("************************************************************");
+        } finally {
+            executor.shutdownNow();
+        }
+        return leftovers;
+    }
+}
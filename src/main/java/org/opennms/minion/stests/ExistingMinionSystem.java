@@ -27,15 +27,24 @@
  *******************************************************************************/
 package org.opennms.minion.stests;
 
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerException;
 import com.spotify.docker.client.messages.Container;
 import com.spotify.docker.client.messages.ContainerInfo;
 
@@ -46,37 +55,102 @@ import com.spotify.docker.client.messages.ContainerInfo;
  * This is particularly useful when developing tests, since the
  * containers do not need to be recreated everytime.
  *
- * We assume that there is a single set of containers created with
- * the image names we use.
+ * The containers are found using the labels applied by the NewMinionSystem.
+ * When no stack ID is given, we assume that there is a single stack on
+ * the Docker host. Containers created before the labels were introduced
+ * are found by image name.
  *
  * @author jwhite
  */
 public class ExistingMinionSystem extends AbstractMinionSystem implements MinionSystem {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ExistingMinionSystem.class);
+
+    private final String stackId;
+
     private DockerClient docker;
 
     private final Map<ContainerAlias, ContainerInfo> containerInfo = Maps.newHashMap();
 
+    private final List<MinionInstance> minions = Lists.newArrayList();
+
+    public ExistingMinionSystem() {
+        this(null);
+    }
+
+    public ExistingMinionSystem(String stackId) {
+        this.stackId = stackId;
+    }
+
     @Override
     protected void before() throws Throwable {
-        // Invert the map
-        Map<String, ContainerAlias> aliasesByImage = Maps.newHashMap();
-        for (Entry<ContainerAlias, String> entry : NewMinionSystem.IMAGES_BY_ALIAS.entrySet()) {
-            aliasesByImage.put(entry.getValue(), entry.getKey());
+        docker = DefaultDockerClient.fromEnv().build();
+
+        String stackIdToUse = stackId;
+        if (stackIdToUse == null) {
+            final Set<String> stackIds = Sets.newTreeSet();
+            for (final Container container : docker.listContainers(ListContainersParam.withLabel(NewMinionSystem.STACK_LABEL))) {
+                stackIds.add(container.labels().get(NewMinionSystem.STACK_LABEL));
+            }
+            if (stackIds.size() > 1) {
+                throw new IllegalStateException(String.format("Found multiple stacks: %s. "
+                        + "Use withStackId() to choose one of them.", stackIds));
+            }
+            stackIdToUse = Iterables.getFirst(stackIds, null);
         }
 
-        docker = DefaultDockerClient.fromEnv().build();
-        for (final Container container : docker.listContainers()) {
-            final ContainerAlias alias = aliasesByImage.get(container.image());
-            if (alias == null) {
-                continue;
+        if (stackIdToUse != null) {
+            LOG.info("Using the containers from stack: {}", stackIdToUse);
+            for (final Container container : docker.listContainers(ListContainersParam.withLabel(NewMinionSystem.STACK_LABEL, stackIdToUse))) {
+                final String aliasLabel = container.labels().get(NewMinionSystem.ALIAS_LABEL);
+                if (aliasLabel == null) {
+                    continue;
+                }
+                addContainer(ContainerAlias.valueOf(aliasLabel), container);
             }
-            containerInfo.put(alias, docker.inspectContainer(container.id()));
+        } else {
+            // Invert the map
+            Map<String, ContainerAlias> aliasesByImage = Maps.newHashMap();
+            for (Entry<ContainerAlias, String> entry : NewMinionSystem.IMAGES_BY_ALIAS.entrySet()) {
+                aliasesByImage.put(entry.getValue(), entry.getKey());
+            }
+            for (final Container container : docker.listContainers()) {
+                final ContainerAlias alias = aliasesByImage.get(container.image());
+                if (alias == null) {
+                    continue;
+                }
+                addContainer(alias, container);
+            }
+        }
+
+        // Order the Minions by ID, so that the first Minion is the one with the first ID
+        minions.sort(Comparator.comparing(MinionInstance::getId));
+        for (int i = 0; i < minions.size(); i++) {
+            final MinionInstance minion = minions.get(i);
+            minions.set(i, new MinionInstance(i, minion.getId(), minion.getLocation(), minion.getContainerInfo()));
+        }
+        if (!minions.isEmpty()) {
+            containerInfo.put(ContainerAlias.MINION, minions.get(0).getContainerInfo());
+        }
+    }
+
+    private void addContainer(ContainerAlias alias, Container container) throws DockerException, InterruptedException {
+        final ContainerInfo info = docker.inspectContainer(container.id());
+        if (alias == ContainerAlias.MINION) {
+            minions.add(new MinionInstance(minions.size(),
+                    MinionInstance.getEnv(info, "MINION_ID", MinionInstance.getId(0)),
+                    MinionInstance.getEnv(info, "MINION_LOCATION", MinionInstance.DEFAULT_LOCATION),
+                    info));
+        } else {
+            containerInfo.put(alias, info);
         }
     }
 
     @Override
     protected void after(boolean didFail) {
+        closeDaoFactory();
+        removeEventTrigger();
+
         if (docker == null) {
             return;
         }
@@ -94,6 +168,11 @@ public class ExistingMinionSystem extends AbstractMinionSystem implements Minion
         return containerInfo.keySet();
     }
 
+    @Override
+    public List<MinionInstance> getMinions() {
+        return minions;
+    }
+
     @Override
     public DockerClient getDockerClient() {
         return docker;
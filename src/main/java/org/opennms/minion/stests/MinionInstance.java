@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.util.List;
+
+import com.spotify.docker.client.messages.ContainerInfo;
+
+/**
+ * A Minion container, along with the identity it was given.
+ *
+ * @author jwhite
+ */
+public class MinionInstance {
+
+    /**
+     * ID given to the first Minion, subsequent Minions are numbered sequentially from here
+     */
+    private static final long FIRST_MINION_ID = 0xddba11;
+
+    /**
+     * Location of the first group of Minions
+     */
+    public static final String DEFAULT_LOCATION = "MINION";
+
+    private final int index;
+    private final String id;
+    private final String location;
+    private final ContainerInfo containerInfo;
+
+    public MinionInstance(int index, String id, String location, ContainerInfo containerInfo) {
+        this.index = index;
+        this.id = id;
+        this.location = location;
+        this.containerInfo = containerInfo;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public ContainerInfo getContainerInfo() {
+        return containerInfo;
+    }
+
+    /**
+     * Name used to refer to the Minion in logs and reports.
+     */
+    public String getName() {
+        return getName(index);
+    }
+
+    /**
+     * Generates the name for the Minion at the given index.
+     */
+    public static String getName(int index) {
+        return index == 0 ? "minion" : "minion-" + (index + 1);
+    }
+
+    /**
+     * Generates the ID for the Minion at the given index.
+     *
+     * The first Minion is given 00000000-0000-0000-0000-000000ddba11.
+     */
+    public static String getId(int index) {
+        return String.format("00000000-0000-0000-0000-%012x", FIRST_MINION_ID + index);
+    }
+
+    /**
+     * Generates the location for the Minion at the given index, grouping
+     * the given number of Minions in every location.
+     *
+     * The first location is MINION, followed by MINION-2, MINION-3, ...
+     */
+    public static String getLocation(int index, int minionsPerLocation) {
+        final int locationIndex = index / minionsPerLocation;
+        return locationIndex == 0 ? DEFAULT_LOCATION : DEFAULT_LOCATION + "-" + (locationIndex + 1);
+    }
+
+    /**
+     * Retrieves the value of the given environment variable from the container's
+     * configuration, or returns the default value if it isn't set.
+     */
+    public static String getEnv(ContainerInfo containerInfo, String name, String defaultValue) {
+        final List<String> env = containerInfo.config().env();
+        if (env != null) {
+            for (String entry : env) {
+                if (entry.startsWith(name + "=")) {
+                    return entry.substring(name.length() + 1);
+                }
+            }
+        }
+        return defaultValue;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MinionInstance[name=%s, id=%s, location=%s, container=%s]",
+                getName(), id, location, containerInfo.id());
+    }
+}
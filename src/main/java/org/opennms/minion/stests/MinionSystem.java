@@ -28,10 +28,12 @@
 package org.opennms.minion.stests;
 
 import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.rules.TestRule;
 import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.HibernateDaoFactory;
 
 import com.spotify.docker.client.messages.ContainerInfo;
 
@@ -51,10 +53,29 @@ public interface MinionSystem extends TestRule {
 
     public InetSocketAddress getServiceAddress(ContainerAlias alias, int port, String type);
 
+    public InetSocketAddress getServiceAddress(ContainerInfo info, int port, String type);
+
     public ContainerInfo getContainerInfo(ContainerAlias alias);
 
+    /**
+     * Returns the IP address of the container on the network it's attached to.
+     */
+    public String getContainerIpAddress(ContainerAlias alias);
+
     public Set<ContainerAlias> getContainerAliases();
 
+    /**
+     * Returns all of the Minions in the system. The first Minion
+     * is the one referred to by {@link ContainerAlias#MINION}.
+     */
+    public List<MinionInstance> getMinions();
+
+    /**
+     * Returns the DAO factory for the OpenNMS database, which is created on first
+     * use, shared by all of the users of the system and closed when it's torn down.
+     */
+    public HibernateDaoFactory getDaoFactory();
+
     public static MinionSystemBuilder builder() {
         return new MinionSystemBuilder();
     }
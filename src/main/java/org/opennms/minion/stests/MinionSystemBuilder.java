@@ -1,9 +1,28 @@
 package org.opennms.minion.stests;
 
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+
+import com.google.common.collect.ImmutableMap;
+
 public class MinionSystemBuilder {
 
     private boolean m_skipTearDown = false;
     private boolean m_useExisting = false;
+    private boolean m_shared = false;
+    private boolean m_useDatabaseSnapshot = false;
+    private int m_minions = 1;
+    private int m_minionsPerLocation = 1;
+    private String m_stackId = null;
+    private ResourceProfile m_resourceProfile = ResourceProfile.UNLIMITED;
+    private Set<ContainerAlias> m_optionalContainers = EnumSet.noneOf(ContainerAlias.class);
+    private int m_jmxMBeans = 10;
+    private int m_jmxAttributes = 10;
+    private int m_discoveryRate = 0;
 
     public MinionSystemBuilder skipTearDown(boolean skipTearDown) {
         m_skipTearDown = skipTearDown;
@@ -15,11 +34,196 @@ public class MinionSystemBuilder {
         return this;
     }
 
+    /**
+     * Share a single set of containers with all the other
+     * test classes running in the same JVM.
+     */
+    public MinionSystemBuilder shared(boolean shared) {
+        m_shared = shared;
+        return this;
+    }
+
+    /**
+     * Spawn PostgreSQL from a snapshot containing an initialized
+     * OpenNMS database, and skip the OpenNMS installer.
+     */
+    public MinionSystemBuilder useDatabaseSnapshot(boolean useDatabaseSnapshot) {
+        m_useDatabaseSnapshot = useDatabaseSnapshot;
+        return this;
+    }
+
+    /**
+     * Spawn the given number of Minions, each with a distinct ID.
+     */
+    public MinionSystemBuilder withMinions(int minions) {
+        if (minions < 1) {
+            throw new IllegalArgumentException("At least one Minion is required.");
+        }
+        m_minions = minions;
+        return this;
+    }
+
+    /**
+     * Place the given number of Minions in every location, defaults to 1.
+     */
+    public MinionSystemBuilder withMinionsPerLocation(int minionsPerLocation) {
+        if (minionsPerLocation < 1) {
+            throw new IllegalArgumentException("At least one Minion per location is required.");
+        }
+        m_minionsPerLocation = minionsPerLocation;
+        return this;
+    }
+
+    /**
+     * Use the given ID for the stack, instead of generating a unique one.
+     *
+     * When used in combination with useExisting(true), only the containers
+     * from the given stack are used.
+     */
+    public MinionSystemBuilder withStackId(String stackId) {
+        m_stackId = stackId;
+        return this;
+    }
+
+    /**
+     * Limit the resources available to the OpenNMS and Minion containers
+     * using the given profile, defaults to {@link ResourceProfile#UNLIMITED}.
+     */
+    public MinionSystemBuilder withResourceProfile(ResourceProfile resourceProfile) {
+        m_resourceProfile = Objects.requireNonNull(resourceProfile);
+        return this;
+    }
+
+    /**
+     * Limit the resources using one of the predefined profiles i.e. small, medium or large.
+     */
+    public MinionSystemBuilder withResourceProfile(String resourceProfileName) {
+        return withResourceProfile(ResourceProfile.getByName(resourceProfileName));
+    }
+
+    /**
+     * Spawn the fleet simulator, which sends traffic from many distinct
+     * source addresses, see {@link org.opennms.minion.stests.utils.FleetClient}.
+     */
+    public MinionSystemBuilder withFleet(boolean withFleet) {
+        return withOptionalContainer(ContainerAlias.FLEET, withFleet);
+    }
+
+    /**
+     * Spawn the SNMP agent farm, which serves many virtual SNMP agents, each with
+     * its own address, see {@link org.opennms.minion.stests.utils.AgentFarmClient}.
+     */
+    public MinionSystemBuilder withSnmpAgentFarm(boolean withSnmpAgentFarm) {
+        return withOptionalContainer(ContainerAlias.SNMP_AGENTS, withSnmpAgentFarm);
+    }
+
+    /**
+     * Spawn the JMX target farm, which serves many JMX targets, each with its own
+     * address and MBean server, see {@link org.opennms.minion.stests.utils.JmxFarmClient}.
+     */
+    public MinionSystemBuilder withJmxTargetFarm(boolean withJmxTargetFarm) {
+        return withOptionalContainer(ContainerAlias.JMX_TARGETS, withJmxTargetFarm);
+    }
+
+    /**
+     * Serve the given number of MBeans from every target of the JMX farm, each
+     * with the given number of attributes, defaults to 10 of each.
+     */
+    public MinionSystemBuilder withJmxMBeans(int mbeansPerTarget, int attributesPerMBean) {
+        if (mbeansPerTarget < 1 || attributesPerMBean < 1) {
+            throw new IllegalArgumentException("At least one MBean with one attribute is required.");
+        }
+        m_jmxMBeans = mbeansPerTarget;
+        m_jmxAttributes = attributesPerMBean;
+        return this;
+    }
+
+    /**
+     * Have Discovery send the given number of pings per second, instead of the
+     * rate found in the default configuration, which is 1.
+     */
+    public MinionSystemBuilder withDiscoveryRate(int packetsPerSecond) {
+        if (packetsPerSecond < 1) {
+            throw new IllegalArgumentException("At least one packet per second is required.");
+        }
+        m_discoveryRate = packetsPerSecond;
+        return this;
+    }
+
+    private MinionSystemBuilder withOptionalContainer(ContainerAlias alias, boolean enabled) {
+        if (enabled) {
+            m_optionalContainers.add(alias);
+        } else {
+            m_optionalContainers.remove(alias);
+        }
+        return this;
+    }
+
+    boolean isSkipTearDown() {
+        return m_skipTearDown;
+    }
+
+    boolean isUseDatabaseSnapshot() {
+        return m_useDatabaseSnapshot;
+    }
+
+    ResourceProfile getResourceProfile() {
+        return m_resourceProfile;
+    }
+
+    String getStackId() {
+        return m_stackId;
+    }
+
+    int getMinions() {
+        return m_minions;
+    }
+
+    int getMinionsPerLocation() {
+        return m_minionsPerLocation;
+    }
+
+    int getJmxMBeans() {
+        return m_jmxMBeans;
+    }
+
+    int getJmxAttributes() {
+        return m_jmxAttributes;
+    }
+
+    int getDiscoveryRate() {
+        return m_discoveryRate;
+    }
+
+    Set<ContainerAlias> getOptionalContainers() {
+        return EnumSet.copyOf(m_optionalContainers);
+    }
+
+    /**
+     * Returns the settings that determine what is spawned, by name, which are
+     * compared before attaching to a shared system that was already spawned.
+     */
+    Map<String, String> getStackConfiguration() {
+        return new ImmutableMap.Builder<String, String>()
+                .put("stackId", String.valueOf(m_stackId))
+                .put("useDatabaseSnapshot", Boolean.toString(m_useDatabaseSnapshot))
+                .put("minions", Integer.toString(m_minions))
+                .put("minionsPerLocation", Integer.toString(m_minionsPerLocation))
+                .put("resourceProfile", m_resourceProfile.toString())
+                .put("optionalContainers", m_optionalContainers.toString())
+                .put("jmxMBeans", Integer.toString(m_jmxMBeans))
+                .put("jmxAttributes", Integer.toString(m_jmxAttributes))
+                .put("discoveryRate", Integer.toString(m_discoveryRate))
+                .build();
+    }
+
     public MinionSystem build() {
         if (m_useExisting) {
-            return new ExistingMinionSystem();
+            return new ExistingMinionSystem(m_stackId);
+        } else if (m_shared) {
+            return new SharedMinionSystem(this);
         } else {
-            return new NewMinionSystem(m_skipTearDown);
+            return new NewMinionSystem(this);
         }
     }
 }
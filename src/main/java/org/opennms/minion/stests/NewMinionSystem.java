@@ -28,37 +28,56 @@
 package org.opennms.minion.stests;
 
 import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
-import static org.hamcrest.Matchers.is;
-import static org.hamcrest.Matchers.notNullValue;
 
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import jersey.repackaged.com.google.common.collect.Lists;
 
+import org.opennms.minion.stests.ResourceProfile.ContainerLimits;
+import org.opennms.minion.stests.utils.FarmClient;
+import org.opennms.minion.stests.utils.NetUtils;
 import org.opennms.minion.stests.utils.RestClient;
 import org.opennms.minion.stests.utils.SshClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.LogsParam;
 import com.spotify.docker.client.DockerException;
+import com.spotify.docker.client.ImageNotFoundException;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.messages.ContainerConfig;
 import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.ContainerExit;
 import com.spotify.docker.client.messages.ContainerInfo;
 import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.NetworkConfig;
 
 /**
  * Spawns and configures a collection of Docker containers running the Minion System.
@@ -66,10 +85,28 @@ import com.spotify.docker.client.messages.HostConfig;
  * In particular, this is composed of:
  *  1) postgres: An instance of PostgreSQL 
  *  2) opennms: An instance of OpenNMS
- *  3) minion: An instance of Minion
+ *  3) minion: One or more instances of Minion
  *  4) snmpd: An instance of Net-SNMP (used to test SNMP support)
  *  5) tomcat: An instance of Tomcat (used to test JMX support)
  *
+ * When spawning more than one Minion, each Minion is given a distinct ID
+ * and the Minions are spread across locations. The first Minion is the
+ * one referred to by {@link ContainerAlias#MINION}.
+ *
+ * Every system is a separate stack: the containers are attached to a
+ * user-defined network created for the stack, are named after the stack,
+ * and are labeled with the stack's ID and their alias. This allows several
+ * stacks to run on the same Docker host i.e. one per Surefire fork.
+ *
+ * The containers are started concurrently, with each container being
+ * spawned as soon as the containers it links to have been spawned.
+ *
+ * When using a database snapshot, PostgreSQL is spawned from an image
+ * that already contains the OpenNMS database and the OpenNMS installer
+ * is skipped. The snapshot is created on first use, and is keyed by the
+ * ID of the OpenNMS image, so that it's recreated whenever the image is
+ * rebuilt with different RPMs.
+ *
  * @author jwhite
  */
 public class NewMinionSystem extends AbstractMinionSystem implements MinionSystem {
@@ -85,7 +122,10 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
         OPENNMS,
         MINION,
         SNMPD,
-        TOMCAT
+        TOMCAT,
+        FLEET,
+        SNMP_AGENTS,
+        JMX_TARGETS
     }
 
     /**
@@ -98,140 +138,386 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
                 .put(ContainerAlias.MINION, "stests/minion")
                 .put(ContainerAlias.SNMPD, "stests/snmpd")
                 .put(ContainerAlias.TOMCAT, "stests/tomcat")
+                .put(ContainerAlias.FLEET, "stests/farm")
+                .put(ContainerAlias.SNMP_AGENTS, "stests/farm")
+                .put(ContainerAlias.JMX_TARGETS, "stests/farm")
+                .build();
+
+    /**
+     * Mapping from the alias to the aliases of the containers that must
+     * be spawned before it (i.e. the containers it links to)
+     */
+    public static final ImmutableMap<ContainerAlias, Set<ContainerAlias>> DEPENDENCIES_BY_ALIAS =
+            new ImmutableMap.Builder<ContainerAlias, Set<ContainerAlias>>()
+                .put(ContainerAlias.POSTGRES, ImmutableSet.of())
+                .put(ContainerAlias.OPENNMS, ImmutableSet.of(ContainerAlias.POSTGRES))
+                .put(ContainerAlias.MINION, ImmutableSet.of(ContainerAlias.OPENNMS, ContainerAlias.SNMPD, ContainerAlias.TOMCAT))
+                .put(ContainerAlias.SNMPD, ImmutableSet.of())
+                .put(ContainerAlias.TOMCAT, ImmutableSet.of())
+                .put(ContainerAlias.FLEET, ImmutableSet.of())
+                .put(ContainerAlias.SNMP_AGENTS, ImmutableSet.of())
+                .put(ContainerAlias.JMX_TARGETS, ImmutableSet.of())
+                .build();
+
+    /**
+     * Mapping from the alias to the directories containing the logs, which
+     * are copied from the containers when a test fails
+     */
+    public static final ImmutableMultimap<ContainerAlias, String> LOG_DIRECTORIES_BY_ALIAS =
+            new ImmutableMultimap.Builder<ContainerAlias, String>()
+                .put(ContainerAlias.OPENNMS, "/opt/opennms/logs")
+                .put(ContainerAlias.OPENNMS, "/opt/opennms/data/log")
+                .put(ContainerAlias.MINION, "/opt/minion/data/log")
+                .build();
+
+    /**
+     * Containers that are only spawned when requested, see {@link MinionSystemBuilder#withFleet(boolean)}
+     */
+    public static final ImmutableSet<ContainerAlias> OPTIONAL_ALIASES = ImmutableSet.of(ContainerAlias.FLEET, ContainerAlias.SNMP_AGENTS,
+            ContainerAlias.JMX_TARGETS);
+
+    /**
+     * Main class run in the farm containers
+     */
+    private static final ImmutableMap<ContainerAlias, String> FARMS_BY_ALIAS =
+            new ImmutableMap.Builder<ContainerAlias, String>()
+                .put(ContainerAlias.FLEET, "Fleet")
+                .put(ContainerAlias.SNMP_AGENTS, "AgentFarm")
+                .put(ContainerAlias.JMX_TARGETS, "JmxFarm")
+                .build();
+
+    /**
+     * Number of addresses aliased by each of the farms, which are taken from the top of the
+     * stack network's subnet in this order, so that the farms' ranges don't overlap.
+     * These add up to less than the addresses of a /16. Docker allocates a /16 from its
+     * default pools while they last, and smaller subnets (i.e. /20s) after that, in
+     * which case the farms scale their ranges down to fit the subnet they were given.
+     */
+    private static final ImmutableMap<ContainerAlias, Integer> FARM_ADDRESSES_BY_ALIAS =
+            new ImmutableMap.Builder<ContainerAlias, Integer>()
+                .put(ContainerAlias.FLEET, 50000)
+                .put(ContainerAlias.SNMP_AGENTS, 10000)
+                .put(ContainerAlias.JMX_TARGETS, 4000)
                 .build();
 
+    /**
+     * Label used to identify the stack a container belongs to
+     */
+    public static final String STACK_LABEL = "org.opennms.minion.stests.stack";
+
+    /**
+     * Label used to identify the alias of a container within its stack
+     */
+    public static final String ALIAS_LABEL = "org.opennms.minion.stests.alias";
+
+    /**
+     * Maximum amount of time spent copying the logs from any given container
+     */
+    private static final long ARTIFACT_COLLECTION_TIMEOUT_MS = 2 * 60 * 1000;
+
+    /**
+     * Amount of time containers are given to stop gracefully before being killed
+     */
+    private static final int CONTAINER_STOP_TIMEOUT_SECONDS = 10;
+
+    /**
+     * Maximum amount of time spent stopping and removing the containers
+     */
+    private static final long CONTAINER_REMOVAL_TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * Repository for the PostgreSQL images that contain an initialized
+     * OpenNMS database
+     */
+    public static final String DATABASE_SNAPSHOT_REPOSITORY = "stests/postgres-snapshot";
+
+    /**
+     * Location of the PostgreSQL data in the snapshot images. The default
+     * location is a volume, which isn't included when committing a container.
+     */
+    private static final String DATABASE_SNAPSHOT_PGDATA = "/var/lib/postgresql/snapshot";
+
     /**
      * Set if the containers should be kept running after the tests complete
      * (regardless of whether or not they were successful)
      */
     private final boolean skipTearDown;
+
+    /**
+     * Uniquely identifies the stack, used to name the network and the containers
+     */
+    private final String stackId;
+
+    /**
+     * ID of the network created for the stack
+     */
+    private String networkId;
+
+    /**
+     * Set if PostgreSQL should be spawned from a snapshot
+     * containing an initialized OpenNMS database
+     */
+    private final boolean useDatabaseSnapshot;
+
+    /**
+     * The PostgreSQL image to spawn, when using a database snapshot
+     */
+    private String databaseSnapshotImage;
+
+    /**
+     * Number of Minions to spawn, and the number of Minions in every location
+     */
+    private final int minionCount;
+    private final int minionsPerLocation;
+
+    /**
+     * Limits applied to the OpenNMS and Minion containers
+     */
+    private final ResourceProfile resourceProfile;
+
+    /**
+     * The containers to spawn, which include the optional containers that were requested
+     */
+    private final Set<ContainerAlias> aliases;
+
+    /**
+     * Number of MBeans served by every target of the JMX farm, and of attributes of every MBean
+     */
+    private final int jmxMBeans;
+    private final int jmxAttributes;
+
+    /**
+     * Number of pings sent per second by Discovery, or 0 to keep the default
+     */
+    private final int discoveryRate;
+
+    /**
+     * Number of CPUs on the Docker host, and the next CPU to allocate
+     * to a container when using a resource profile
+     */
+    private int hostCpus;
+    private int nextCpu = 0;
+
+    /**
+     * CPUs to which the containers without limits are confined, or null if they aren't
+     */
+    private String unlimitedCpuset;
+
+    /**
+     * The spawned Minions, ordered by index
+     */
+    private final List<MinionInstance> minions = new CopyOnWriteArrayList<>();
     
     /**
      * Keeps track of the IDs for all the created containers sp we can
      * (possibly) tear them down later
      */
-    private final Set<String> createdContainerIds = Sets.newHashSet();
+    private final Set<String> createdContainerIds = Sets.newConcurrentHashSet();
 
     /**
      * Keep track of container meta-data
      */
-    private final Map<ContainerAlias, ContainerInfo> containerInfoByAlias = Maps.newHashMap();
+    private final Map<ContainerAlias, ContainerInfo> containerInfoByAlias = Maps.newConcurrentMap();
+
+    /**
+     * Time, in milliseconds since the start of before(), at which each container
+     * was spawned and at which it was ready
+     */
+    private final Map<ContainerAlias, Long> spawnTimesByAlias = Maps.newConcurrentMap();
+    private final Map<ContainerAlias, Long> readyTimesByAlias = Maps.newConcurrentMap();
 
     /**
      * The Docker daemon client
      */
     private DockerClient docker;
 
+    /**
+     * Used to detect containers that have exited or failed to start
+     */
+    private ContainerMonitor monitor;
+
     public NewMinionSystem() {
         this(false);
     }
 
     public NewMinionSystem(boolean skipTearDown) {
         this.skipTearDown = skipTearDown;
+        this.stackId = generateStackId();
+        this.useDatabaseSnapshot = false;
+        this.minionCount = 1;
+        this.minionsPerLocation = 1;
+        this.resourceProfile = ResourceProfile.UNLIMITED;
+        this.aliases = getAliases(Collections.emptySet());
+        this.jmxMBeans = 10;
+        this.jmxAttributes = 10;
+        this.discoveryRate = 0;
+    }
+
+    NewMinionSystem(MinionSystemBuilder builder) {
+        this.skipTearDown = builder.isSkipTearDown();
+        this.stackId = builder.getStackId() != null ? builder.getStackId() : generateStackId();
+        this.useDatabaseSnapshot = builder.isUseDatabaseSnapshot();
+        this.minionCount = builder.getMinions();
+        this.minionsPerLocation = builder.getMinionsPerLocation();
+        this.resourceProfile = builder.getResourceProfile();
+        this.aliases = getAliases(builder.getOptionalContainers());
+        this.jmxMBeans = builder.getJmxMBeans();
+        this.jmxAttributes = builder.getJmxAttributes();
+        this.discoveryRate = builder.getDiscoveryRate();
+    }
+
+    private static Set<ContainerAlias> getAliases(Set<ContainerAlias> optionalAliases) {
+        final Set<ContainerAlias> aliases = EnumSet.allOf(ContainerAlias.class);
+        aliases.removeAll(OPTIONAL_ALIASES);
+        aliases.addAll(optionalAliases);
+        return Collections.unmodifiableSet(aliases);
     }
 
     @Override
     protected void before() throws Throwable {
         docker = DefaultDockerClient.fromEnv().build();
+        monitor = new ContainerMonitor(docker);
+        monitor.start();
+
+        if (useDatabaseSnapshot) {
+            databaseSnapshotImage = getOrCreateDatabaseSnapshot();
+        }
+
+        hostCpus = docker.info().cpus();
+        LOG.info("Using resource profile: {}", resourceProfile);
+        planCpus();
 
-        spawnPostgres();
-        spawnOpenNMS();
-        spawnSnmpd();
-        spawnTomcat();
-        spawnMinion();
-        waitForMinion();
-        waitForOpenNMS();
+        LOG.info("************************************************************");
+        LOG.info("Creating network for stack: {}", stackId);
+        LOG.info("************************************************************");
+        networkId = docker.createNetwork(NetworkConfig.builder()
+                .name(stackId)
+                .checkDuplicate(true)
+                .labels(ImmutableMap.of(STACK_LABEL, stackId))
+                .build()).id();
+
+        final long start = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(aliases.size());
+        try {
+            final Map<ContainerAlias, CompletableFuture<Void>> spawnedByAlias = Maps.newEnumMap(ContainerAlias.class);
+            final List<CompletableFuture<Void>> readyFutures = Lists.newArrayList();
+            // Completed as soon as any of the containers fails to spawn or become ready
+            final CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+            for (ContainerAlias alias : aliases) {
+                final CompletableFuture<Void> ready = spawnAfterDependencies(alias, spawnedByAlias, executor, start)
+                        .thenRunAsync(() -> {
+                            try {
+                                waitFor(alias);
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                            readyTimesByAlias.put(alias, System.currentTimeMillis() - start);
+                        }, executor);
+                ready.whenComplete((v, t) -> {
+                    if (t != null) {
+                        firstFailure.completeExceptionally(t);
+                    }
+                });
+                readyFutures.add(ready);
+            }
+
+            final CompletableFuture<Void> allReady = CompletableFuture.allOf(
+                    readyFutures.toArray(new CompletableFuture<?>[readyFutures.size()]));
+            try {
+                CompletableFuture.anyOf(allReady, firstFailure).get();
+            } catch (ExecutionException e) {
+                throw e.getCause() != null ? e.getCause() : e;
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(30, SECONDS);
+            logStartupTimes();
+        }
     };
 
     @Override
     protected void after(boolean didFail) {
+        closeDaoFactory();
+
         if (docker == null) {
             LOG.warn("Docker instance is null. Skipping tear down.");
             return;
         }
 
-        /* TODO: Gathering the log files can cause the tests to hang indefinitely.
-        // Ideally, we would only gather the logs and container output
-        // when we fail, but we can't detect this when using @ClassRules
-        ContainerInfo opennmsContainerInfo = containerInfoByAlias.get(ContainerAlias.OPENNMS);
-        if (opennmsContainerInfo != null) {
-            LOG.info("Gathering OpenNMS logs...");
-            Path destination = Paths.get("target/opennms.logs.tar");
-            try (
-                    final InputStream in = docker.copyContainer(opennmsContainerInfo.id(), "/opt/opennms/logs");
-            ) {
-                Files.copy(in, destination, StandardCopyOption.REPLACE_EXISTING);
-            } catch (DockerException|InterruptedException|IOException e) {
-                LOG.warn("Failed to copy the logs directory from the Dominion container.", e);
-            }
+        if (monitor != null) {
+            // Stops following the container output, flushing it to disk
+            monitor.close();
+        }
 
-            destination = Paths.get("target/opennms.karaf.logs.tar");
-            try (
-                 final InputStream in = docker.copyContainer(opennmsContainerInfo.id(), "/opt/opennms/data/log");
-                 ) {
-                Files.copy(in, destination, StandardCopyOption.REPLACE_EXISTING);
-            } catch (DockerException|InterruptedException|IOException e) {
-                LOG.warn("Failed to copy the data/log directory from the Dominion container.", e);
+        if (didFail) {
+            // Only gather the logs when a test failed, since copying them is expensive. The failures of
+            // individual tests are only detected when the system is also declared as a @Rule, see ExternalResourceRule
+            LOG.info("************************************************************");
+            LOG.info("Gathering logs...");
+            LOG.info("************************************************************");
+            final ArtifactCollector collector = new ArtifactCollector(docker, ContainerMonitor.OUTPUT_DIRECTORY,
+                    ARTIFACT_COLLECTION_TIMEOUT_MS, MILLISECONDS);
+            for (Map.Entry<ContainerAlias, ContainerInfo> entry : containerInfoByAlias.entrySet()) {
+                final Collection<String> paths = LOG_DIRECTORIES_BY_ALIAS.get(entry.getKey());
+                if (!paths.isEmpty()) {
+                    collector.collect(entry.getKey().toString().toLowerCase(), entry.getValue().id(), paths);
+                }
             }
-        } else {
-            LOG.warn("No OpenNMS container provisioned. Logs won't be copied.");
-        }
-
-        // Ideally, we would only gather the logs and container output
-        // when we fail, but we can't detect this when using @ClassRules
-        opennmsContainerInfo = containerInfoByAlias.get(ContainerAlias.MINION);
-        if (opennmsContainerInfo != null) {
-            LOG.info("Gathering Minion logs...");
-            final Path destination = Paths.get("target/minion.logs.tar");
-            try (
-                 final InputStream in = docker.copyContainer(opennmsContainerInfo.id(), "/opt/minion/data/log");
-                 ) {
-                Files.copy(in, destination, StandardCopyOption.REPLACE_EXISTING);
-            } catch (DockerException|InterruptedException|IOException e) {
-                LOG.warn("Failed to copy the logs directory from the Minion container.", e);
+            // The first Minion was already collected above, using its alias
+            for (MinionInstance minion : minions.subList(Math.min(1, minions.size()), minions.size())) {
+                collector.collect(minion.getName(), minion.getContainerInfo().id(),
+                        LOG_DIRECTORIES_BY_ALIAS.get(ContainerAlias.MINION));
             }
-        } else {
-            LOG.warn("No Minion container provisioned. Logs won't be copied.");
+            collector.awaitCompletion();
         }
-         */
-        
+
         LOG.info("************************************************************");
         LOG.info("Gathering container output...");
         LOG.info("************************************************************");
         for (String containerId : createdContainerIds) {
-            try {
-                LogStream logStream = docker.logs(containerId, LogsParam.stdout(), LogsParam.stderr());
-                LOG.info("************************************************************");
-                LOG.info("Start of stdout/stderr for {}:", containerId);
-                LOG.info("************************************************************");
-                LOG.info(logStream.readFully());
-                LOG.info("************************************************************");
-                LOG.info("End of stdout/stderr for {}:", containerId);
-                LOG.info("************************************************************");
-            } catch (DockerException | InterruptedException e) {
-                LOG.warn("Failed to get stdout/stderr for container {}.", e);
+            List<String> tail = monitor != null ? monitor.getOutputTail(containerId) : Collections.emptyList();
+            final Path outputFile = monitor != null ? monitor.getOutputFile(containerId) : null;
+            if (outputFile == null) {
+                // The output wasn't captured, so we retrieve the tail directly
+                try (LogStream logStream = docker.logs(containerId, LogsParam.stdout(), LogsParam.stderr(),
+                        LogsParam.tail(ContainerMonitor.OUTPUT_TAIL_LINES))) {
+                    tail = Collections.singletonList(logStream.readFully());
+                } catch (DockerException | InterruptedException e) {
+                    LOG.warn("Failed to get stdout/stderr for container {}.", containerId, e);
+                }
             }
+            LOG.info("************************************************************");
+            LOG.info("End of stdout/stderr for {} (complete output in {}):", containerId, outputFile);
+            LOG.info("************************************************************");
+            LOG.info(String.join("\n", tail));
+            LOG.info("************************************************************");
         }
 
         if (!skipTearDown) {
-            // Kill and remove all of the containers we created
-            for (String containerId : createdContainerIds) {
-                try {
-                    LOG.info("************************************************************");
-                    LOG.info("Killing and removing container with id: {}", containerId);
-                    LOG.info("************************************************************");
-                    docker.killContainer(containerId);
-                    docker.removeContainer(containerId);
-                } catch (Exception e) {
-                    LOG.error("************************************************************");
-                    LOG.error("Failed to kill and/or remove container with id: {}", containerId, e);
-                    LOG.error("************************************************************");
+            // Stop and remove all of the containers we created
+            LOG.info("************************************************************");
+            LOG.info("Stopping and removing containers: {}", createdContainerIds);
+            LOG.info("************************************************************");
+            final Collection<String> remaining = new ContainerReaper(docker, CONTAINER_STOP_TIMEOUT_SECONDS,
+                    CONTAINER_REMOVAL_TIMEOUT_MS, MILLISECONDS).reap(createdContainerIds);
+            if (networkId != null) {
+                if (remaining.isEmpty()) {
+                    try {
+                        docker.removeNetwork(networkId);
+                    } catch (DockerException | InterruptedException e) {
+                        LOG.warn("Failed to remove network for stack: {}", stackId, e);
+                    }
+                } else {
+                    LOG.warn("Leaving network for stack {} in place, since containers {} were not removed.", stackId, remaining);
                 }
             }
         } else {
             LOG.info("Skipping tear down.");
+            // The database may be reused by later runs
+            removeEventTrigger();
         }
 
+        monitor = null;
         docker.close();
     };
 
@@ -245,44 +531,304 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
         return containerInfoByAlias.get(alias);
     }
 
+    @Override
+    public List<MinionInstance> getMinions() {
+        return Collections.unmodifiableList(minions);
+    }
+
+    public ResourceProfile getResourceProfile() {
+        return resourceProfile;
+    }
+
+    /**
+     * Returns the ID of the stack, which is used as the name of the network
+     * and as the value of the {@link #STACK_LABEL} on all of the containers.
+     */
+    public String getStackId() {
+        return stackId;
+    }
+
+    /**
+     * Generates a unique stack ID, including the Surefire fork number when available.
+     */
+    private static String generateStackId() {
+        final String fork = System.getProperty("stests.fork");
+        final String suffix = UUID.randomUUID().toString().substring(0, 8);
+        return fork != null && !fork.trim().isEmpty() ? "stests-" + fork.trim() + "-" + suffix : "stests-" + suffix;
+    }
+
+    /**
+     * Returns the time, in milliseconds, it took for each container to become
+     * ready, measured from the start of the system's setup.
+     */
+    public Map<ContainerAlias, Long> getTimeToReadiness() {
+        return ImmutableMap.copyOf(readyTimesByAlias);
+    }
+
+    /**
+     * Spawns the given container once all of the containers it depends on have
+     * been spawned, recursively scheduling the dependencies as needed.
+     */
+    private CompletableFuture<Void> spawnAfterDependencies(ContainerAlias alias, Map<ContainerAlias, CompletableFuture<Void>> spawnedByAlias,
+            ExecutorService executor, long start) {
+        CompletableFuture<Void> spawned = spawnedByAlias.get(alias);
+        if (spawned != null) {
+            return spawned;
+        }
+
+        final CompletableFuture<?>[] dependencies = DEPENDENCIES_BY_ALIAS.get(alias).stream()
+                .map(dependency -> spawnAfterDependencies(dependency, spawnedByAlias, executor, start))
+                .toArray(CompletableFuture<?>[]::new);
+        spawned = CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+            try {
+                spawn(alias);
+            } catch (DockerException | InterruptedException e) {
+                throw new CompletionException(e);
+            }
+            spawnTimesByAlias.put(alias, System.currentTimeMillis() - start);
+        }, executor);
+        spawnedByAlias.put(alias, spawned);
+        return spawned;
+    }
+
+    private void spawn(ContainerAlias alias) throws DockerException, InterruptedException {
+        switch (alias) {
+        case POSTGRES:
+            spawnPostgres();
+            break;
+        case OPENNMS:
+            spawnOpenNMS();
+            break;
+        case MINION:
+            spawnMinion();
+            break;
+        case SNMPD:
+            spawnSnmpd();
+            break;
+        case TOMCAT:
+            spawnTomcat();
+            break;
+        case FLEET:
+        case SNMP_AGENTS:
+        case JMX_TARGETS:
+            spawnFarm(alias);
+            break;
+        }
+    }
+
+    private void waitFor(ContainerAlias alias) throws Exception {
+        switch (alias) {
+        case POSTGRES:
+            waitForPostgres();
+            break;
+        case OPENNMS:
+            waitForOpenNMS();
+            break;
+        case MINION:
+            waitForMinion();
+            break;
+        case FLEET:
+        case SNMP_AGENTS:
+        case JMX_TARGETS:
+            waitForFarm(alias);
+            break;
+        default:
+            // The container is ready once it's running
+            break;
+        }
+    }
+
+    /**
+     * Logs the time at which each container was spawned and became ready,
+     * along with the chain of containers that determined the total startup time.
+     */
+    private void logStartupTimes() {
+        LOG.info("************************************************************");
+        LOG.info("Container startup times:");
+        for (ContainerAlias alias : aliases) {
+            LOG.info("{}: spawned after {} ms, ready after {} ms", alias,
+                    spawnTimesByAlias.get(alias), readyTimesByAlias.get(alias));
+        }
+        if (readyTimesByAlias.size() == aliases.size()) {
+            // Walk back from the last container to become ready, following
+            // the dependency that was spawned last
+            ContainerAlias alias = readyTimesByAlias.entrySet().stream()
+                    .max(Map.Entry.comparingByValue()).get().getKey();
+            final List<ContainerAlias> criticalPath = Lists.newArrayList(alias);
+            while (!DEPENDENCIES_BY_ALIAS.get(alias).isEmpty()) {
+                alias = DEPENDENCIES_BY_ALIAS.get(alias).stream()
+                        .max((a, b) -> Long.compare(spawnTimesByAlias.get(a), spawnTimesByAlias.get(b))).get();
+                criticalPath.add(0, alias);
+            }
+            LOG.info("Critical path: {}", criticalPath);
+        }
+        LOG.info("************************************************************");
+    }
+
+    /**
+     * Returns the name of the PostgreSQL image containing an initialized
+     * OpenNMS database, creating it if it doesn't already exist.
+     *
+     * The image is created by running the OpenNMS installer against an empty
+     * database and committing the PostgreSQL container once it's stopped.
+     */
+    private String getOrCreateDatabaseSnapshot() throws DockerException, InterruptedException {
+        // Image IDs may be prefixed with the digest algorithm i.e. sha256:
+        final String opennmsImageId = docker.inspectImage(IMAGES_BY_ALIAS.get(ContainerAlias.OPENNMS)).id();
+        final String tag = opennmsImageId.substring(opennmsImageId.indexOf(':') + 1).substring(0, 12);
+        final String snapshotImage = DATABASE_SNAPSHOT_REPOSITORY + ":" + tag;
+        try {
+            docker.inspectImage(snapshotImage);
+            LOG.info("************************************************************");
+            LOG.info("Using existing database snapshot: {}", snapshotImage);
+            LOG.info("************************************************************");
+            return snapshotImage;
+        } catch (ImageNotFoundException e) {
+            LOG.info("************************************************************");
+            LOG.info("Creating database snapshot: {}", snapshotImage);
+            LOG.info("************************************************************");
+        }
+
+        String postgresId = null;
+        String installerId = null;
+        try {
+            postgresId = docker.createContainer(ContainerConfig.builder()
+                    .image(IMAGES_BY_ALIAS.get(ContainerAlias.POSTGRES))
+                    .env("PGDATA=" + DATABASE_SNAPSHOT_PGDATA)
+                    .hostConfig(HostConfig.builder().build())
+                    .build()).id();
+            docker.startContainer(postgresId);
+
+            installerId = docker.createContainer(ContainerConfig.builder()
+                    .image(IMAGES_BY_ALIAS.get(ContainerAlias.OPENNMS))
+                    .env("OPENNMS_INSTALL_ONLY=true")
+                    .hostConfig(HostConfig.builder()
+                            .links(String.format("%s:postgres", docker.inspectContainer(postgresId).name()))
+                            .build())
+                    .build()).id();
+            docker.startContainer(installerId);
+
+            final ContainerExit exit = docker.waitContainer(installerId);
+            if (exit.statusCode() != 0) {
+                LOG.error("Installer output:\n{}", docker.logs(installerId, LogsParam.stdout(), LogsParam.stderr()).readFully());
+                throw new IllegalStateException("The OpenNMS installer failed with exit code: " + exit.statusCode());
+            }
+
+            // Stop PostgreSQL cleanly so that the data is consistent
+            docker.stopContainer(postgresId, 60);
+            docker.commitContainer(postgresId, DATABASE_SNAPSHOT_REPOSITORY, tag,
+                    ContainerConfig.builder()
+                        .image(IMAGES_BY_ALIAS.get(ContainerAlias.POSTGRES))
+                        .env("PGDATA=" + DATABASE_SNAPSHOT_PGDATA)
+                        .build(),
+                    "OpenNMS database created by " + opennmsImageId, "stests");
+            return snapshotImage;
+        } finally {
+            for (String containerId : new String[] { installerId, postgresId }) {
+                if (containerId == null) {
+                    continue;
+                }
+                try {
+                    if (docker.inspectContainer(containerId).state().running()) {
+                        docker.killContainer(containerId);
+                    }
+                    docker.removeContainer(containerId, true);
+                } catch (DockerException e) {
+                    LOG.warn("Failed to remove container with id: {}", containerId, e);
+                }
+            }
+        }
+    }
+
     /**
      * Spawns the PostgreSQL container.
      */
     private void spawnPostgres() throws DockerException, InterruptedException {
-        final HostConfig postgresHostConfig = HostConfig.builder()
+        final HostConfig postgresHostConfig = newHostConfig()
                 .publishAllPorts(true)
                 .build();
-        spawnContainer(ContainerAlias.POSTGRES, postgresHostConfig);
+        final ContainerConfig.Builder postgresConfig = ContainerConfig.builder()
+                .image(databaseSnapshotImage != null ? databaseSnapshotImage : IMAGES_BY_ALIAS.get(ContainerAlias.POSTGRES));
+        spawnContainer(ContainerAlias.POSTGRES, postgresConfig, postgresHostConfig);
     }
 
     /**
      * Spawns the OpenNMS container, linked to PostgreSQL.
      */
     private void spawnOpenNMS() throws DockerException, InterruptedException {
-        final HostConfig opennmsHostConfig = HostConfig.builder()
+        final HostConfig.Builder opennmsHostConfig = newHostConfig()
                 .privileged(true)
                 .publishAllPorts(true)
-                .links(String.format("%s:postgres", containerInfoByAlias.get(ContainerAlias.POSTGRES).name()))
-                .build();
-        spawnContainer(ContainerAlias.OPENNMS, opennmsHostConfig);
+                .links(String.format("%s:postgres", containerInfoByAlias.get(ContainerAlias.POSTGRES).name()));
+        final List<String> env = Lists.newArrayList();
+        if (databaseSnapshotImage != null) {
+            // The database was already initialized by the installer
+            env.add("OPENNMS_SKIP_INSTALL=true");
+        }
+        if (aliases.contains(ContainerAlias.JMX_TARGETS)) {
+            // Collect all of the attributes served by the JMX farm
+            env.add("JMX_FARM_ATTRIBUTES=" + jmxAttributes);
+        }
+        if (discoveryRate > 0) {
+            env.add("DISCOVERY_PACKETS_PER_SECOND=" + discoveryRate);
+        }
+        env.addAll(applyResourceLimits(ContainerAlias.OPENNMS, opennmsHostConfig));
+        final ContainerConfig.Builder opennmsConfig = ContainerConfig.builder()
+                .image(IMAGES_BY_ALIAS.get(ContainerAlias.OPENNMS))
+                .env(env);
+        spawnContainer(ContainerAlias.OPENNMS, opennmsConfig, opennmsHostConfig.build());
     }
 
     /**
      * Spawns the Net-SNMP container.
      */
     private void spawnSnmpd() throws DockerException, InterruptedException {
-        spawnContainer(ContainerAlias.SNMPD, HostConfig.builder().build());
+        spawnContainer(ContainerAlias.SNMPD, newHostConfig().build());
     }
 
     /**
      * Spawns the Tomcat container.
      */
     private void spawnTomcat() throws DockerException, InterruptedException {
-        spawnContainer(ContainerAlias.TOMCAT, HostConfig.builder().build());
+        spawnContainer(ContainerAlias.TOMCAT, newHostConfig().build());
     }
 
     /**
-     * Spawns the Minion container, linked to OpenNMS, Net-SNMP and Tomcat.
+     * Spawns one of the farms, which needs to be privileged in order
+     * to alias the addresses of the hosts it simulates.
+     */
+    private void spawnFarm(ContainerAlias alias) throws DockerException, InterruptedException {
+        int addressOffset = 0;
+        for (Map.Entry<ContainerAlias, Integer> entry : FARM_ADDRESSES_BY_ALIAS.entrySet()) {
+            if (entry.getKey() == alias) {
+                break;
+            }
+            addressOffset += entry.getValue();
+        }
+        final HostConfig farmHostConfig = newHostConfig()
+                .privileged(true)
+                .publishAllPorts(true)
+                .build();
+        final List<String> env = Lists.newArrayList(
+                "FARM_ADDRESS_OFFSET=" + addressOffset,
+                "FARM_ADDRESS_LIMIT=" + FARM_ADDRESSES_BY_ALIAS.get(alias),
+                "FARM_ADDRESS_TOTAL=" + FARM_ADDRESSES_BY_ALIAS.values().stream().mapToInt(Integer::intValue).sum());
+        if (alias == ContainerAlias.JMX_TARGETS) {
+            env.add("JMX_MBEANS=" + jmxMBeans);
+            env.add("JMX_ATTRIBUTES=" + jmxAttributes);
+        }
+        final ContainerConfig.Builder farmConfig = ContainerConfig.builder()
+                .image(IMAGES_BY_ALIAS.get(alias))
+                .env(env)
+                .cmd(FARMS_BY_ALIAS.get(alias));
+        spawnContainer(alias, farmConfig, farmHostConfig);
+    }
+
+    /**
+     * Spawns the Minion containers, linked to OpenNMS, Net-SNMP and Tomcat.
+     *
+     * The ID and location of every Minion are passed to the container
+     * via the MINION_ID and MINION_LOCATION environment variables.
      */
     private void spawnMinion() throws DockerException, InterruptedException {
         final List<String> links = Lists.newArrayList();
@@ -290,25 +836,194 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
         links.add(String.format("%s:snmpd", containerInfoByAlias.get(ContainerAlias.SNMPD).name()));
         links.add(String.format("%s:tomcat", containerInfoByAlias.get(ContainerAlias.TOMCAT).name()));
 
-        final HostConfig minionHostConfig = HostConfig.builder()
-                .publishAllPorts(true)
-                .links(links)
-                .build();
-        spawnContainer(ContainerAlias.MINION, minionHostConfig);
+        for (int i = 0; i < minionCount; i++) {
+            final String id = MinionInstance.getId(i);
+            final String location = MinionInstance.getLocation(i, minionsPerLocation);
+            final HostConfig.Builder minionHostConfigBuilder = newHostConfig()
+                    .publishAllPorts(true)
+                    .links(links);
+            final List<String> env = Lists.newArrayList("MINION_ID=" + id, "MINION_LOCATION=" + location);
+            env.addAll(applyResourceLimits(ContainerAlias.MINION, minionHostConfigBuilder));
+            final HostConfig minionHostConfig = minionHostConfigBuilder.build();
+            final ContainerConfig.Builder minionConfig = ContainerConfig.builder()
+                    .image(IMAGES_BY_ALIAS.get(ContainerAlias.MINION))
+                    .env(env);
+
+            final ContainerInfo containerInfo;
+            if (i == 0) {
+                containerInfo = spawnContainer(ContainerAlias.MINION, minionConfig, minionHostConfig);
+            } else {
+                containerInfo = startContainer(ContainerAlias.MINION, MinionInstance.getName(i), minionConfig, minionHostConfig);
+            }
+            final MinionInstance minion = new MinionInstance(i, id, location, containerInfo);
+            LOG.info("Spawned {}", minion);
+            minions.add(minion);
+        }
     }
 
     /**
-     * Spawns a container.
+     * Applies the limits from the resource profile for the given alias to the host
+     * configuration, pinning the container to the next available CPUs.
+     *
+     * @return the environment variables used to size the JVM heap
+     */
+    private List<String> applyResourceLimits(ContainerAlias alias, HostConfig.Builder hostConfig) {
+        final ContainerLimits limits = resourceProfile.getLimits(alias);
+        if (limits == null) {
+            return Collections.emptyList();
+        }
+        final long memoryBytes = limits.getMemoryMb() * 1024 * 1024;
+        hostConfig.memory(memoryBytes)
+            // Disable swap, so that the container can't exceed its memory
+            .memorySwap(memoryBytes);
+        if (limits.getCpus() > 0) {
+            final String cpuset = allocateCpus(limits.getCpus());
+            LOG.info("Pinning {} container to CPUs: {}", alias, cpuset);
+            hostConfig.cpusetCpus(cpuset);
+        }
+
+        switch (alias) {
+        case OPENNMS:
+            // Written to opennms.conf by the bootstrap script
+            return ImmutableList.of("JAVA_HEAP_SIZE=" + limits.getHeapMb());
+        case MINION:
+            // Used by Karaf's bin/setenv
+            return ImmutableList.of("JAVA_MIN_MEM=" + limits.getHeapMb() + "M",
+                    "JAVA_MAX_MEM=" + limits.getHeapMb() + "M");
+        default:
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Reserves the CPUs pinned by the resource profile, and confines the containers
+     * without limits to the CPUs that aren't reserved by any fork.
+     *
+     * Every fork reserves the same number of CPUs, at an offset given by its number,
+     * so that the stacks spawned by parallel forks don't pin their containers to the
+     * same CPUs.
+     *
+     * @throws IllegalStateException if the CPUs of the fork overlap with those of another fork
+     */
+    private void planCpus() {
+        final int stackCpus = resourceProfile.getPinnedCpus(minionCount);
+        if (stackCpus < 1) {
+            return;
+        }
+        final int forkIndex = getForkIndex();
+        final int forks = Math.max(getForkCount(), forkIndex + 1);
+        nextCpu = forkIndex * stackCpus;
+        if (nextCpu + stackCpus > hostCpus) {
+            if (forkIndex > 0) {
+                throw new IllegalStateException(String.format("The resource profile %s requires %d CPUs per fork, but the "
+                        + "Docker host only has %d, so fork %d would share CPUs with another fork. Use fewer forks or a "
+                        + "smaller profile.", resourceProfile.getName(), stackCpus, hostCpus, forkIndex + 1));
+            }
+            LOG.warn("The resource profile {} requires {} CPUs, but the Docker host only has {}. Some CPUs will be shared.",
+                    resourceProfile.getName(), stackCpus, hostCpus);
+            return;
+        }
+
+        final int firstUnreserved = forks * stackCpus;
+        if (firstUnreserved < hostCpus) {
+            unlimitedCpuset = firstUnreserved == hostCpus - 1 ? Integer.toString(firstUnreserved)
+                    : String.format("%d-%d", firstUnreserved, hostCpus - 1);
+            LOG.info("Confining the containers without limits to CPUs: {}", unlimitedCpuset);
+        } else {
+            LOG.warn("No CPUs are left for the containers without limits once {} fork(s) reserved {} CPUs each. "
+                    + "They will share the reserved CPUs.", forks, stackCpus);
+        }
+    }
+
+    /**
+     * Returns the zero-based index of the Surefire fork, or 0 when not running in a fork.
+     */
+    private static int getForkIndex() {
+        try {
+            return Math.max(0, Integer.parseInt(System.getProperty("stests.fork", "").trim()) - 1);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of Surefire forks, which may be given per core i.e. 1C.
+     */
+    private static int getForkCount() {
+        final String forkCount = System.getProperty("stests.forkCount", "1").trim();
+        try {
+            if (forkCount.endsWith("C")) {
+                final double perCore = Double.parseDouble(forkCount.substring(0, forkCount.length() - 1));
+                return Math.max(1, (int)(perCore * Runtime.getRuntime().availableProcessors()));
+            }
+            return Math.max(1, Integer.parseInt(forkCount));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Allocates the given number of CPUs on the Docker host, following those
+     * allocated to previously spawned containers. Wraps around when the host
+     * runs out of CPUs, in which case the containers share CPUs.
+     */
+    private synchronized String allocateCpus(int count) {
+        final List<String> cpus = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            cpus.add(Integer.toString(nextCpu % hostCpus));
+            nextCpu++;
+        }
+        return String.join(",", cpus);
+    }
+
+    /**
+     * Returns a builder for the host configuration of the stack's containers,
+     * attaching them to the stack's network, and keeping them off the CPUs
+     * reserved by the resource profile, unless they're pinned to those.
+     */
+    private HostConfig.Builder newHostConfig() {
+        final HostConfig.Builder hostConfig = HostConfig.builder()
+                .networkMode(stackId);
+        if (unlimitedCpuset != null) {
+            hostConfig.cpusetCpus(unlimitedCpuset);
+        }
+        return hostConfig;
+    }
+
+    /**
+     * Spawns a container using the default image for the alias.
      */
     private void spawnContainer(ContainerAlias alias, HostConfig hostConfig) throws DockerException, InterruptedException {
-        final ContainerConfig containerConfig = ContainerConfig.builder()
-                .image(IMAGES_BY_ALIAS.get(alias))
+        spawnContainer(alias, ContainerConfig.builder().image(IMAGES_BY_ALIAS.get(alias)), hostConfig);
+    }
+
+    /**
+     * Spawns a container, and registers it under the given alias.
+     */
+    private ContainerInfo spawnContainer(ContainerAlias alias, ContainerConfig.Builder containerConfigBuilder, HostConfig hostConfig) throws DockerException, InterruptedException {
+        final ContainerInfo containerInfo = startContainer(alias, alias.toString().toLowerCase(), containerConfigBuilder, hostConfig);
+        containerInfoByAlias.put(alias, containerInfo);
+        return containerInfo;
+    }
+
+    /**
+     * Creates and starts a container without registering it under the alias,
+     * used when spawning more than one container with the same alias.
+     *
+     * The container is named <stack id>-<name> and labeled with the stack's ID
+     * and the alias. The host configuration should be created with
+     * {@link #newHostConfig()}, so that the container is attached to the stack's network.
+     */
+    private ContainerInfo startContainer(ContainerAlias alias, String name, ContainerConfig.Builder containerConfigBuilder, HostConfig hostConfig) throws DockerException, InterruptedException {
+        final ContainerConfig containerConfig = containerConfigBuilder
+                .labels(ImmutableMap.of(STACK_LABEL, stackId, ALIAS_LABEL, alias.toString()))
                 .hostConfig(hostConfig)
                 .build();
 
-        final ContainerCreation containerCreation = docker.createContainer(containerConfig);
+        final ContainerCreation containerCreation = docker.createContainer(containerConfig, stackId + "-" + name);
         final String containerId = containerCreation.id();
         createdContainerIds.add(containerId);
+        monitor.expect(alias, containerId);
 
         docker.startContainer(containerId);
 
@@ -320,7 +1035,19 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
             throw new IllegalStateException("Could not start the " + alias + " container");
         }
 
-        containerInfoByAlias.put(alias, containerInfo);
+        monitor.watch(alias, containerId);
+        return containerInfo;
+    }
+
+    /**
+     * Blocks until PostgreSQL accepts connections.
+     */
+    private void waitForPostgres() throws Exception {
+        final InetSocketAddress pgsqlAddr = getServiceAddress(ContainerAlias.POSTGRES, 5432);
+        LOG.info("************************************************************");
+        LOG.info("Waiting for PostgreSQL service @ {}.", pgsqlAddr);
+        LOG.info("************************************************************");
+        monitor.await(ContainerAlias.POSTGRES, "PostgreSQL", NetUtils.canConnectToPostgresCallable(pgsqlAddr), 2, MINUTES);
     }
 
     /**
@@ -329,14 +1056,14 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
     private void waitForOpenNMS() throws Exception {
         final InetSocketAddress httpAddr = getServiceAddress(ContainerAlias.OPENNMS, 8980);
         final RestClient restClient = new RestClient(httpAddr);
-        final Callable<String> getDisplayVersion = new Callable<String>() {
+        final Callable<Boolean> hasDisplayVersion = new Callable<Boolean>() {
             @Override
-            public String call() throws Exception {
+            public Boolean call() throws Exception {
                 try {
-                    return restClient.getDisplayVersion();
+                    return restClient.getDisplayVersion() != null;
                 } catch (Throwable t) {
                     LOG.debug("Version lookup failed: " + t.getMessage());
-                    return null;
+                    return false;
                 }
             }
         };
@@ -344,10 +1071,9 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
         LOG.info("************************************************************");
         LOG.info("Waiting for REST service @ {}.", httpAddr);
         LOG.info("************************************************************");
-        // TODO: It's possible that the OpenNMS server doesn't start if there are any
-        // problems in $OPENNMS_HOME/etc. Instead of waiting the whole 5 minutes and timing out
-        // we should also poll the status of the container, so we can fail sooner.
-        await().atMost(5, MINUTES).pollInterval(15, SECONDS).until(getDisplayVersion, is(notNullValue()));
+        // The monitor fails the wait as soon as the container exits or logs a fatal
+        // error, i.e. when there are problems in $OPENNMS_HOME/etc
+        monitor.await(ContainerAlias.OPENNMS, "REST service", hasDisplayVersion, 5, MINUTES);
         LOG.info("************************************************************");
         LOG.info("OpenNMS's REST service is online.");
         LOG.info("************************************************************");
@@ -356,7 +1082,7 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
         LOG.info("************************************************************");
         LOG.info("Waiting for SSH service @ {}.", sshAddr);
         LOG.info("************************************************************");
-        await().atMost(2, MINUTES).pollInterval(5, SECONDS).until(SshClient.canConnectViaSsh(sshAddr, "admin", "admin"));
+        monitor.await(ContainerAlias.OPENNMS, "SSH service", SshClient.canConnectViaSsh(sshAddr, "admin", "admin"), 2, MINUTES);
         listFeatures(sshAddr, false);
         LOG.info("************************************************************");
         LOG.info("OpenNMS's Karaf Shell is online.");
@@ -364,15 +1090,28 @@ public class NewMinionSystem extends AbstractMinionSystem implements MinionSyste
     }
 
     /**
-     * Blocks until the Karaf Shell service is available.
+     * Blocks until the Karaf Shell service is available on all of the Minions.
      */
     private void waitForMinion() throws Exception {
-        final InetSocketAddress sshAddr = getServiceAddress(ContainerAlias.MINION, 8201);
+        for (MinionInstance minion : minions) {
+            final InetSocketAddress sshAddr = getServiceAddress(minion.getContainerInfo(), 8201, "tcp");
+            LOG.info("************************************************************");
+            LOG.info("Waiting for SSH service for Karaf instance of {} @ {}.", minion.getName(), sshAddr);
+            LOG.info("************************************************************");
+            monitor.await(ContainerAlias.MINION, "SSH service", SshClient.canConnectViaSsh(sshAddr, "admin", "admin"), 2, MINUTES);
+            listFeatures(sshAddr, true);
+        }
+    }
+
+    /**
+     * Blocks until the farm accepts commands.
+     */
+    private void waitForFarm(ContainerAlias alias) throws Exception {
+        final InetSocketAddress controlAddr = getServiceAddress(alias, FarmClient.CONTROL_PORT);
         LOG.info("************************************************************");
-        LOG.info("Waiting for SSH service for Karaf instance @ {}.", sshAddr);
+        LOG.info("Waiting for the control port of {} @ {}.", alias, controlAddr);
         LOG.info("************************************************************");
-        await().atMost(2, MINUTES).pollInterval(5, SECONDS).until(SshClient.canConnectViaSsh(sshAddr, "admin", "admin"));
-        listFeatures(sshAddr, true);
+        monitor.await(alias, "control port", () -> NetUtils.isTcpPortOpen(controlAddr), 2, MINUTES);
     }
 
     private static void listFeatures(InetSocketAddress sshAddr, boolean karaf4) throws Exception {
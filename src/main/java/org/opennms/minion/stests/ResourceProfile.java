@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A named set of resource limits applied to the OpenNMS and Minion containers,
+ * used to make benchmark results comparable between hosts and runs.
+ *
+ * Every container with limits is pinned to its own set of CPUs, which are
+ * allocated in the order the containers are spawned: OpenNMS first, followed
+ * by the Minions. Every Surefire fork is given its own range of CPUs, and the
+ * containers without limits are kept off the ranges of all of the forks.
+ * The memory available to the container is capped, without swap, and the JVM
+ * heap is set accordingly.
+ *
+ * @author jwhite
+ */
+public class ResourceProfile {
+
+    /**
+     * Limits applied to a single container
+     */
+    public static class ContainerLimits {
+        private final int cpus;
+        private final long memoryMb;
+        private final long heapMb;
+
+        public ContainerLimits(int cpus, long memoryMb, long heapMb) {
+            if (heapMb > memoryMb) {
+                throw new IllegalArgumentException(String.format("The heap (%d MB) must fit in the memory (%d MB).",
+                        heapMb, memoryMb));
+            }
+            this.cpus = cpus;
+            this.memoryMb = memoryMb;
+            this.heapMb = heapMb;
+        }
+
+        /**
+         * Number of CPUs the container is pinned to
+         */
+        public int getCpus() {
+            return cpus;
+        }
+
+        public long getMemoryMb() {
+            return memoryMb;
+        }
+
+        public long getHeapMb() {
+            return heapMb;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d cpus/%dm memory/%dm heap", cpus, memoryMb, heapMb);
+        }
+    }
+
+    /**
+     * No limits, the containers share all of the host's resources
+     */
+    public static final ResourceProfile UNLIMITED = new ResourceProfile("unlimited",
+            ImmutableMap.of());
+
+    public static final ResourceProfile SMALL = new ResourceProfile("small",
+            ImmutableMap.of(ContainerAlias.OPENNMS, new ContainerLimits(2, 3072, 2048),
+                            ContainerAlias.MINION, new ContainerLimits(1, 1024, 512)));
+
+    public static final ResourceProfile MEDIUM = new ResourceProfile("medium",
+            ImmutableMap.of(ContainerAlias.OPENNMS, new ContainerLimits(4, 6144, 4096),
+                            ContainerAlias.MINION, new ContainerLimits(2, 2048, 1024)));
+
+    public static final ResourceProfile LARGE = new ResourceProfile("large",
+            ImmutableMap.of(ContainerAlias.OPENNMS, new ContainerLimits(8, 12288, 8192),
+                            ContainerAlias.MINION, new ContainerLimits(4, 4096, 2048)));
+
+    private static final ImmutableMap<String, ResourceProfile> PROFILES_BY_NAME =
+            new ImmutableMap.Builder<String, ResourceProfile>()
+                .put(UNLIMITED.getName(), UNLIMITED)
+                .put(SMALL.getName(), SMALL)
+                .put(MEDIUM.getName(), MEDIUM)
+                .put(LARGE.getName(), LARGE)
+                .build();
+
+    private final String name;
+    private final Map<ContainerAlias, ContainerLimits> limitsByAlias;
+
+    public ResourceProfile(String name, Map<ContainerAlias, ContainerLimits> limitsByAlias) {
+        this.name = Objects.requireNonNull(name);
+        this.limitsByAlias = ImmutableMap.copyOf(limitsByAlias);
+    }
+
+    /**
+     * Retrieves one of the predefined profiles by name.
+     */
+    public static ResourceProfile getByName(String name) {
+        final ResourceProfile profile = PROFILES_BY_NAME.get(name.toLowerCase());
+        if (profile == null) {
+            throw new IllegalArgumentException(String.format("No resource profile named '%s'. Available profiles: %s",
+                    name, PROFILES_BY_NAME.keySet()));
+        }
+        return profile;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the limits for containers with the given alias,
+     * or null if they're unlimited.
+     */
+    public ContainerLimits getLimits(ContainerAlias alias) {
+        return limitsByAlias.get(alias);
+    }
+
+    /**
+     * Returns the number of CPUs the containers of a system with the
+     * given number of Minions are pinned to.
+     */
+    public int getPinnedCpus(int minions) {
+        return limitsByAlias.entrySet().stream()
+                .mapToInt(e -> e.getValue().getCpus() * (e.getKey() == ContainerAlias.MINION ? minions : 1))
+                .sum();
+    }
+
+    /**
+     * Describes the limits of the profile, used to record
+     * the profile along with the benchmark results.
+     */
+    public String getDescription() {
+        if (limitsByAlias.isEmpty()) {
+            return "no limits";
+        }
+        return limitsByAlias.entrySet().stream()
+                .map(e -> String.format("%s: %s", e.getKey().toString().toLowerCase(), e.getValue()))
+                .collect(Collectors.joining("; "));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResourceProfile[%s: %s]", name, getDescription());
+    }
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.HibernateDaoFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.Maps;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.messages.ContainerInfo;
+
+/**
+ * A Minion System that is shared by all of the test classes running
+ * in the same JVM.
+ *
+ * The first class to use the system spawns the containers, and subsequent
+ * classes attach to the existing containers. The number of classes using the
+ * system is tracked, and when the last one releases it, the containers are left
+ * running so they can be reused by any classes that follow. They are torn down
+ * when the JVM exits, or as soon as they are unused after {@link #shutdown()}
+ * is called.
+ *
+ * Classes can only attach to the shared system if they were built with
+ * the same configuration as the class that spawned it, so that a class
+ * never silently runs against containers it didn't ask for.
+ *
+ * @author jwhite
+ */
+public class SharedMinionSystem extends AbstractMinionSystem implements MinionSystem {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SharedMinionSystem.class);
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * The system shared by all of the instances, null until first used
+     */
+    private static NewMinionSystem sharedSystem;
+
+    /**
+     * The configuration the shared system was spawned with
+     */
+    private static Map<String, String> sharedConfiguration;
+
+    /**
+     * Number of instances currently attached to the shared system
+     */
+    private static int refCount = 0;
+
+    /**
+     * Set if any of the classes using the shared system had failures
+     */
+    private static boolean didAnyFail = false;
+
+    /**
+     * Set if the shared system should be torn down as soon as it's unused
+     */
+    private static boolean shutdownRequested = false;
+
+    private static Thread shutdownHook;
+
+    /**
+     * Used to create the shared system when it doesn't already exist
+     */
+    private final MinionSystemBuilder builder;
+
+    /**
+     * The shared system, set while this instance is attached to it
+     */
+    private NewMinionSystem system;
+
+    public SharedMinionSystem() {
+        this(new MinionSystemBuilder());
+    }
+
+    SharedMinionSystem(MinionSystemBuilder builder) {
+        this.builder = builder;
+    }
+
+    @Override
+    protected void before() throws Throwable {
+        synchronized (LOCK) {
+            if (sharedSystem == null) {
+                LOG.info("************************************************************");
+                LOG.info("Spawning the shared Minion System.");
+                LOG.info("************************************************************");
+                final NewMinionSystem newSystem = new NewMinionSystem(builder);
+                try {
+                    newSystem.before();
+                } catch (Throwable t) {
+                    newSystem.after(true);
+                    throw t;
+                }
+                sharedSystem = newSystem;
+                sharedConfiguration = builder.getStackConfiguration();
+                shutdownRequested = false;
+                registerShutdownHook();
+            } else {
+                final MapDifference<String, String> difference = Maps.difference(sharedConfiguration, builder.getStackConfiguration());
+                if (!difference.areEqual()) {
+                    throw new IllegalStateException(String.format("The shared Minion System was spawned with a different "
+                            + "configuration, use a dedicated system instead. (shared, requested): %s",
+                            difference.entriesDiffering()));
+                }
+                LOG.info("************************************************************");
+                LOG.info("Attaching to the shared Minion System.");
+                LOG.info("************************************************************");
+            }
+            refCount++;
+            system = sharedSystem;
+        }
+    }
+
+    @Override
+    protected void after(boolean didFail) {
+        synchronized (LOCK) {
+            if (system == null) {
+                return;
+            }
+            system = null;
+            refCount--;
+            didAnyFail |= didFail;
+            LOG.info("Released the shared Minion System. {} user(s) remaining.", refCount);
+            if (refCount == 0 && shutdownRequested) {
+                tearDown();
+            }
+        }
+    }
+
+    /**
+     * Tears down the shared system as soon as it's no longer in use,
+     * instead of waiting for the JVM to exit.
+     */
+    public static void shutdown() {
+        synchronized (LOCK) {
+            shutdownRequested = true;
+            if (refCount == 0) {
+                tearDown();
+            }
+        }
+    }
+
+    private static void registerShutdownHook() {
+        if (shutdownHook != null) {
+            return;
+        }
+        shutdownHook = new Thread(() -> {
+            synchronized (LOCK) {
+                if (refCount > 0) {
+                    LOG.warn("JVM is exiting while the shared Minion System is still in use by {} user(s).", refCount);
+                }
+                tearDown();
+            }
+        }, "shared-minion-system-teardown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    private static void tearDown() {
+        if (sharedSystem == null) {
+            return;
+        }
+        LOG.info("************************************************************");
+        LOG.info("Tearing down the shared Minion System.");
+        LOG.info("************************************************************");
+        sharedSystem.after(didAnyFail);
+        sharedSystem = null;
+        sharedConfiguration = null;
+        didAnyFail = false;
+    }
+
+    private NewMinionSystem getSystem() {
+        final NewMinionSystem attachedSystem = system;
+        if (attachedSystem == null) {
+            throw new IllegalStateException("Not attached to the shared Minion System.");
+        }
+        return attachedSystem;
+    }
+
+    @Override
+    public ContainerInfo getContainerInfo(ContainerAlias alias) {
+        return getSystem().getContainerInfo(alias);
+    }
+
+    @Override
+    public Set<ContainerAlias> getContainerAliases() {
+        return getSystem().getContainerAliases();
+    }
+
+    @Override
+    public List<MinionInstance> getMinions() {
+        return getSystem().getMinions();
+    }
+
+    @Override
+    public DockerClient getDockerClient() {
+        return getSystem().getDockerClient();
+    }
+
+    /**
+     * Returns the DAO factory of the shared system, which is closed when the shared system is torn down.
+     */
+    @Override
+    public HibernateDaoFactory getDaoFactory() {
+        return getSystem().getDaoFactory();
+    }
+}
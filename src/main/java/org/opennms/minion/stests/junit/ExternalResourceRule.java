@@ -27,6 +27,7 @@
  *******************************************************************************/
 package org.opennms.minion.stests.junit;
 
+import org.junit.internal.AssumptionViolatedException;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
@@ -37,10 +38,32 @@ import org.junit.runners.model.Statement;
  *    (did any tests fail?), allowing it to alter the way it tears down resources.
  *  - after() is always called, even when before() fails
  *
+ * When used as a @ClassRule, the failures of the individual tests are reported
+ * to the runner and never reach the rule, so the field must also be annotated
+ * with @Rule for them to be detected:
+ *
+ * <pre>
+ * &#64;ClassRule
+ * &#64;Rule
+ * public static MinionSystem minionSystem = ...;
+ * </pre>
+ *
+ * The rule then only records the failures when applied to the individual tests,
+ * and sets up and tears down the resource once for the class.
+ *
  * @author jwhite
  */
 public abstract class ExternalResourceRule implements TestRule {
+
+    /**
+     * Set if any of the tests failed since the resource was set up
+     */
+    private volatile boolean didAnyTestFail = false;
+
     public Statement apply(Statement base, Description description) {
+        if (description.isTest()) {
+            return testStatement(base);
+        }
         return statement(base);
     }
 
@@ -49,6 +72,7 @@ public abstract class ExternalResourceRule implements TestRule {
             @Override
             public void evaluate() throws Throwable {
                 boolean didFail = true;
+                didAnyTestFail = false;
                 try {
                     before();
                     base.evaluate();
@@ -56,7 +80,24 @@ public abstract class ExternalResourceRule implements TestRule {
                 } catch (Throwable t) {
                     throw t;
                 } finally {
-                    after(didFail);
+                    after(didFail || didAnyTestFail);
+                }
+            }
+        };
+    }
+
+    private Statement testStatement(final Statement base) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    base.evaluate();
+                } catch (AssumptionViolatedException e) {
+                    // Skipped, not failed
+                    throw e;
+                } catch (Throwable t) {
+                    didAnyTestFail = true;
+                    throw t;
                 }
             }
         };
@@ -73,6 +114,9 @@ public abstract class ExternalResourceRule implements TestRule {
 
     /**
      * Override to tear down your specific external resource.
+     *
+     * @param didFail true if set up failed, or if any of the tests failed,
+     *                which is only detected when the rule is also used as a @Rule
      */
     protected void after(boolean didFail) {
         // do nothing
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Drives the SNMP agent farm, which serves many virtual SNMP agents
+ * from a MIB snapshot shared by all of them.
+ *
+ * Every agent answers on port 161 of its own address, with the
+ * community public, and is named agent-N, where N is the order in
+ * which it was provisioned, see {@link RequisitionBuilder#withSnmpAgents}.
+ *
+ * @author jwhite
+ */
+public class AgentFarmClient extends FarmClient {
+
+    /**
+     * Requests served by the agent farm.
+     */
+    public static class Stats {
+        private final long requests;
+        private final long varbinds;
+        private final long errors;
+        private final int activeAgents;
+
+        public Stats(long requests, long varbinds, long errors, int activeAgents) {
+            this.requests = requests;
+            this.varbinds = varbinds;
+            this.errors = errors;
+            this.activeAgents = activeAgents;
+        }
+
+        /**
+         * Total number of requests answered
+         */
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * Total number of varbinds in the answered requests
+         */
+        public long getVarbinds() {
+            return varbinds;
+        }
+
+        /**
+         * Total number of requests that were dropped, i.e. malformed or with the wrong community
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Number of agents that received requests since the stats were last retrieved
+         */
+        public int getActiveAgents() {
+            return activeAgents;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stats[requests=%d, varbinds=%d, errors=%d, active agents=%d]",
+                    requests, varbinds, errors, activeAgents);
+        }
+    }
+
+    public AgentFarmClient(InetSocketAddress controlAddr) throws IOException {
+        super(controlAddr);
+    }
+
+    /**
+     * Retrieves the stats, and resets the number of active agents.
+     */
+    public Stats getStats() throws IOException {
+        // STATS <requests> <varbinds> <errors> <active agents>
+        final String[] tokens = command("STATS", "STATS").split(" ");
+        return new Stats(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Long.parseLong(tokens[3]),
+                Integer.parseInt(tokens[4]));
+    }
+}
@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.opennms.minion.stests.ResourceProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Collects the results of a benchmark as rows of values, and
+ * writes them to a .csv file in {@link #REPORT_DIRECTORY}.
+ *
+ * Properties describing the environment the benchmark ran in, such
+ * as the resource profile, are recorded as leading columns on every row.
+ *
+ * @author jwhite
+ */
+public class BenchmarkReport {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BenchmarkReport.class);
+
+    public static final Path REPORT_DIRECTORY = Paths.get("target", "benchmarks");
+
+    private final String name;
+    private final List<String> columns;
+    private final List<List<Object>> rows = Lists.newArrayList();
+    private final Map<String, Object> properties = Maps.newLinkedHashMap();
+
+    public BenchmarkReport(String name, String... columns) {
+        this.name = name;
+        this.columns = ImmutableList.copyOf(columns);
+    }
+
+    /**
+     * Sets a property that is recorded with all of the rows added after this call.
+     */
+    public synchronized void setProperty(String name, Object value) {
+        if (!rows.isEmpty() && !properties.containsKey(name)) {
+            throw new IllegalStateException("Properties must be set before adding any rows.");
+        }
+        properties.put(name, value);
+    }
+
+    /**
+     * Records the resource profile the containers were spawned with.
+     */
+    public void setResourceProfile(ResourceProfile resourceProfile) {
+        setProperty("resource_profile", resourceProfile.getName());
+        setProperty("resource_limits", resourceProfile.getDescription());
+    }
+
+    public synchronized void addRow(Object... values) {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException(String.format("Expected %d values, got %d.",
+                    columns.size(), values.length));
+        }
+        final List<Object> row = Lists.newArrayList(properties.values());
+        row.addAll(Arrays.asList(values));
+        rows.add(row);
+    }
+
+    public synchronized List<List<Object>> getRows() {
+        return ImmutableList.copyOf(rows);
+    }
+
+    /**
+     * Writes the report to target/benchmarks/name.csv, and logs it.
+     *
+     * @return the path to the report
+     */
+    public synchronized Path write() throws IOException {
+        Files.createDirectories(REPORT_DIRECTORY);
+        final Path reportFile = REPORT_DIRECTORY.resolve(name + ".csv");
+        final List<String> header = getHeader();
+        try (BufferedWriter writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            writer.write(toCsvLine(header));
+            writer.newLine();
+            for (List<Object> row : rows) {
+                writer.write(toCsvLine(row));
+                writer.newLine();
+            }
+        }
+
+        LOG.info("************************************************************");
+        LOG.info("Benchmark results for {} (written to {}):", name, reportFile);
+        LOG.info("************************************************************");
+        LOG.info(toCsvLine(header));
+        for (List<Object> row : rows) {
+            LOG.info(toCsvLine(row));
+        }
+        LOG.info("************************************************************");
+        return reportFile;
+    }
+
+    private List<String> getHeader() {
+        final List<String> header = Lists.newArrayList(properties.keySet());
+        header.addAll(columns);
+        return header;
+    }
+
+    private static String toCsvLine(List<?> values) {
+        return values.stream()
+                .map(BenchmarkReport::toCsvValue)
+                .collect(Collectors.joining(","));
+    }
+
+    private static String toCsvValue(Object value) {
+        if (value == null) {
+            return "";
+        } else if (value instanceof Double || value instanceof Float) {
+            return String.format(Locale.ROOT, "%.3f", ((Number)value).doubleValue());
+        }
+        final String str = value.toString();
+        if (str.contains(",") || str.contains("\"") || str.contains("\n")) {
+            return "\"" + str.replace("\"", "\"\"") + "\"";
+        }
+        return str;
+    }
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Generates a requisition with tens of thousands of nodes, which is
+ * written as XML while it's being sent, instead of building all of the
+ * nodes in memory as done by the {@link RequisitionBuilder}.
+ *
+ * The nodes are labeled &lt;prefix&gt;-N, and their interfaces are given
+ * consecutive addresses, starting from the first address, so that the
+ * same requisition is generated every time.
+ *
+ * A fraction of the nodes can be changed, in order to measure the cost of
+ * importing a small change to a large requisition. The changed nodes are
+ * spread evenly across the requisition.
+ *
+ * Send it with {@link RestClient#addOrReplaceRequisition(StreamingOutput)}.
+ *
+ * @author jwhite
+ */
+public class BulkRequisition implements StreamingOutput {
+
+    private static final String NAMESPACE = "http://xmlns.opennms.org/xsd/config/model-import";
+
+    /**
+     * Suffix of the labels of the nodes changed with {@link Change#LABEL}
+     */
+    public static final String CHANGED_LABEL_SUFFIX = "-changed";
+
+    /**
+     * Service added to the nodes changed with {@link Change#SERVICE}
+     */
+    public static final String CHANGED_SERVICE = "HTTP";
+
+    /**
+     * The ways in which the nodes can be changed.
+     */
+    public static enum Change {
+        /**
+         * Appends {@link BulkRequisition#CHANGED_LABEL_SUFFIX} to the label of the node
+         */
+        LABEL,
+        /**
+         * Adds an interface to the node, whose address follows the addresses of all of the nodes
+         */
+        INTERFACE,
+        /**
+         * Adds {@link BulkRequisition#CHANGED_SERVICE} to the first interface of the node
+         */
+        SERVICE
+    }
+
+    private final String foreignSource;
+    private final int nodes;
+    private String prefix = "node";
+    private int interfacesPerNode = 1;
+    private int firstAddress = InetAddresses.coerceToInteger(InetAddresses.forString("10.0.0.1"));
+    private String location = null;
+    private List<String> services = Arrays.asList("ICMP");
+    private Change change = null;
+    private double changedRatio = 0;
+
+    public BulkRequisition(String foreignSource, int nodes) {
+        this.foreignSource = Objects.requireNonNull(foreignSource);
+        this.nodes = nodes;
+    }
+
+    public BulkRequisition withPrefix(String prefix) {
+        this.prefix = Objects.requireNonNull(prefix);
+        return this;
+    }
+
+    /**
+     * Give every node the given number of interfaces, of which the first is the primary SNMP interface.
+     */
+    public BulkRequisition withInterfacesPerNode(int interfacesPerNode) {
+        if (interfacesPerNode < 1) {
+            throw new IllegalArgumentException("Every node needs at least one interface.");
+        }
+        this.interfacesPerNode = interfacesPerNode;
+        return this;
+    }
+
+    /**
+     * Assign the addresses of the interfaces starting from the given address, defaults to 10.0.0.1.
+     */
+    public BulkRequisition withFirstAddress(String firstAddress) {
+        this.firstAddress = InetAddresses.coerceToInteger(InetAddresses.forString(firstAddress));
+        return this;
+    }
+
+    public BulkRequisition withLocation(String location) {
+        this.location = location;
+        return this;
+    }
+
+    /**
+     * Add the given services to every interface, defaults to ICMP.
+     */
+    public BulkRequisition withServices(String... services) {
+        this.services = Arrays.asList(services);
+        return this;
+    }
+
+    /**
+     * Change the given fraction of the nodes.
+     */
+    public BulkRequisition withChanges(Change change, double changedRatio) {
+        if (changedRatio < 0 || changedRatio > 1) {
+            throw new IllegalArgumentException("The fraction of changed nodes must be between 0 and 1, not " + changedRatio);
+        }
+        this.change = Objects.requireNonNull(change);
+        this.changedRatio = changedRatio;
+        return this;
+    }
+
+    /**
+     * Returns whether the given node is changed, which is the case for one node out of every 1 / ratio.
+     */
+    public boolean isChanged(int node) {
+        return change != null && Math.floor((node + 1) * changedRatio) > Math.floor(node * changedRatio);
+    }
+
+    public int getChangedNodes() {
+        return change != null ? (int)Math.floor(nodes * changedRatio) : 0;
+    }
+
+    public String getForeignSource() {
+        return foreignSource;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getInterfacesPerNode() {
+        return interfacesPerNode;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        final OutputStream out = new BufferedOutputStream(output);
+        try {
+            final XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("model-import");
+            writer.writeDefaultNamespace(NAMESPACE);
+            writer.writeAttribute("foreign-source", foreignSource);
+            for (int i = 0; i < nodes; i++) {
+                writeNode(writer, i);
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to write the requisition.", e);
+        }
+        out.flush();
+    }
+
+    private void writeNode(XMLStreamWriter writer, int node) throws XMLStreamException {
+        final String foreignId = String.format("%s-%d", prefix, node);
+        final boolean changed = isChanged(node);
+        writer.writeStartElement("node");
+        writer.writeAttribute("foreign-id", foreignId);
+        writer.writeAttribute("node-label", changed && change == Change.LABEL ? foreignId + CHANGED_LABEL_SUFFIX : foreignId);
+        if (location != null) {
+            writer.writeAttribute("location", location);
+        }
+        for (int i = 0; i < interfacesPerNode; i++) {
+            writeInterface(writer, firstAddress + node * interfacesPerNode + i, i == 0,
+                    changed && change == Change.SERVICE && i == 0);
+        }
+        if (changed && change == Change.INTERFACE) {
+            writeInterface(writer, firstAddress + nodes * interfacesPerNode + node, false, false);
+        }
+        writer.writeEndElement();
+    }
+
+    private void writeInterface(XMLStreamWriter writer, int address, boolean primary, boolean withChangedService) throws XMLStreamException {
+        writer.writeStartElement("interface");
+        writer.writeAttribute("ip-addr", InetAddresses.toAddrString(InetAddresses.fromInteger(address)));
+        writer.writeAttribute("status", "1");
+        writer.writeAttribute("snmp-primary", primary ? "P" : "N");
+        for (String service : services) {
+            writeService(writer, service);
+        }
+        if (withChangedService) {
+            writeService(writer, CHANGED_SERVICE);
+        }
+        writer.writeEndElement();
+    }
+
+    private static void writeService(XMLStreamWriter writer, String service) throws XMLStreamException {
+        writer.writeEmptyElement("monitored-service");
+        writer.writeAttribute("service-name", service);
+    }
+}
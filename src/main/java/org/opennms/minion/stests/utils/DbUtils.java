@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.postgresql.ds.PGSimpleDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Database utility thingies.
+ *
+ * @author jwhite
+ */
+public class DbUtils {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DbUtils.class);
+
+    /**
+     * Number of round trips used to estimate the clock offset
+     */
+    private static final int CLOCK_SAMPLES = 10;
+
+    /**
+     * Returns a data source for the OpenNMS database on the
+     * PostgreSQL instance at the given address.
+     */
+    public static DataSource getOpenNMSDataSource(InetSocketAddress pgsqlAddr) {
+        PGSimpleDataSource dataSource = new PGSimpleDataSource();
+        dataSource.setPortNumber(pgsqlAddr.getPort());
+        dataSource.setUser("postgres");
+        dataSource.setPassword("postgres");
+        dataSource.setServerName(pgsqlAddr.getAddress().getHostAddress());
+        dataSource.setDatabaseName("opennms");
+        return dataSource;
+    }
+
+    /**
+     * Returns the number of nodes in the given foreign source that have been
+     * provisioned, i.e. that were imported along with their interfaces.
+     */
+    public static long countNodes(DataSource dataSource, String foreignSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(DISTINCT n.nodeid) FROM node n"
+                     + " JOIN ipinterface i ON i.nodeid = n.nodeid WHERE n.foreignsource = ? AND n.nodetype <> 'D'")) {
+            statement.setString(1, foreignSource);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the given foreign source whose SNMP agent
+     * has been scanned, i.e. whose sysObjectID is known.
+     */
+    public static long countScannedNodes(DataSource dataSource, String foreignSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM node"
+                     + " WHERE foreignsource = ? AND nodetype <> 'D' AND nodesysoid IS NOT NULL")) {
+            statement.setString(1, foreignSource);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the given foreign source whose label matches the given LIKE pattern.
+     */
+    public static long countNodesWithLabel(DataSource dataSource, String foreignSource, String labelPattern) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM node"
+                     + " WHERE foreignsource = ? AND nodetype <> 'D' AND nodelabel LIKE ?")) {
+            statement.setString(1, foreignSource);
+            statement.setString(2, labelPattern);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of managed interfaces on the nodes in the given foreign source.
+     */
+    public static long countInterfaces(DataSource dataSource, String foreignSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM ipinterface i"
+                     + " JOIN node n ON n.nodeid = i.nodeid WHERE n.foreignsource = ? AND n.nodetype <> 'D'"
+                     + " AND i.ismanaged <> 'D'")) {
+            statement.setString(1, foreignSource);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of services on the managed interfaces of the nodes in the given foreign source.
+     */
+    public static long countServices(DataSource dataSource, String foreignSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM ifservices s"
+                     + " JOIN ipinterface i ON i.id = s.ipinterfaceid JOIN node n ON n.nodeid = i.nodeid"
+                     + " WHERE n.foreignsource = ? AND n.nodetype <> 'D' AND i.ismanaged <> 'D'"
+                     + " AND COALESCE(s.status, 'A') <> 'D'")) {
+            statement.setString(1, foreignSource);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Estimates the offset of the database server's clock relative to the local clock,
+     * in microseconds, as read by {@link SequencedLoad#currentTimeMicros()}.
+     *
+     * The containers all share the Docker host's clock, so this is also the offset of the
+     * clock used by OpenNMS to timestamp the events it persists. The server time is assumed
+     * to be read half-way through a round trip, and the sample with the shortest round
+     * trip is kept, which bounds the error to half of that round trip.
+     */
+    public static long getClockOffsetMicros(DataSource dataSource) throws SQLException {
+        long bestRoundTrip = Long.MAX_VALUE;
+        long bestOffset = 0;
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (int i = 0; i < CLOCK_SAMPLES; i++) {
+                final long before = SequencedLoad.currentTimeMicros();
+                final long serverMicros;
+                try (ResultSet rs = statement.executeQuery("SELECT (EXTRACT(EPOCH FROM clock_timestamp()) * 1000000)::bigint")) {
+                    rs.next();
+                    serverMicros = rs.getLong(1);
+                }
+                final long after = SequencedLoad.currentTimeMicros();
+                if (after - before < bestRoundTrip) {
+                    bestRoundTrip = after - before;
+                    bestOffset = serverMicros - (before + after) / 2;
+                }
+            }
+        }
+        LOG.info("Clock offset of the database server: {}us (+/- {}us).", bestOffset, bestRoundTrip / 2);
+        return bestOffset;
+    }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Accounts for the delivery of every sequence number sent by the load
+ * generators, per stream, by reconciling them with the persisted events.
+ *
+ * The sequence numbers that were sent and received are kept in bitsets,
+ * so a stream of 100 million messages takes about 25MB, regardless of
+ * how many of the messages were lost or duplicated.
+ *
+ * Messages are considered reordered when they're received after a message
+ * with a higher sequence number from the same sender. The senders of a stream
+ * (i.e. the generator threads) each use every n-th sequence number, so this
+ * excludes the interleaving of the senders, which are not synchronized.
+ *
+ * @author jwhite
+ */
+public class DeliveryLedger {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeliveryLedger.class);
+
+    private final Map<String, StreamLedger> streams = Maps.newLinkedHashMap();
+
+    /**
+     * Records a single sequence number as sent, by a stream with a single sender.
+     */
+    public synchronized void recordSent(String stream, long sequence) {
+        final int index = toIndex(sequence);
+        getOrCreate(stream, 1).sent.set(index);
+    }
+
+    /**
+     * Records all of the sequence numbers used by a run of one of the generators as sent.
+     */
+    public synchronized void recordSent(String stream, LoadResult result) {
+        final long[] sequencesBySender = result.getSequencesBySender();
+        if (sequencesBySender.length == 0) {
+            throw new IllegalArgumentException("The generator did not number its messages.");
+        }
+        final StreamLedger ledger = getOrCreate(stream, sequencesBySender.length);
+        for (int i = 0; i < sequencesBySender.length; i++) {
+            for (long k = 0; k < sequencesBySender[i]; k++) {
+                ledger.sent.set(toIndex(k * sequencesBySender.length + i));
+            }
+        }
+    }
+
+    /**
+     * Records an event as received. Events from streams that were never sent are ignored.
+     */
+    public synchronized void recordReceived(LoadEvent event) {
+        final StreamLedger ledger = streams.get(event.getStream());
+        if (ledger != null) {
+            ledger.received(event.getSequence());
+        }
+    }
+
+    /**
+     * Records all of the load events with the given UEIs that were created since some
+     * point in time as received, in the order they were persisted.
+     *
+     * @return the number of events that were read
+     */
+    public long reconcile(DataSource dataSource, Collection<String> ueis, Date since) throws SQLException {
+        final long count = LoadEvent.forEach(dataSource, ueis, since, null, this::recordReceived);
+        LOG.info("Reconciled {} events.", count);
+        return count;
+    }
+
+    public synchronized Set<String> getStreams() {
+        return ImmutableSet.copyOf(streams.keySet());
+    }
+
+    public synchronized Summary getSummary(String stream) {
+        final StreamLedger ledger = streams.get(stream);
+        if (ledger == null) {
+            throw new IllegalArgumentException("No messages were sent on stream: " + stream);
+        }
+        final BitSet delivered = (BitSet)ledger.sent.clone();
+        delivered.and(ledger.received);
+        final long sent = ledger.sent.cardinality();
+        final long unique = ledger.received.cardinality();
+        return new Summary(stream, sent, unique + ledger.duplicates, delivered.cardinality(),
+                ledger.duplicates, ledger.reordered, unique - delivered.cardinality());
+    }
+
+    private StreamLedger getOrCreate(String stream, int senders) {
+        StreamLedger ledger = streams.get(stream);
+        if (ledger == null) {
+            ledger = new StreamLedger(senders);
+            streams.put(stream, ledger);
+        } else if (ledger.highestBySender.length != senders) {
+            throw new IllegalArgumentException(String.format("Stream %s was sent by %d sender(s), not %d.",
+                    stream, ledger.highestBySender.length, senders));
+        }
+        return ledger;
+    }
+
+    private static int toIndex(long sequence) {
+        if (sequence < 0 || sequence >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sequence number out of range: " + sequence);
+        }
+        return (int)sequence;
+    }
+
+    private static class StreamLedger {
+        private final BitSet sent = new BitSet();
+        private final BitSet received = new BitSet();
+        private final long[] highestBySender;
+        private long duplicates;
+        private long reordered;
+
+        private StreamLedger(int senders) {
+            highestBySender = new long[senders];
+            Arrays.fill(highestBySender, -1);
+        }
+
+        private void received(long sequence) {
+            if (sequence < 0 || sequence >= Integer.MAX_VALUE) {
+                LOG.warn("Ignoring out of range sequence number: {}", sequence);
+                return;
+            }
+            final int index = (int)sequence;
+            if (received.get(index)) {
+                duplicates++;
+                return;
+            }
+            received.set(index);
+            final int sender = (int)(sequence % highestBySender.length);
+            if (sequence < highestBySender[sender]) {
+                reordered++;
+            } else {
+                highestBySender[sender] = sequence;
+            }
+        }
+    }
+
+    /**
+     * The delivery statistics of a single stream.
+     */
+    public static class Summary {
+        private final String stream;
+        private final long sent;
+        private final long received;
+        private final long delivered;
+        private final long duplicates;
+        private final long reordered;
+        private final long unexpected;
+
+        public Summary(String stream, long sent, long received, long delivered, long duplicates, long reordered, long unexpected) {
+            this.stream = stream;
+            this.sent = sent;
+            this.received = received;
+            this.delivered = delivered;
+            this.duplicates = duplicates;
+            this.reordered = reordered;
+            this.unexpected = unexpected;
+        }
+
+        public String getStream() {
+            return stream;
+        }
+
+        /**
+         * Number of distinct sequence numbers that were sent
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * Number of events that were received, including duplicates
+         */
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * Number of distinct sequence numbers that were both sent and received
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getLost() {
+            return sent - delivered;
+        }
+
+        /**
+         * Number of events received for a sequence number that was already received
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Number of events received after an event with a higher sequence number from the same sender
+         */
+        public long getReordered() {
+            return reordered;
+        }
+
+        /**
+         * Number of distinct sequence numbers that were received, but never sent
+         */
+        public long getUnexpected() {
+            return unexpected;
+        }
+
+        public double getLossRatio() {
+            return sent > 0 ? (double)getLost() / sent : 0;
+        }
+
+        public double getDuplicateRatio() {
+            return received > 0 ? (double)duplicates / received : 0;
+        }
+
+        public double getReorderRatio() {
+            return delivered > 0 ? (double)reordered / delivered : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Summary[stream=%s, sent=%d, received=%d, lost=%d (%.4f%%), duplicates=%d (%.4f%%), reordered=%d (%.4f%%), unexpected=%d]",
+                    stream, sent, received, getLost(), getLossRatio() * 100, duplicates, getDuplicateRatio() * 100,
+                    reordered, getReorderRatio() * 100, unexpected);
+        }
+    }
+}
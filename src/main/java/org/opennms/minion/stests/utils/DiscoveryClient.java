@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.fluent.Executor;
+import org.apache.http.client.fluent.Form;
+import org.apache.http.client.fluent.Request;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+
+/**
+ * Configures Discovery through the forms of the web UI, since
+ * no REST endpoint is currently available.
+ *
+ * The changes are kept in the HTTP session, which is shared by all of the
+ * requests made by the client, until they are saved with {@link #saveAndRestart()}.
+ * Every address and range is discovered from the given location, and the
+ * discovered nodes are added to the given foreign source.
+ *
+ * @author jwhite
+ */
+public class DiscoveryClient {
+
+    private static final String DEFAULT_USERNAME = "admin";
+
+    private static final String DEFAULT_PASSWORD = "admin";
+
+    private static final String TIMEOUT_MS = "2000";
+
+    private static final String RETRIES = "1";
+
+    private final InetSocketAddress addr;
+
+    private final String location;
+
+    private final String foreignSource;
+
+    private final Executor executor;
+
+    public DiscoveryClient(InetSocketAddress addr, String location, String foreignSource) {
+        this.addr = addr;
+        this.location = location;
+        this.foreignSource = foreignSource;
+
+        final HttpHost host = new HttpHost(addr.getAddress().getHostAddress(), addr.getPort());
+        executor = Executor.newInstance(HttpClientBuilder.create()
+                    .setRedirectStrategy(new LaxRedirectStrategy()) // Ignore the 302 response to the POST
+                    .build())
+                .auth(host, DEFAULT_USERNAME, DEFAULT_PASSWORD)
+                .authPreemptive(host);
+    }
+
+    public void addSpecific(String ipAddress) throws IOException {
+        post("AddSpecific", getGeneralSettings()
+                .add("specificipaddress", ipAddress)
+                .add("specifictimeout", TIMEOUT_MS)
+                .add("specificretries", RETRIES));
+    }
+
+    /**
+     * Adds the range of addresses from begin to end, inclusive.
+     */
+    public void addIncludeRange(String begin, String end) throws IOException {
+        post("AddIncludeRange", getGeneralSettings()
+                .add("irbase", begin)
+                .add("irend", end)
+                .add("irtimeout", TIMEOUT_MS)
+                .add("irretries", RETRIES)
+                .add("irforeignsource", foreignSource)
+                .add("irlocation", location));
+    }
+
+    /**
+     * Removes the range at the given index, in the order in which the ranges were added.
+     */
+    public void removeIncludeRange(int index) throws IOException {
+        post("RemoveIncludeRange", getGeneralSettings()
+                .add("index", Integer.toString(index)));
+    }
+
+    /**
+     * Saves the configuration and restarts Discovery, which starts
+     * to sweep the addresses without waiting.
+     */
+    public void saveAndRestart() throws IOException {
+        post("SaveAndRestart", getGeneralSettings());
+    }
+
+    private Form getGeneralSettings() {
+        return Form.form()
+                .add("initialsleeptime", "1")
+                .add("restartsleeptime", "86400000")
+                .add("foreignsource", foreignSource)
+                .add("location", location)
+                .add("retries", RETRIES)
+                .add("timeout", TIMEOUT_MS);
+    }
+
+    private void post(String action, Form form) throws IOException {
+        executor.execute(Request.Post(String.format("http://%s:%d/opennms/admin/discovery/actionDiscovery?action=%s",
+                addr.getAddress().getHostAddress(), addr.getPort(), action))
+            .bodyForm(form.build())).returnContent();
+    }
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The number of events with the given UEIs that were created since some
+ * point in time, along with the creation time of the first and last event.
+ *
+ * Queried directly over JDBC, which is cheap enough to be polled
+ * while a benchmark is running.
+ *
+ * @author jwhite
+ */
+public class EventStatistics {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventStatistics.class);
+
+    /**
+     * Retrieves the statistics, which are polled by {@link EventStatistics#awaitCount(Query, long, long, long)}.
+     */
+    public static interface Query {
+        EventStatistics query() throws SQLException;
+    }
+
+    private final long count;
+    private final Date firstCreated;
+    private final Date lastCreated;
+
+    public EventStatistics(long count, Date firstCreated, Date lastCreated) {
+        this.count = count;
+        this.firstCreated = firstCreated;
+        this.lastCreated = lastCreated;
+    }
+
+    public static EventStatistics query(DataSource dataSource, Collection<String> ueis, Date since) throws SQLException {
+        return query(dataSource, "eventuei", ueis, since, false);
+    }
+
+    /**
+     * Only counts the events that were associated with a node,
+     * i.e. whose source address was resolved to one of the node's interfaces.
+     */
+    public static EventStatistics queryWithNode(DataSource dataSource, Collection<String> ueis, Date since) throws SQLException {
+        return query(dataSource, "eventuei", ueis, since, true);
+    }
+
+    /**
+     * Queries the events created by the given sources, i.e. the daemons
+     * such as syslogd and trapd, regardless of their UEI.
+     */
+    public static EventStatistics queryBySource(DataSource dataSource, Collection<String> sources, Date since) throws SQLException {
+        return query(dataSource, "eventsource", sources, since, false);
+    }
+
+    private static EventStatistics query(DataSource dataSource, String column, Collection<String> values, Date since,
+            boolean withNode) throws SQLException {
+        final String sql = "SELECT COUNT(*), MIN(eventcreatetime), MAX(eventcreatetime) FROM events"
+                + " WHERE " + column + " IN (" + String.join(",", Collections.nCopies(values.size(), "?")) + ")"
+                + " AND eventcreatetime >= ?"
+                + (withNode ? " AND nodeid IS NOT NULL" : "");
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            int k = 1;
+            for (String value : values) {
+                statement.setString(k++, value);
+            }
+            statement.setTimestamp(k, new Timestamp(since.getTime()));
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return new EventStatistics(rs.getLong(1), rs.getTimestamp(2), rs.getTimestamp(3));
+            }
+        }
+    }
+
+    /**
+     * Polls the statistics until the expected number of events were created, or until no
+     * events were created for the quiet period, or until the maximum wait time has elapsed.
+     *
+     * @return the last statistics that were polled
+     */
+    public static EventStatistics awaitCount(DataSource dataSource, Collection<String> ueis, Date since,
+            long expected, long quietPeriodMs, long maxWaitMs) throws SQLException, InterruptedException {
+        return awaitCount(() -> query(dataSource, ueis, since), expected, quietPeriodMs, maxWaitMs);
+    }
+
+    /**
+     * Same as {@link #awaitCount(DataSource, Collection, Date, long, long, long)}, polling the given query.
+     */
+    public static EventStatistics awaitCount(Query query, long expected, long quietPeriodMs, long maxWaitMs)
+            throws SQLException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long pollIntervalMs = Math.min(5000, Math.max(quietPeriodMs / 3, 100));
+        long lastChange = start;
+        EventStatistics stats = query.query();
+        while (stats.getCount() < expected
+                && System.currentTimeMillis() - lastChange < quietPeriodMs
+                && System.currentTimeMillis() - start < maxWaitMs) {
+            Thread.sleep(pollIntervalMs);
+            final EventStatistics current = query.query();
+            if (current.getCount() != stats.getCount()) {
+                lastChange = System.currentTimeMillis();
+            }
+            stats = current;
+            LOG.info("Received {} of {} events.", stats.getCount(), expected);
+        }
+        return stats;
+    }
+
+    /**
+     * Polls the statistics until no events were created for the quiet period, or until
+     * the maximum wait time has elapsed, used to let the events of a previous run drain
+     * before starting the next one.
+     *
+     * @return the last statistics that were polled
+     */
+    public static EventStatistics awaitQuiet(Query query, long quietPeriodMs, long maxWaitMs)
+            throws SQLException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long pollIntervalMs = Math.min(5000, Math.max(quietPeriodMs / 3, 100));
+        long lastChange = start;
+        EventStatistics stats = query.query();
+        while (System.currentTimeMillis() - lastChange < quietPeriodMs
+                && System.currentTimeMillis() - start < maxWaitMs) {
+            Thread.sleep(pollIntervalMs);
+            final EventStatistics current = query.query();
+            if (current.getCount() != stats.getCount()) {
+                lastChange = System.currentTimeMillis();
+                LOG.info("Still draining, {} events so far.", current.getCount());
+            }
+            stats = current;
+        }
+        return stats;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Date getFirstCreated() {
+        return firstCreated;
+    }
+
+    public Date getLastCreated() {
+        return lastCreated;
+    }
+
+    /**
+     * Time elapsed between the creation of the first and last event, in milliseconds.
+     */
+    public long getDurationMs() {
+        if (firstCreated == null || lastCreated == null) {
+            return 0;
+        }
+        return lastCreated.getTime() - firstCreated.getTime();
+    }
+
+    /**
+     * The rate at which the events were created, in events per second.
+     */
+    public double getRate() {
+        final long durationMs = getDurationMs();
+        if (count < 2 || durationMs <= 0) {
+            return 0;
+        }
+        return (count - 1) * 1000d / durationMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("EventStatistics[count=%d, first=%s, last=%s, rate=%.2f/s]",
+                count, firstCreated, lastCreated, getRate());
+    }
+}
@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Watches for the events with the given UEIs as they are persisted, instead
+ * of polling the events table.
+ *
+ * A trigger is installed on the events table, which notifies the listeners
+ * of the {@link #CHANNEL} channel of every inserted event. The notifications
+ * are delivered when the transaction that inserted the event commits, so the
+ * waiters are woken up as soon as the event can be queried, and the time at
+ * which every event arrived is recorded, along with the time at which it was
+ * inserted, as read from the database server's clock.
+ *
+ * The arrivals are kept until they're drained with {@link #drainArrivals(String)},
+ * so watchers used over long runs under heavy load should either drain them
+ * periodically, or only count the events, see {@link #EventWatcher(DataSource, boolean, String...)}.
+ *
+ * The driver in use can only read the notifications from the connection
+ * along with the result of a query, and can't block until one arrives, so
+ * the listening connection is polled with a trivial query every
+ * {@value #POLL_INTERVAL_MS} ms. Every watcher adds about 100 queries per
+ * second to the database, and the time at which an event was received is
+ * late by up to the poll interval. The time at which it was inserted isn't
+ * affected, and should be used where the exact timing matters.
+ *
+ * The trigger fires for every event persisted by OpenNMS, so it's only kept
+ * while watchers are open. Every watcher identifies its listening session with
+ * {@link #APPLICATION_NAME}, and the last watcher to close drops the trigger,
+ * including watchers from other JVMs. The Minion Systems also remove it when
+ * they are torn down, in case a watcher was never closed.
+ *
+ * @author jwhite
+ */
+public class EventWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventWatcher.class);
+
+    public static final String CHANNEL = "stests_events";
+
+    /**
+     * Application name of the listening sessions, used to tell whether any watchers are left
+     */
+    public static final String APPLICATION_NAME = "stests-event-watcher";
+
+    /**
+     * Interval at which the listening connection is checked for notifications
+     */
+    private static final long POLL_INTERVAL_MS = 10;
+
+    /**
+     * Sends the UEI, the ID and the time at which the event was inserted, in microseconds since the epoch
+     */
+    private static final String INSTALL_FUNCTION_SQL = "CREATE OR REPLACE FUNCTION stests_notify_event() RETURNS trigger AS $$"
+            + " BEGIN"
+            + "   PERFORM pg_notify('" + CHANNEL + "', NEW.eventid || ' '"
+            + "     || (EXTRACT(EPOCH FROM clock_timestamp()) * 1000000)::bigint || ' ' || NEW.eventuei);"
+            + "   RETURN NEW;"
+            + " END;"
+            + " $$ LANGUAGE plpgsql";
+
+    private static final String INSTALL_TRIGGER_SQL = "CREATE TRIGGER stests_notify_event AFTER INSERT ON events"
+            + " FOR EACH ROW EXECUTE PROCEDURE stests_notify_event()";
+
+    private static final String UNINSTALL_TRIGGER_SQL = "DROP TRIGGER IF EXISTS stests_notify_event ON events";
+
+    private static final String LOCK_EVENTS_SQL = "LOCK TABLE events IN SHARE ROW EXCLUSIVE MODE";
+
+    private static final String COUNT_OTHER_WATCHERS_SQL = "SELECT COUNT(*) FROM pg_stat_activity"
+            + " WHERE application_name = '" + APPLICATION_NAME + "' AND pid <> pg_backend_pid()";
+
+    /**
+     * An event that was persisted.
+     */
+    public static class Arrival {
+        private final long eventId;
+        private final String uei;
+        private final long insertedMicros;
+        private final long receivedMicros;
+
+        public Arrival(long eventId, String uei, long insertedMicros, long receivedMicros) {
+            this.eventId = eventId;
+            this.uei = uei;
+            this.insertedMicros = insertedMicros;
+            this.receivedMicros = receivedMicros;
+        }
+
+        public long getEventId() {
+            return eventId;
+        }
+
+        public String getUei() {
+            return uei;
+        }
+
+        /**
+         * Time at which the event was inserted, according to the database server's clock, in microseconds since the epoch
+         */
+        public long getInsertedMicros() {
+            return insertedMicros;
+        }
+
+        /**
+         * Time at which the notification was received, as read by {@link SequencedLoad#currentTimeMicros()}
+         */
+        public long getReceivedMicros() {
+            return receivedMicros;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Arrival[eventId=%d, uei=%s, inserted=%d, received=%d]",
+                    eventId, uei, insertedMicros, receivedMicros);
+        }
+    }
+
+    /**
+     * The events that arrived with a given UEI
+     */
+    private static class Watched {
+        private final String uei;
+        private final List<Arrival> arrivals = new ArrayList<>();
+        private long count;
+
+        private Watched(String uei) {
+            this.uei = uei;
+        }
+    }
+
+    private final Connection connection;
+    private final Map<String, Watched> watchedByUei = Maps.newHashMap();
+    private final boolean recordArrivals;
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /**
+     * Watches for the events with the given UEIs, recording every arrival.
+     */
+    public EventWatcher(DataSource dataSource, String... ueis) throws SQLException {
+        this(dataSource, true, ueis);
+    }
+
+    /**
+     * @param recordArrivals when false, the events are only counted, and {@link #getArrivals(String)}
+     *                       always returns an empty list
+     */
+    public EventWatcher(DataSource dataSource, boolean recordArrivals, String... ueis) throws SQLException {
+        this.recordArrivals = recordArrivals;
+        for (String uei : ueis) {
+            watchedByUei.put(uei, new Watched(uei));
+        }
+
+        // Identify the session before installing the trigger, so that a watcher closing
+        // concurrently doesn't drop the trigger from under us
+        connection = dataSource.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET application_name = '" + APPLICATION_NAME + "'");
+            statement.execute("LISTEN " + CHANNEL);
+            install(dataSource);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        LOG.info("Watching for events with UEIs: {}", Arrays.toString(ueis));
+
+        thread = new Thread(this::listen, "event-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Installs the trigger, replacing it if it's already installed.
+     */
+    public static void install(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            // Serialize the installs and removals, since the trigger can't be replaced
+            statement.execute(LOCK_EVENTS_SQL);
+            statement.execute(INSTALL_FUNCTION_SQL);
+            statement.execute(UNINSTALL_TRIGGER_SQL);
+            statement.execute(INSTALL_TRIGGER_SQL);
+            connection.commit();
+        }
+    }
+
+    /**
+     * Removes the trigger, regardless of whether any watchers are left.
+     */
+    public static void uninstall(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(UNINSTALL_TRIGGER_SQL);
+        }
+    }
+
+    /**
+     * Removes the trigger if no watchers are listening, from this or any other JVM.
+     *
+     * @return true if the trigger was removed, or wasn't installed
+     */
+    public static boolean uninstallIfUnused(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            return uninstallIfUnused(connection);
+        }
+    }
+
+    /**
+     * Removes the trigger if no sessions other than the given one are listening.
+     */
+    private static boolean uninstallIfUnused(Connection connection) throws SQLException {
+        final boolean autoCommit = connection.getAutoCommit();
+        try (Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.execute(LOCK_EVENTS_SQL);
+            final long otherWatchers;
+            try (ResultSet rs = statement.executeQuery(COUNT_OTHER_WATCHERS_SQL)) {
+                rs.next();
+                otherWatchers = rs.getLong(1);
+            }
+            if (otherWatchers == 0) {
+                statement.execute(UNINSTALL_TRIGGER_SQL);
+                LOG.info("Removed the event trigger, since no watchers are left.");
+            }
+            connection.commit();
+            return otherWatchers == 0;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void listen() {
+        try {
+            final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+            try (Statement statement = connection.createStatement()) {
+                while (!closed) {
+                    // The notifications are only read from the connection along with the result of a query
+                    statement.execute("SELECT 1");
+                    final PGNotification[] notifications = pgConnection.getNotifications();
+                    if (notifications != null) {
+                        onNotifications(notifications);
+                    }
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            if (!closed) {
+                LOG.error("Stopped watching for events.", e);
+            }
+        }
+    }
+
+    private void onNotifications(PGNotification[] notifications) {
+        final long receivedMicros = SequencedLoad.currentTimeMicros();
+        synchronized (watchedByUei) {
+            boolean matched = false;
+            for (PGNotification notification : notifications) {
+                // <event id> <inserted micros> <uei>
+                final String[] tokens = notification.getParameter().split(" ", 3);
+                final Watched watched = watchedByUei.get(tokens[2]);
+                if (watched != null) {
+                    watched.count++;
+                    if (recordArrivals) {
+                        // Share the UEI of the map, rather than keeping a copy per event
+                        watched.arrivals.add(new Arrival(Long.parseLong(tokens[0]), watched.uei, Long.parseLong(tokens[1]), receivedMicros));
+                    }
+                    matched = true;
+                }
+            }
+            if (matched) {
+                watchedByUei.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of events with the given UEI that arrived since the watcher was created,
+     * including those that were drained.
+     */
+    public long getCount(String uei) {
+        synchronized (watchedByUei) {
+            return getWatched(uei).count;
+        }
+    }
+
+    /**
+     * Returns the events with the given UEI that arrived since the watcher was created,
+     * or since they were last drained, in order of arrival.
+     */
+    public List<Arrival> getArrivals(String uei) {
+        synchronized (watchedByUei) {
+            return Collections.unmodifiableList(new ArrayList<>(getWatched(uei).arrivals));
+        }
+    }
+
+    /**
+     * Returns the events with the given UEI that arrived since the watcher was created,
+     * or since they were last drained, and forgets them. The count isn't affected.
+     */
+    public List<Arrival> drainArrivals(String uei) {
+        synchronized (watchedByUei) {
+            final Watched watched = getWatched(uei);
+            final List<Arrival> arrivals = Collections.unmodifiableList(new ArrayList<>(watched.arrivals));
+            watched.arrivals.clear();
+            return arrivals;
+        }
+    }
+
+    /**
+     * Waits until the given number of events with the given UEI arrived, or until the timeout elapsed.
+     *
+     * @return true if the events arrived
+     */
+    public boolean awaitCount(String uei, long expected, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (watchedByUei) {
+            final Watched watched = getWatched(uei);
+            while (watched.count < expected) {
+                final long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                watchedByUei.wait(remainingMs);
+            }
+            return true;
+        }
+    }
+
+    private Watched getWatched(String uei) {
+        final Watched watched = watchedByUei.get(uei);
+        if (watched == null) {
+            throw new IllegalArgumentException("Not watching for events with UEI: " + uei);
+        }
+        return watched;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            uninstallIfUnused(connection);
+        } catch (SQLException e) {
+            LOG.warn("Failed to remove the event trigger.", e);
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOG.warn("Failed to close the connection.", e);
+        }
+    }
+}
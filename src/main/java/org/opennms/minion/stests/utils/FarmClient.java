@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Drives one of the simulators running in the farm containers, over its control port.
+ *
+ * Every farm simulates many hosts, each with its own address on the stack network,
+ * which are provisioned on demand.
+ *
+ * @author jwhite
+ */
+public class FarmClient implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FarmClient.class);
+
+    public static final int CONTROL_PORT = 9000;
+
+    private final Socket socket;
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    public FarmClient(InetSocketAddress controlAddr) throws IOException {
+        socket = new Socket();
+        socket.connect(controlAddr, (int)TimeUnit.SECONDS.toMillis(30));
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), true);
+    }
+
+    /**
+     * Provisions the given number of hosts, adding to those that were
+     * already provisioned, and returns the addresses of the first n hosts.
+     */
+    public List<String> provision(int hosts) throws IOException {
+        LOG.info("Provisioning {} host(s).", hosts);
+        final String reply = command(String.format("PROVISION %d", hosts), "ADDRESSES");
+        final int count = Integer.parseInt(reply.split(" ")[1]);
+        final List<String> addresses = Lists.newArrayListWithCapacity(count);
+        String line;
+        while ((line = in.readLine()) != null && !"END".equals(line)) {
+            addresses.add(line.trim());
+        }
+        if (addresses.size() != count) {
+            throw new IOException(String.format("Expected %d addresses, got %d.", count, addresses.size()));
+        }
+        return addresses;
+    }
+
+    /**
+     * Returns the number of hosts the farm can provision, which depends on
+     * the size of the subnet that Docker allocated to the stack network.
+     */
+    public int getCapacity() throws IOException {
+        return Integer.parseInt(command("CAPACITY", "CAPACITY").split(" ")[1]);
+    }
+
+    /**
+     * Returns the address of the last host the farm can provision, below which
+     * the addresses belong to other farms or to the containers, or null if it
+     * can't provision any.
+     */
+    public String getLowestAddress() throws IOException {
+        final String address = command("CAPACITY", "CAPACITY").split(" ")[2];
+        return "-".equals(address) ? null : address;
+    }
+
+    /**
+     * Sends the command and returns the reply, which must start with the expected keyword.
+     */
+    protected String command(String command, String expectedReply) throws IOException {
+        out.println(command);
+        final String reply = in.readLine();
+        if (reply == null) {
+            throw new IOException("The farm closed the connection.");
+        } else if (!reply.startsWith(expectedReply + " ")) {
+            throw new IOException("The farm failed to handle the command: " + reply);
+        }
+        return reply;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
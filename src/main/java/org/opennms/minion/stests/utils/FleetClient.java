@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the simulated device fleet running in the farm container.
+ *
+ * The fleet sends from a distinct source address for every device, so that
+ * the senders are resolved to distinct nodes, see {@link RequisitionBuilder#withNodes}.
+ *
+ * @author jwhite
+ */
+public class FleetClient extends FarmClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FleetClient.class);
+
+    public FleetClient(InetSocketAddress controlAddr) throws IOException {
+        super(controlAddr);
+    }
+
+    /**
+     * Sends the template from the first n provisioned devices, in a round-robin fashion,
+     * blocking until all of the packets are sent.
+     *
+     * @param rate total number of packets sent per second, or 0 to send as fast as possible
+     * @return the outcome, including the sequence numbers used by each of the fleet's threads
+     */
+    public LoadResult send(PacketTemplate template, InetSocketAddress target, double rate, long count, int devices, int threads) throws IOException {
+        return run(template, target, rate, count, 0, devices, threads);
+    }
+
+    /**
+     * Sends the template from the first n provisioned devices for the given amount of time.
+     */
+    public LoadResult sendFor(PacketTemplate template, InetSocketAddress target, double rate, long duration, TimeUnit unit, int devices, int threads) throws IOException {
+        return run(template, target, rate, 0, Math.max(1, unit.toMillis(duration)), devices, threads);
+    }
+
+    private LoadResult run(PacketTemplate template, InetSocketAddress target, double rate, long count, long durationMs, int devices, int threads) throws IOException {
+        final String reply = command(String.format("SEND %s %d %s %d %d %d %d %d %d %s",
+                target.getAddress().getHostAddress(), target.getPort(), Double.toString(Math.max(rate, 0)), count, durationMs,
+                devices, threads, template.getSequenceOffset(), template.getTimestampOffset(),
+                Base64.getEncoder().encodeToString(template.getBytes())), "DONE");
+        // DONE <sent> <errors> <elapsed ns> <sequences by thread>
+        final String[] tokens = reply.split(" ");
+        final long[] sequencesBySender = Arrays.stream(tokens[4].split(","))
+                .mapToLong(Long::parseLong)
+                .toArray();
+        final LoadResult result = new LoadResult(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Long.parseLong(tokens[3]),
+                0, threads, rate, sequencesBySender);
+        LOG.info("Sent to {} from {} device(s): {}", target, devices, result);
+        return result;
+    }
+}
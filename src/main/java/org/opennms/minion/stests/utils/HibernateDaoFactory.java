@@ -27,11 +27,12 @@
  *******************************************************************************/
 package org.opennms.minion.stests.utils;
 
+import java.io.Closeable;
 import java.net.InetSocketAddress;
 
 import org.hibernate.SessionFactory;
 import org.opennms.netmgt.dao.hibernate.AbstractDaoHibernate;
-import org.postgresql.ds.PGSimpleDataSource;
+import org.postgresql.ds.PGPoolingDataSource;
 import org.springframework.orm.hibernate3.HibernateTemplate;
 import org.springframework.orm.hibernate3.annotation.AnnotationSessionFactoryBean;
 
@@ -40,30 +41,49 @@ import jersey.repackaged.com.google.common.base.Throwables;
 /**
  * Quick access to Hibernate DAOs.
  *
+ * Building the session factory scans all of the model classes, which takes
+ * a few seconds, so a single factory should be shared by all of the tests
+ * that use the same system, see {@link org.opennms.minion.stests.MinionSystem#getDaoFactory()}.
+ * The DAOs share a bounded pool of connections, instead of opening one for
+ * every query.
+ *
  * @author jwhite
  */
-public class HibernateDaoFactory {
+public class HibernateDaoFactory implements Closeable {
+
+    /**
+     * Default number of connections in the pool
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
 
+    private final PGPoolingDataSource m_dataSource;
+    private final AnnotationSessionFactoryBean m_sessionFactoryBean;
     private final SessionFactory m_sessionFactory;
     private final HibernateTemplate m_hibernateTemplate;
 
     public HibernateDaoFactory(InetSocketAddress pgsqlAddr) {
-        PGSimpleDataSource dataSource = new PGSimpleDataSource();
-        dataSource.setPortNumber(pgsqlAddr.getPort());
-        dataSource.setUser("postgres");
-        dataSource.setPassword("postgres");
-        dataSource.setServerName(pgsqlAddr.getAddress().getHostAddress());
-        dataSource.setDatabaseName("opennms");
+        this(pgsqlAddr, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public HibernateDaoFactory(InetSocketAddress pgsqlAddr, int maxConnections) {
+        m_dataSource = new PGPoolingDataSource();
+        m_dataSource.setPortNumber(pgsqlAddr.getPort());
+        m_dataSource.setUser("postgres");
+        m_dataSource.setPassword("postgres");
+        m_dataSource.setServerName(pgsqlAddr.getAddress().getHostAddress());
+        m_dataSource.setDatabaseName("opennms");
+        m_dataSource.setMaxConnections(maxConnections);
 
-        AnnotationSessionFactoryBean sfb = new AnnotationSessionFactoryBean();
-        sfb.setDataSource(dataSource);
-        sfb.setPackagesToScan("org.opennms.netmgt.model");
+        m_sessionFactoryBean = new AnnotationSessionFactoryBean();
+        m_sessionFactoryBean.setDataSource(m_dataSource);
+        m_sessionFactoryBean.setPackagesToScan("org.opennms.netmgt.model");
         try {
-            sfb.afterPropertiesSet();
+            m_sessionFactoryBean.afterPropertiesSet();
         } catch (Exception e) {
+            m_dataSource.close();
             throw Throwables.propagate(e);
         }
-        m_sessionFactory = sfb.getObject();
+        m_sessionFactory = m_sessionFactoryBean.getObject();
         m_hibernateTemplate = new HibernateTemplate(m_sessionFactory);
     }
 
@@ -77,4 +97,16 @@ public class HibernateDaoFactory {
             throw Throwables.propagate(e);
         }
     }
+
+    /**
+     * Closes the session factory and all of the connections in the pool.
+     */
+    @Override
+    public void close() {
+        try {
+            m_sessionFactoryBean.destroy();
+        } finally {
+            m_dataSource.close();
+        }
+    }
 }
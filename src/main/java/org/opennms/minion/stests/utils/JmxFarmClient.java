@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+/**
+ * Drives the JMX target farm, which serves many JMX targets, each with
+ * its own MBean server.
+ *
+ * Every target is reached with service:jmx:rmi:///jndi/rmi://&lt;address&gt;:9999/jmxrmi,
+ * and serves the MBeans stests:type=Farm,name=m0..mN, whose attributes are
+ * counters named Counter0..CounterN, see {@link RequisitionBuilder#withJmxTargets}.
+ *
+ * @author jwhite
+ */
+public class JmxFarmClient extends FarmClient {
+
+    public static final int REGISTRY_PORT = 9999;
+
+    /**
+     * Collections made from the JMX targets.
+     */
+    public static class Stats {
+        private final long connections;
+        private final long attributes;
+        private final long sessions;
+        private final long meanSessionMicros;
+        private final long maxSessionMicros;
+        private final int activeTargets;
+
+        public Stats(long connections, long attributes, long sessions, long meanSessionMicros,
+                long maxSessionMicros, int activeTargets) {
+            this.connections = connections;
+            this.attributes = attributes;
+            this.sessions = sessions;
+            this.meanSessionMicros = meanSessionMicros;
+            this.maxSessionMicros = maxSessionMicros;
+            this.activeTargets = activeTargets;
+        }
+
+        /**
+         * Total number of connections opened to the targets
+         */
+        public long getConnections() {
+            return connections;
+        }
+
+        /**
+         * Total number of attributes read from the targets
+         */
+        public long getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Number of connections closed since the stats were last retrieved
+         */
+        public long getSessions() {
+            return sessions;
+        }
+
+        /**
+         * Mean time from opening to closing a connection, i.e. the time taken
+         * by a collection, since the stats were last retrieved
+         */
+        public long getMeanSessionMicros() {
+            return meanSessionMicros;
+        }
+
+        /**
+         * Longest time from opening to closing a connection since the stats were last retrieved
+         */
+        public long getMaxSessionMicros() {
+            return maxSessionMicros;
+        }
+
+        /**
+         * Number of targets whose attributes were read since the stats were last retrieved
+         */
+        public int getActiveTargets() {
+            return activeTargets;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stats[connections=%d, attributes=%d, sessions=%d, mean session=%d us, "
+                    + "max session=%d us, active targets=%d]", connections, attributes, sessions,
+                    meanSessionMicros, maxSessionMicros, activeTargets);
+        }
+    }
+
+    public JmxFarmClient(InetSocketAddress controlAddr) throws IOException {
+        super(controlAddr);
+    }
+
+    /**
+     * Retrieves the stats, and resets the ones that are not totals.
+     */
+    public Stats getStats() throws IOException {
+        // STATS <connections> <attributes> <sessions> <mean session us> <max session us> <active targets>
+        final String[] tokens = command("STATS", "STATS").split(" ");
+        return new Stats(Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Long.parseLong(tokens[3]),
+                Long.parseLong(tokens[4]), Long.parseLong(tokens[5]), Integer.parseInt(tokens[6]));
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of latencies, in microseconds, with a fixed relative precision.
+ *
+ * Values below 256 are counted exactly. Above that, every power of two is split
+ * into 128 linear buckets, so that recorded values are off by less than 1%,
+ * regardless of their magnitude. This keeps the memory used constant
+ * no matter how many values are recorded, unlike keeping every sample.
+ *
+ * Not thread safe.
+ *
+ * @author jwhite
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private long negative;
+
+    /**
+     * Records a latency. Negative values, which can be caused by clock
+     * skew, are counted separately and recorded as 0.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            negative++;
+            micros = 0;
+        }
+        counts[indexOf(micros)]++;
+        count++;
+        sum += micros;
+        min = Math.min(min, micros);
+        max = Math.max(max, micros);
+    }
+
+    /**
+     * Adds all the values recorded by the other histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        negative += other.negative;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+        negative = 0;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values
+     * fall, i.e. the upper bound of the bucket that holds it, capped to the maximum.
+     *
+     * @param percentile in [0, 100]
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long)Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return count > 0 ? max : 0;
+    }
+
+    public double getMean() {
+        return count > 0 ? (double)sum / count : 0;
+    }
+
+    /**
+     * Number of recorded values that were negative.
+     */
+    public long getNegativeCount() {
+        return negative;
+    }
+
+    private static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int)value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        final int subBucket = (int)(value >>> shift);
+        return (shift + 1) * SUB_BUCKETS + subBucket - SUB_BUCKETS;
+    }
+
+    private static long highestValueIn(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram[count=%d, min=%dus, p50=%dus, p99=%dus, p99.9=%dus, max=%dus]",
+                count, getMin(), getValueAtPercentile(50), getValueAtPercentile(99),
+                getValueAtPercentile(99.9), getMax());
+    }
+}
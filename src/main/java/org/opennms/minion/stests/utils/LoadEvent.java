@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import com.google.common.collect.Maps;
+
+/**
+ * An event that was generated by sequenced load, see {@link SequencedLoad}.
+ *
+ * The stream, sequence number and send time are parsed from the event
+ * parameters, which are named after the syslog match groups or the
+ * trap varbinds.
+ *
+ * @author jwhite
+ */
+public class LoadEvent {
+
+    /**
+     * Matches a single parameter in the eventparms column, i.e. name=value(type,encoding)
+     */
+    private static final Pattern EVENT_PARM = Pattern.compile("([^=;]+)=([^;]*)\\(([^,;()]+),([^,;()]+)\\)");
+
+    /**
+     * Number of rows fetched at once, so that large result sets can be streamed
+     */
+    private static final int FETCH_SIZE = 10000;
+
+    private final String uei;
+    private final String stream;
+    private final long sequence;
+    private final long sentMicros;
+    private final long createdMs;
+
+    public LoadEvent(String uei, String stream, long sequence, long sentMicros, long createdMs) {
+        this.uei = uei;
+        this.stream = stream;
+        this.sequence = sequence;
+        this.sentMicros = sentMicros;
+        this.createdMs = createdMs;
+    }
+
+    /**
+     * Parses the event, returning null if it's missing any of the parameters.
+     */
+    public static LoadEvent parse(String uei, Date created, String eventParms) {
+        final Map<String, String> parms = parseEventParms(eventParms);
+        final String stream = getFirst(parms, "stream", TrapGenerator.STREAM_OID);
+        final String sequence = getFirst(parms, "seq", TrapGenerator.SEQUENCE_OID);
+        final String sent = getFirst(parms, "sent", TrapGenerator.SENT_TIME_OID);
+        if (stream == null || sequence == null || sent == null) {
+            return null;
+        }
+        try {
+            return new LoadEvent(uei, stream, Long.parseLong(sequence), Long.parseLong(sent), created.getTime());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static Map<String, String> parseEventParms(String eventParms) {
+        final Map<String, String> parms = Maps.newHashMap();
+        if (eventParms != null) {
+            final Matcher m = EVENT_PARM.matcher(eventParms);
+            while (m.find()) {
+                parms.put(m.group(1).trim(), m.group(2));
+            }
+        }
+        return parms;
+    }
+
+    private static String getFirst(Map<String, String> parms, String... names) {
+        for (String name : names) {
+            final String value = parms.get(name);
+            if (value != null) {
+                return value.trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Streams the load events with the given UEIs that were created since some point in time
+     * to the consumer, in the order in which they were persisted, skipping those that weren't
+     * generated by sequenced load.
+     *
+     * @param stream only the events of this stream are consumed, or all of them if null
+     * @return the number of events consumed
+     */
+    public static long forEach(DataSource dataSource, Collection<String> ueis, Date since, String stream,
+            Consumer<LoadEvent> consumer) throws SQLException {
+        final String sql = "SELECT eventuei, eventcreatetime, eventparms FROM events"
+                + " WHERE eventuei IN (" + String.join(",", Collections.nCopies(ueis.size(), "?")) + ")"
+                + " AND eventcreatetime >= ?"
+                + " ORDER BY eventid";
+        long count = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            // The driver only honors the fetch size within a transaction
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                statement.setFetchSize(FETCH_SIZE);
+                int k = 1;
+                for (String uei : ueis) {
+                    statement.setString(k++, uei);
+                }
+                statement.setTimestamp(k, new Timestamp(since.getTime()));
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        final LoadEvent event = parse(rs.getString(1), rs.getTimestamp(2), rs.getString(3));
+                        if (event != null && (stream == null || stream.equals(event.getStream()))) {
+                            consumer.accept(event);
+                            count++;
+                        }
+                    }
+                }
+            } finally {
+                connection.rollback();
+            }
+        }
+        return count;
+    }
+
+    public String getUei() {
+        return uei;
+    }
+
+    public String getStream() {
+        return stream;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Time at which the message was sent, in microseconds since the epoch, by the generator's clock.
+     */
+    public long getSentMicros() {
+        return sentMicros;
+    }
+
+    /**
+     * Time at which the event was persisted, in milliseconds since the epoch, by the OpenNMS clock.
+     */
+    public long getCreatedMs() {
+        return createdMs;
+    }
+
+    /**
+     * Time elapsed between sending the message and persisting the event, in microseconds.
+     *
+     * @param clockOffsetMicros offset of the OpenNMS clock relative to the generator's clock,
+     *        see {@link DbUtils#getClockOffsetMicros(DataSource)}
+     */
+    public long getLatencyMicros(long clockOffsetMicros) {
+        return createdMs * 1000L - (sentMicros + clockOffsetMicros);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadEvent[uei=%s, stream=%s, sequence=%d, sent=%d, created=%d]",
+                uei, stream, sequence, sentMicros, createdMs);
+    }
+}
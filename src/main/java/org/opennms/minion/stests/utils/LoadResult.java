@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a run of one of the load generators.
+ *
+ * @author jwhite
+ */
+public class LoadResult {
+    private final long sent;
+    private final long errors;
+    private final long elapsedNanos;
+    private final long blockedNanos;
+    private final int senders;
+    private final double targetRate;
+    private final long[] sequencesBySender;
+
+    public LoadResult(long sent, long errors, long elapsedNanos, long blockedNanos, int senders, double targetRate) {
+        this(sent, errors, elapsedNanos, blockedNanos, senders, targetRate, new long[0]);
+    }
+
+    /**
+     * @param sequencesBySender number of sequence numbers used by each sender, see {@link #getSequencesBySender()}
+     */
+    public LoadResult(long sent, long errors, long elapsedNanos, long blockedNanos, int senders, double targetRate, long[] sequencesBySender) {
+        this.sent = sent;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+        this.blockedNanos = blockedNanos;
+        this.senders = senders;
+        this.targetRate = targetRate;
+        this.sequencesBySender = Arrays.copyOf(sequencesBySender, sequencesBySender.length);
+    }
+
+    /**
+     * Number of messages that were sent
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Number of messages that could not be sent
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getElapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Total time the senders spent blocked waiting for the receiver to accept
+     * more data, in milliseconds. Only measured by the TCP generators.
+     */
+    public long getBlockedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos);
+    }
+
+    /**
+     * Fraction of the time the senders spent blocked, in [0, 1]
+     */
+    public double getBlockedRatio() {
+        return elapsedNanos > 0 ? Math.min(1d, (double)blockedNanos / (elapsedNanos * (long)senders)) : 0;
+    }
+
+    /**
+     * The requested rate in messages per second, or 0 if unlimited
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * Number of sequence numbers used by each of the senders, including those of the
+     * messages that could not be sent. The sequence numbers are interleaved, so that
+     * sender i used i, i + n, i + 2n, ... where n is the number of senders.
+     *
+     * Empty if the generator does not number its messages.
+     */
+    public long[] getSequencesBySender() {
+        return Arrays.copyOf(sequencesBySender, sequencesBySender.length);
+    }
+
+    public int getSenders() {
+        return senders;
+    }
+
+    /**
+     * The rate at which the messages were actually sent, in messages per second
+     */
+    public double getAchievedRate() {
+        return elapsedNanos > 0 ? sent * 1e9 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadResult[sent=%d, errors=%d, elapsed=%d ms, blocked=%.1f%%, target rate=%s, achieved rate=%.2f/s]",
+                sent, errors, getElapsedMs(), getBlockedRatio() * 100,
+                targetRate > 0 ? String.format("%.2f/s", targetRate) : "unlimited", getAchievedRate());
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.opennms.minion.stests.MinionSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Sends a stream of sequenced load at a fixed rate, waits for the resulting
+ * events to be persisted, and measures their latency and delivery.
+ *
+ * @author jwhite
+ */
+public class LoadStep {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadStep.class);
+
+    private final MinionSystem minionSystem;
+    private final DataSource dataSource;
+    private final long clockOffsetMicros;
+
+    private int threads = 4;
+    private int connections = 4;
+    private long durationMs = TimeUnit.SECONDS.toMillis(60);
+    private long quietPeriodMs = TimeUnit.SECONDS.toMillis(30);
+    private long maxDrainTimeMs = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * @param clockOffsetMicros see {@link DbUtils#getClockOffsetMicros(DataSource)}
+     */
+    public LoadStep(MinionSystem minionSystem, DataSource dataSource, long clockOffsetMicros) {
+        this.minionSystem = minionSystem;
+        this.dataSource = dataSource;
+        this.clockOffsetMicros = clockOffsetMicros;
+    }
+
+    public LoadStep withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public LoadStep withConnections(int connections) {
+        this.connections = connections;
+        return this;
+    }
+
+    public LoadStep withDuration(long duration, TimeUnit unit) {
+        this.durationMs = unit.toMillis(duration);
+        return this;
+    }
+
+    /**
+     * Stop waiting for events once none were created for this long.
+     */
+    public LoadStep withQuietPeriod(long quietPeriod, TimeUnit unit) {
+        this.quietPeriodMs = unit.toMillis(quietPeriod);
+        return this;
+    }
+
+    public LoadStep withMaxDrainTime(long maxDrainTime, TimeUnit unit) {
+        this.maxDrainTimeMs = unit.toMillis(maxDrainTime);
+        return this;
+    }
+
+    public Result run(TrafficType type, double rate) throws Exception {
+        final String stream = String.format("%s-%d-%d", type.getName(), (long)rate, System.currentTimeMillis());
+        LOG.info("************************************************************");
+        LOG.info("Sending {} at {}/s on stream {}.", type, rate > 0 ? String.format("%.0f", rate) : "unlimited", stream);
+        LOG.info("************************************************************");
+
+        // Events are timestamped by the OpenNMS clock
+        final Date since = new Date(System.currentTimeMillis() + clockOffsetMicros / 1000 - TimeUnit.SECONDS.toMillis(1));
+        final LoadResult load = type.sendFor(minionSystem, rate, stream, threads, connections, durationMs, TimeUnit.MILLISECONDS);
+        final EventStatistics events = EventStatistics.awaitCount(dataSource, ImmutableList.of(type.getUei()), since,
+                load.getSent(), quietPeriodMs, maxDrainTimeMs);
+
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(stream, load);
+        LoadEvent.forEach(dataSource, ImmutableList.of(type.getUei()), since, stream, e -> {
+            latencies.record(e.getLatencyMicros(clockOffsetMicros));
+            ledger.recordReceived(e);
+        });
+        final Result result = new Result(type, rate, load, events, latencies, ledger.getSummary(stream));
+        LOG.info("{}", result);
+        return result;
+    }
+
+    public static class Result {
+        private final TrafficType type;
+        private final double targetRate;
+        private final LoadResult load;
+        private final EventStatistics events;
+        private final LatencyHistogram latencies;
+        private final DeliveryLedger.Summary delivery;
+
+        public Result(TrafficType type, double targetRate, LoadResult load, EventStatistics events,
+                LatencyHistogram latencies, DeliveryLedger.Summary delivery) {
+            this.type = type;
+            this.targetRate = targetRate;
+            this.load = load;
+            this.events = events;
+            this.latencies = latencies;
+            this.delivery = delivery;
+        }
+
+        public TrafficType getType() {
+            return type;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public LoadResult getLoad() {
+            return load;
+        }
+
+        public EventStatistics getEvents() {
+            return events;
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        public DeliveryLedger.Summary getDelivery() {
+            return delivery;
+        }
+
+        /**
+         * The rate at which the events of the stream were persisted, in events per second
+         */
+        public double getDeliveredRate() {
+            return events.getRate();
+        }
+
+        public double getP99Ms() {
+            return latencies.getValueAtPercentile(99) / 1000d;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Result[type=%s, target rate=%.0f/s, achieved rate=%.2f/s, delivered rate=%.2f/s, %s, %s]",
+                    type, targetRate, load.getAchievedRate(), getDeliveredRate(), latencies, delivery);
+        }
+    }
+}
@@ -29,8 +29,11 @@ package org.opennms.minion.stests.utils;
 
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.sql.Connection;
 import java.util.concurrent.Callable;
 
+import org.postgresql.ds.PGSimpleDataSource;
+
 /**
  * Utilities for testing network connectivity.
  *
@@ -58,4 +61,29 @@ public class NetUtils {
             }
         };
     }
+
+    /**
+     * Used to verify that PostgreSQL is accepting connections.
+     *
+     * Checking the port alone isn't sufficient, since the port is
+     * published by Docker before the server is listening.
+     */
+    public static Callable<Boolean> canConnectToPostgresCallable(final InetSocketAddress addr) {
+        return new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                PGSimpleDataSource dataSource = new PGSimpleDataSource();
+                dataSource.setPortNumber(addr.getPort());
+                dataSource.setUser("postgres");
+                dataSource.setPassword("postgres");
+                dataSource.setServerName(addr.getAddress().getHostAddress());
+                dataSource.setDatabaseName("postgres");
+                dataSource.setLoginTimeout(1);
+                try (Connection connection = dataSource.getConnection()) {
+                    return true;
+                } catch (Exception ex) {
+                    return false;
+                }
+            }
+        };
+    }
 }
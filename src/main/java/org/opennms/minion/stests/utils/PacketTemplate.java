@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A pre-encoded packet, along with the offsets at which its sequence number
+ * and send time are patched, see {@link SequencedLoad}.
+ *
+ * Used to hand the packets off to senders that run outside of the tests,
+ * such as the simulated device fleet.
+ *
+ * @author jwhite
+ */
+public class PacketTemplate {
+
+    private final byte[] bytes;
+    private final int sequenceOffset;
+    private final int timestampOffset;
+
+    public PacketTemplate(byte[] bytes, int sequenceOffset, int timestampOffset) {
+        if (sequenceOffset < 0 || sequenceOffset + SequencedLoad.SEQUENCE_DIGITS > bytes.length
+                || timestampOffset < 0 || timestampOffset + SequencedLoad.TIMESTAMP_DIGITS > bytes.length) {
+            throw new IllegalArgumentException("The offsets must be within the packet.");
+        }
+        this.bytes = Arrays.copyOf(bytes, bytes.length);
+        this.sequenceOffset = sequenceOffset;
+        this.timestampOffset = timestampOffset;
+    }
+
+    /**
+     * Returns the template of the syslog messages generating events with {@link SequencedLoad#SYSLOG_UEI}.
+     */
+    public static PacketTemplate syslog(String stream) {
+        final byte[] message = SequencedLoad.syslogMessage(stream).getBytes(StandardCharsets.US_ASCII);
+        return new PacketTemplate(message, SequencedLoad.getSequenceOffset(message), SequencedLoad.getTimestampOffset(message));
+    }
+
+    public byte[] getBytes() {
+        return Arrays.copyOf(bytes, bytes.length);
+    }
+
+    public int getSequenceOffset() {
+        return sequenceOffset;
+    }
+
+    public int getTimestampOffset() {
+        return timestampOffset;
+    }
+}
@@ -27,6 +27,8 @@
  *******************************************************************************/
 package org.opennms.minion.stests.utils;
 
+import java.util.List;
+
 import org.opennms.minion.stests.MinionSystem;
 import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
 import org.opennms.netmgt.model.PrimaryType;
@@ -84,6 +86,56 @@ public class RequisitionBuilder {
         return this;
     }
 
+    /**
+     * Adds a node for every address, labeled with the prefix followed by the
+     * index of the address, i.e. the nodes of the simulated device fleet.
+     *
+     * @param location the location from which the nodes are reached, i.e. the location of the Minion
+     *                 that receives their traffic, or null for the default location
+     */
+    public RequisitionBuilder withNodes(final String prefix, final List<String> ipAddresses, final String location, final String... services) {
+        for (int i = 0; i < ipAddresses.size(); i++) {
+            final String label = String.format("%s-%d", prefix, i);
+            RequisitionNode node = new RequisitionNode();
+            node.setNodeLabel(label);
+            node.setForeignId(label);
+            if (location != null) {
+                node.setLocation(location);
+            }
+
+            RequisitionInterface iface = new RequisitionInterface();
+            iface.setSnmpPrimary(PrimaryType.PRIMARY);
+            iface.setIpAddr(ipAddresses.get(i));
+
+            for (String svcName : services) {
+                RequisitionMonitoredService svc = new RequisitionMonitoredService();
+                svc.setServiceName(svcName);
+                iface.putMonitoredService(svc);
+            }
+
+            node.putInterface(iface);
+            requisition.putNode(node);
+        }
+        return this;
+    }
+
+    /**
+     * Adds a node for every agent of the SNMP agent farm, with the SNMP service, in
+     * the location of the first Minion, so that the agents are scanned and collected
+     * from through the Minion.
+     */
+    public RequisitionBuilder withSnmpAgents(final List<String> ipAddresses) {
+        return withNodes("agent", ipAddresses, minionSystem.getMinions().get(0).getLocation(), "SNMP");
+    }
+
+    /**
+     * Adds a node for every target of the JMX farm, with the JMX-Farm service, which
+     * OpenNMS collects from when the farm is spawned, in the location of the first Minion.
+     */
+    public RequisitionBuilder withJmxTargets(final List<String> ipAddresses) {
+        return withNodes("jmx-target", ipAddresses, minionSystem.getMinions().get(0).getLocation(), "JMX-Farm");
+    }
+
     public Requisition build() {
         return requisition;
     }
@@ -36,6 +36,7 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.cxf.common.util.Base64Utility;
 import org.opennms.netmgt.model.OnmsNode;
@@ -91,6 +92,14 @@ public class RestClient {
         getBuilder(target).post(Entity.entity(requisition, MediaType.APPLICATION_XML));
     }
 
+    /**
+     * Sends the requisition as it's written, so that it's never held in memory, see {@link BulkRequisition}.
+     */
+    public void addOrReplaceRequisition(StreamingOutput requisition) {
+        final WebTarget target = getTarget().path("requisitions");
+        getBuilder(target).post(Entity.entity(requisition, MediaType.APPLICATION_XML));
+    }
+
     public void importRequisition(final String foreignSource) {
         final WebTarget target = getTarget().path("requisitions").path(foreignSource).path("import");
         getBuilder(target).put(null);
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * An output stream that writes to a file, and rotates the file once
+ * it reaches a given size.
+ *
+ * Rotated files are suffixed with .1, .2, ..., with .1 being the most recent,
+ * and only the given number of rotated files are kept.
+ *
+ * @author jwhite
+ */
+public class RollingFileOutputStream extends OutputStream {
+
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxRotatedFiles;
+
+    private OutputStream out;
+    private long size;
+
+    public RollingFileOutputStream(Path file, long maxFileSize, int maxRotatedFiles) throws IOException {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxRotatedFiles = maxRotatedFiles;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        out = new FileOutputStream(file.toFile());
+        size = 0;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        rotateIfNeeded(1);
+        out.write(b);
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        rotateIfNeeded(len);
+        out.write(b, off, len);
+        size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void rotateIfNeeded(int len) throws IOException {
+        if (size == 0 || size + len <= maxFileSize) {
+            return;
+        }
+        out.close();
+        for (int i = maxRotatedFiles; i > 0; i--) {
+            final Path source = i > 1 ? rotatedFile(i - 1) : file;
+            if (Files.exists(source)) {
+                Files.move(source, rotatedFile(i), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxRotatedFiles < 1) {
+            Files.deleteIfExists(file);
+        }
+        out = new FileOutputStream(file.toFile());
+        size = 0;
+    }
+
+    private Path rotatedFile(int index) {
+        return Paths.get(file.toString() + "." + index);
+    }
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Finds the highest rate at which the Minion can ingest a given type of traffic,
+ * while keeping the loss and the 99th percentile latency below some thresholds.
+ *
+ * In {@link Mode#STEPPED} mode, the rate is multiplied by the step factor until a
+ * step fails. In {@link Mode#BINARY} mode, the same steps are used to bracket
+ * the saturation point, which is then narrowed down with a binary search until
+ * the bounds are within the resolution of each other.
+ *
+ * A step also fails when the generator can't keep up with the target rate,
+ * since the Minion was not actually tested at that rate. The search stops
+ * there, and the result is marked as bound by the generator, since the
+ * saturation point of the Minion lies somewhere above the best rate. When
+ * this happens while narrowing down, the Minion already failed at a higher
+ * rate, so the search stops with the saturation point somewhere between
+ * the best rate and that of the Minion's last failure.
+ *
+ * @author jwhite
+ */
+public class SaturationFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SaturationFinder.class);
+
+    public static enum Mode {
+        STEPPED,
+        BINARY
+    }
+
+    /**
+     * What ended the search
+     */
+    public static enum Bound {
+        /**
+         * A step failed on loss or latency, the saturation point lies between the best
+         * rate and the lowest failing rate
+         */
+        MINION,
+        /**
+         * The generator could not drive a step, the saturation point is above the best rate
+         */
+        GENERATOR,
+        /**
+         * The max rate was sustained
+         */
+        MAX_RATE
+    }
+
+    /**
+     * Measures a single step, at the given rate.
+     */
+    public static interface Probe {
+        LoadStep.Result measure(double rate) throws Exception;
+    }
+
+    private Mode mode = Mode.BINARY;
+    private double startRate = 1000;
+    private double maxRate = 1000000;
+    private double stepFactor = 2;
+    private double resolution = 0.05;
+    private double maxLossRatio = 0.001;
+    private double maxP99Ms = 5000;
+    private double minAchievedRatio = 0.95;
+
+    private final List<LoadStep.Result> steps = Lists.newArrayList();
+    private Bound bound;
+    private String boundReason;
+
+    public SaturationFinder withMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * @param startRate the rate of the first step, in messages per second
+     * @param maxRate the highest rate that is measured
+     */
+    public SaturationFinder withRates(double startRate, double maxRate) {
+        if (startRate <= 0 || maxRate < startRate) {
+            throw new IllegalArgumentException("The start rate must be positive and no greater than the max rate.");
+        }
+        this.startRate = startRate;
+        this.maxRate = maxRate;
+        return this;
+    }
+
+    public SaturationFinder withStepFactor(double stepFactor) {
+        if (stepFactor <= 1) {
+            throw new IllegalArgumentException("The step factor must be greater than 1.");
+        }
+        this.stepFactor = stepFactor;
+        return this;
+    }
+
+    /**
+     * The binary search stops once the highest passing and lowest failing
+     * rates are within this fraction of each other.
+     */
+    public SaturationFinder withResolution(double resolution) {
+        this.resolution = resolution;
+        return this;
+    }
+
+    public SaturationFinder withMaxLossRatio(double maxLossRatio) {
+        this.maxLossRatio = maxLossRatio;
+        return this;
+    }
+
+    public SaturationFinder withMaxP99Ms(double maxP99Ms) {
+        this.maxP99Ms = maxP99Ms;
+        return this;
+    }
+
+    /**
+     * Steps where the generator achieved less than this fraction of the target rate fail.
+     */
+    public SaturationFinder withMinAchievedRatio(double minAchievedRatio) {
+        this.minAchievedRatio = minAchievedRatio;
+        return this;
+    }
+
+    /**
+     * Runs the steps, and returns the one with the highest passing rate,
+     * or null if none of them passed.
+     */
+    public LoadStep.Result find(Probe probe) throws Exception {
+        steps.clear();
+        bound = Bound.MAX_RATE;
+        boundReason = null;
+        LoadStep.Result best = null;
+        double failedRate = Double.NaN;
+
+        // Increase the rate until a step fails, or the max rate is reached
+        double rate = startRate;
+        while (true) {
+            final LoadStep.Result result = measure(probe, rate);
+            if (!passes(result)) {
+                failedRate = rate;
+                break;
+            }
+            best = result;
+            if (rate >= maxRate) {
+                break;
+            }
+            rate = Math.min(rate * stepFactor, maxRate);
+        }
+
+        // Narrow down the saturation point between the last pass and the first failure,
+        // unless the failure was the generator's, in which case the Minion was never saturated
+        if (mode == Mode.BINARY && best != null && bound == Bound.MINION) {
+            double low = best.getTargetRate();
+            double high = failedRate;
+            String highReason = boundReason;
+            while ((high - low) / low > resolution) {
+                final double mid = (low + high) / 2;
+                final LoadStep.Result result = measure(probe, mid);
+                if (passes(result)) {
+                    best = result;
+                    low = mid;
+                } else if (isGeneratorBound(result)) {
+                    // The Minion already failed at the high end, so it still bounds the search,
+                    // the generator only keeps us from narrowing it down any further
+                    LOG.warn("The generator could not drive {}/s, the saturation point lies between {}/s and {}/s.",
+                            String.format("%.0f", mid), String.format("%.0f", low), String.format("%.0f", high));
+                    bound = Bound.MINION;
+                    boundReason = String.format("%s at %.0f/s, not narrowed down since the %s at %.0f/s",
+                            highReason, high, getFailureReason(result), mid);
+                    break;
+                } else {
+                    high = mid;
+                    highReason = boundReason;
+                }
+            }
+        }
+
+        LOG.info("************************************************************");
+        if (best != null) {
+            LOG.info("Max sustainable rate: {}/s, delivered at {}/s with p99 {} ms, after {} steps.",
+                    String.format("%.0f", best.getTargetRate()), String.format("%.2f", best.getDeliveredRate()),
+                    String.format("%.1f", best.getP99Ms()), steps.size());
+        } else {
+            LOG.info("Even the start rate of {}/s could not be sustained.", startRate);
+        }
+        if (bound == Bound.GENERATOR) {
+            LOG.warn("The search was stopped by the generator ({}), the Minion can sustain a higher rate.", boundReason);
+        }
+        LOG.info("************************************************************");
+        return best;
+    }
+
+    /**
+     * All the steps that were measured by the last search, in order.
+     */
+    public List<LoadStep.Result> getSteps() {
+        return ImmutableList.copyOf(steps);
+    }
+
+    /**
+     * What ended the last search.
+     */
+    public Bound getBound() {
+        return bound;
+    }
+
+    /**
+     * Why the step that ended the last search failed, or null if the max rate was sustained.
+     */
+    public String getBoundReason() {
+        return boundReason;
+    }
+
+    /**
+     * Returns true if the step failed because the generator couldn't achieve its target rate.
+     */
+    public boolean isGeneratorBound(LoadStep.Result result) {
+        return result.getLoad().getAchievedRate() < result.getTargetRate() * minAchievedRatio;
+    }
+
+    public boolean passes(LoadStep.Result result) {
+        return getFailureReason(result) == null;
+    }
+
+    /**
+     * Returns why the step failed, or null if it passed.
+     */
+    public String getFailureReason(LoadStep.Result result) {
+        if (isGeneratorBound(result)) {
+            return String.format("generator only achieved %.2f/s", result.getLoad().getAchievedRate());
+        } else if (result.getDelivery().getLossRatio() > maxLossRatio) {
+            return String.format("loss ratio %.4f > %.4f", result.getDelivery().getLossRatio(), maxLossRatio);
+        } else if (result.getP99Ms() > maxP99Ms) {
+            return String.format("p99 %.1f ms > %.1f ms", result.getP99Ms(), maxP99Ms);
+        }
+        return null;
+    }
+
+    private LoadStep.Result measure(Probe probe, double rate) throws Exception {
+        final LoadStep.Result result = probe.measure(rate);
+        steps.add(result);
+        final String reason = getFailureReason(result);
+        LOG.info("Step {} at {}/s {}.", steps.size(), String.format("%.0f", rate),
+                reason == null ? "passed" : "failed: " + reason);
+        if (reason != null) {
+            bound = isGeneratorBound(result) ? Bound.GENERATOR : Bound.MINION;
+            boundReason = reason;
+        }
+        return result;
+    }
+}
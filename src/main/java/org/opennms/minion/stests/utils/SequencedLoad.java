@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequence numbers and send timestamps carried by the generated load,
+ * which allow the resulting events to be matched back to what was sent.
+ *
+ * Both are written as fixed-width decimal digits, so that they can be
+ * patched into pre-encoded messages without changing their length.
+ *
+ * @author jwhite
+ */
+public class SequencedLoad {
+
+    /**
+     * Generated by the Stests.syslog.xml match that is part of the
+     * OpenNMS image, when receiving a {@link #syslogMessage(String)}
+     */
+    public static final String SYSLOG_UEI = "uei.opennms.org/stests/syslog/load";
+
+    public static final int SEQUENCE_DIGITS = 19;
+
+    public static final int TIMESTAMP_DIGITS = 16;
+
+    private static final String SEQUENCE_FIELD = " seq ";
+
+    private static final String TIMESTAMP_FIELD = " sent ";
+
+    // Anchors the wall clock once, so that timestamps are monotonic and cheap to take
+    private static final long START_EPOCH_MICROS = System.currentTimeMillis() * 1000L;
+    private static final long START_NANOS = System.nanoTime();
+
+    /**
+     * Returns the current time, in microseconds since the epoch.
+     *
+     * Taken from the monotonic clock, so that it does not jump during a
+     * run, and offset to the wall clock when this class was loaded.
+     */
+    public static long currentTimeMicros() {
+        return START_EPOCH_MICROS + (System.nanoTime() - START_NANOS) / 1000L;
+    }
+
+    /**
+     * Returns a syslog message template for the given stream, in which the sequence number
+     * and timestamp are zeroed. Their offsets are given by {@link #getSequenceOffset(byte[])}
+     * and {@link #getTimestampOffset(byte[])}.
+     *
+     * @param stream identifies the messages sent by a single generator, may not contain whitespace
+     */
+    public static String syslogMessage(String stream) {
+        if (stream.isEmpty() || stream.matches(".*\\s.*")) {
+            throw new IllegalArgumentException("Invalid stream name: '" + stream + "'");
+        }
+        return String.format("<190>Mar 11 08:35:17 stests_host 1: %%STESTS-6-LOAD: stream %s%s%s%s%s\n",
+                stream, SEQUENCE_FIELD, zeros(SEQUENCE_DIGITS), TIMESTAMP_FIELD, zeros(TIMESTAMP_DIGITS));
+    }
+
+    public static int getSequenceOffset(byte[] message) {
+        return indexOf(message, SEQUENCE_FIELD);
+    }
+
+    public static int getTimestampOffset(byte[] message) {
+        return indexOf(message, TIMESTAMP_FIELD);
+    }
+
+    /**
+     * Writes the value as zero-padded decimal digits, without allocating.
+     */
+    public static void putDigits(ByteBuffer buffer, int offset, int width, long value) {
+        long remaining = Math.abs(value);
+        for (int i = width - 1; i >= 0; i--) {
+            buffer.put(offset + i, (byte)('0' + remaining % 10));
+            remaining /= 10;
+        }
+    }
+
+    private static String zeros(int width) {
+        return new String(new char[width]).replace('\0', '0');
+    }
+
+    /**
+     * Returns the offset of the digits that follow the last occurrence of the field.
+     */
+    private static int indexOf(byte[] message, String field) {
+        final String str = new String(message, StandardCharsets.US_ASCII);
+        final int index = str.lastIndexOf(field);
+        if (index < 0) {
+            throw new IllegalArgumentException("Field '" + field.trim() + "' not found in the message.");
+        }
+        return index + field.length();
+    }
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Generates syslog load over UDP by sending a fixed set of messages,
+ * in a round-robin fashion.
+ *
+ * The messages are encoded once per thread into direct buffers,
+ * which are rewound and resent. Sequenced generators, created with
+ * {@link #sequenced(InetSocketAddress, int, double, String)}, patch the
+ * sequence number and send timestamp into the buffer before every send.
+ *
+ * @author jwhite
+ */
+public class SyslogGenerator extends UdpLoadGenerator {
+
+    /**
+     * Parsed by the customized syslogd-configuration.xml that is part of the OpenNMS image,
+     * generating an event with {@link #DEFAULT_MESSAGE_UEI}
+     */
+    public static final String DEFAULT_MESSAGE = "<190>Mar 11 08:35:17 aaa_host 30128311: Mar 11 08:35:16.844 CST: %SEC-6-IPACCESSLOGP: list in110 denied tcp 192.168.10.100(63923) -> 192.168.11.128(1521), 1 packet\n";
+
+    public static final String DEFAULT_MESSAGE_UEI = "uei.opennms.org/vendor/cisco/syslog/SEC-6-IPACCESSLOGP/aclDeniedIPTraffic";
+
+    private final List<byte[]> messages;
+    private final int sequenceOffset;
+    private final int timestampOffset;
+
+    public SyslogGenerator(InetSocketAddress target, int threads, double rate) {
+        this(target, threads, threads, rate, ImmutableList.of(DEFAULT_MESSAGE));
+    }
+
+    public SyslogGenerator(InetSocketAddress target, int threads, int channels, double rate, List<String> messages) {
+        super(target, threads, channels, rate);
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("At least one message is required.");
+        }
+        final ImmutableList.Builder<byte[]> encoded = ImmutableList.builder();
+        for (String message : messages) {
+            encoded.add(message.getBytes(StandardCharsets.US_ASCII));
+        }
+        this.messages = encoded.build();
+        sequenceOffset = -1;
+        timestampOffset = -1;
+    }
+
+    private SyslogGenerator(InetSocketAddress target, int threads, double rate, String stream) {
+        super(target, threads, threads, rate);
+        final byte[] message = SequencedLoad.syslogMessage(stream).getBytes(StandardCharsets.US_ASCII);
+        messages = ImmutableList.of(message);
+        sequenceOffset = SequencedLoad.getSequenceOffset(message);
+        timestampOffset = SequencedLoad.getTimestampOffset(message);
+    }
+
+    /**
+     * Creates a generator whose messages carry their sequence number and send time,
+     * generating events with {@link SequencedLoad#SYSLOG_UEI}.
+     *
+     * @param stream identifies the messages sent by this generator in the resulting events
+     */
+    public static SyslogGenerator sequenced(InetSocketAddress target, int threads, double rate, String stream) {
+        return new SyslogGenerator(target, threads, rate, stream);
+    }
+
+    @Override
+    protected PacketSource newPacketSource(int thread) {
+        final ByteBuffer[] buffers = new ByteBuffer[messages.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            final byte[] message = messages.get(i);
+            buffers[i] = ByteBuffer.allocateDirect(message.length);
+            buffers[i].put(message);
+        }
+        return new PacketSource() {
+            private int next = 0;
+
+            @Override
+            public ByteBuffer next(long sequence) {
+                final ByteBuffer buffer = buffers[next];
+                next = (next + 1) % buffers.length;
+                if (sequenceOffset >= 0) {
+                    SequencedLoad.putDigits(buffer, sequenceOffset, SequencedLoad.SEQUENCE_DIGITS, sequence);
+                    SequencedLoad.putDigits(buffer, timestampOffset, SequencedLoad.TIMESTAMP_DIGITS, SequencedLoad.currentTimeMicros());
+                }
+                buffer.clear();
+                return buffer;
+            }
+        };
+    }
+}
@@ -0,0 +1,347 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Generates syslog load over TCP, with the messages framed as per RFC 6587.
+ *
+ * The messages are pipelined: every connection has a batch of framed
+ * messages encoded once into a direct buffer, which is written in full
+ * without waiting for anything from the receiver. The connections are
+ * spread across the sending threads, which write the batches round-robin.
+ *
+ * The time spent in writes is measured. Writes only block once the socket's
+ * send buffer is full, so this shows how much the receiver pushes back on
+ * the senders through TCP flow control. When sending to the Minion, the
+ * receiver is the relay in front of its UDP listener, and not the Minion.
+ *
+ * Sequenced generators, created with {@link #sequenced(InetSocketAddress, int, int, double, String)},
+ * patch the sequence number and send timestamp of every frame in a batch
+ * right before it is written.
+ *
+ * @author jwhite
+ */
+public class SyslogTcpGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogTcpGenerator.class);
+
+    public static enum Framing {
+        /**
+         * MSG-LEN SP SYSLOG-MSG
+         */
+        OCTET_COUNTING,
+        /**
+         * SYSLOG-MSG LF
+         */
+        NON_TRANSPARENT
+    }
+
+    /**
+     * Maximum size of the batch of messages written at once
+     */
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    private final InetSocketAddress target;
+    private final int connections;
+    private final int threads;
+    private final double rate;
+    private final Framing framing;
+    private final List<byte[]> frames;
+    private final int sequenceOffset;
+    private final int timestampOffset;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder blockedNanos = new LongAdder();
+    private volatile boolean stopped;
+
+    public SyslogTcpGenerator(InetSocketAddress target, int connections, int threads, double rate) {
+        this(target, connections, threads, rate, Framing.OCTET_COUNTING, ImmutableList.of(SyslogGenerator.DEFAULT_MESSAGE));
+    }
+
+    /**
+     * @param target where the messages are sent
+     * @param connections number of concurrent connections
+     * @param threads number of sending threads, amongst which the connections are spread
+     * @param rate total number of messages sent per second, or 0 to send as fast as possible
+     * @param framing how the messages are delimited in the stream
+     * @param messages the messages, which are sent round-robin
+     */
+    public SyslogTcpGenerator(InetSocketAddress target, int connections, int threads, double rate, Framing framing, List<String> messages) {
+        this(target, connections, threads, rate, framing, messages, false);
+    }
+
+    private SyslogTcpGenerator(InetSocketAddress target, int connections, int threads, double rate, Framing framing, List<String> messages, boolean sequenced) {
+        if (connections < 1 || threads < 1) {
+            throw new IllegalArgumentException("At least one connection and one thread are required.");
+        }
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("At least one message is required.");
+        }
+        this.target = target;
+        this.connections = connections;
+        this.threads = Math.min(threads, connections);
+        this.rate = Math.max(rate, 0);
+        this.framing = framing;
+
+        final ImmutableList.Builder<byte[]> encoded = ImmutableList.builder();
+        for (String message : messages) {
+            encoded.add(frame(message, framing));
+        }
+        this.frames = encoded.build();
+        sequenceOffset = sequenced ? SequencedLoad.getSequenceOffset(frames.get(0)) : -1;
+        timestampOffset = sequenced ? SequencedLoad.getTimestampOffset(frames.get(0)) : -1;
+    }
+
+    /**
+     * Creates a generator whose messages carry their sequence number and send time,
+     * generating events with {@link SequencedLoad#SYSLOG_UEI}.
+     *
+     * @param stream identifies the messages sent by this generator in the resulting events
+     */
+    public static SyslogTcpGenerator sequenced(InetSocketAddress target, int connections, int threads, double rate, String stream) {
+        return new SyslogTcpGenerator(target, connections, threads, rate, Framing.OCTET_COUNTING,
+                ImmutableList.of(SequencedLoad.syslogMessage(stream)), true);
+    }
+
+    /**
+     * Sends the given number of messages, blocking until they're all sent.
+     */
+    public LoadResult send(long count) throws IOException, InterruptedException {
+        return run(count, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sends messages for the given amount of time.
+     */
+    public LoadResult sendFor(long duration, TimeUnit unit) throws IOException, InterruptedException {
+        return run(Long.MAX_VALUE, unit.toNanos(duration));
+    }
+
+    /**
+     * Stops a run in progress, causing it to return early.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    private static byte[] frame(String message, Framing framing) {
+        // Strip any trailing newline, which would otherwise be part of the message
+        final String trimmed = message.endsWith("\n") ? message.substring(0, message.length() - 1) : message;
+        if (framing == Framing.NON_TRANSPARENT) {
+            return (trimmed + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+        return (trimmed.getBytes(StandardCharsets.US_ASCII).length + " " + trimmed).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private LoadResult run(long count, long durationNanos) throws IOException, InterruptedException {
+        stopped = false;
+        sent.reset();
+        errors.reset();
+        blockedNanos.reset();
+
+        final List<SocketChannel> channels = Lists.newArrayListWithCapacity(connections);
+        final List<Thread> senders = Lists.newArrayListWithCapacity(threads);
+        final long[] sequencesBySender = new long[threads];
+        try {
+            for (int i = 0; i < connections; i++) {
+                final SocketChannel channel = SocketChannel.open();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, 256 * 1024);
+                channel.connect(target);
+                channels.add(channel);
+            }
+            LOG.info("Opened {} connection(s) to {}.", connections, target);
+
+            final long start = System.nanoTime();
+            final long deadline = durationNanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + durationNanos;
+            for (int i = 0; i < threads; i++) {
+                final List<SocketChannel> threadChannels = Lists.newArrayList();
+                for (int k = i; k < connections; k += threads) {
+                    threadChannels.add(channels.get(k));
+                }
+                final long threadCount = count == Long.MAX_VALUE ? Long.MAX_VALUE
+                        : count / threads + (i < count % threads ? 1 : 0);
+                final Thread thread = new Thread(new Sender(i, threadCount, threadChannels, start, deadline, sequencesBySender),
+                        String.format("%s-%d", getClass().getSimpleName(), i));
+                thread.setDaemon(true);
+                senders.add(thread);
+            }
+            senders.forEach(Thread::start);
+            for (Thread thread : senders) {
+                thread.join();
+            }
+
+            final LoadResult result = new LoadResult(sent.sum(), errors.sum(), System.nanoTime() - start,
+                    blockedNanos.sum(), threads, rate, sequencesBySender);
+            LOG.info("Sent to {} over {} connection(s): {}", target, connections, result);
+            return result;
+        } finally {
+            stopped = true;
+            for (Thread thread : senders) {
+                thread.interrupt();
+            }
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    private class Sender implements Runnable {
+        private final int index;
+        private final long count;
+        private final List<SocketChannel> channels;
+        private final long start;
+        private final long deadline;
+        private final long[] sequencesBySender;
+
+        private Sender(int index, long count, List<SocketChannel> channels, long start, long deadline, long[] sequencesBySender) {
+            this.index = index;
+            this.count = count;
+            this.channels = channels;
+            this.start = start;
+            this.deadline = deadline;
+            this.sequencesBySender = sequencesBySender;
+        }
+
+        @Override
+        public void run() {
+            final double threadRate = rate / threads;
+            // Write about a millisecond's worth of messages at once when rate limited,
+            // to keep the pacing smooth, and as many as fit in a batch otherwise
+            final int maxFramesPerBatch = threadRate > 0 ? (int)Math.max(1, Math.min(threadRate / 1000, Integer.MAX_VALUE)) : Integer.MAX_VALUE;
+            final Batch fullBatch = new Batch(maxFramesPerBatch);
+            final double intervalNanos = threadRate > 0 ? 1e9 / threadRate : 0;
+
+            long sentByThread = 0;
+            int nextChannel = 0;
+            try {
+                while (sentByThread < count && !stopped) {
+                    final Batch batch = count - sentByThread >= fullBatch.frames ? fullBatch
+                            : new Batch((int)(count - sentByThread));
+                    final SocketChannel channel = channels.get(nextChannel);
+                    nextChannel = (nextChannel + 1) % channels.size();
+
+                    if (sequenceOffset >= 0) {
+                        batch.sequence(sentByThread * threads + index, threads);
+                    }
+                    batch.buffer.clear();
+                    final long beforeWrite = System.nanoTime();
+                    while (batch.buffer.hasRemaining()) {
+                        channel.write(batch.buffer);
+                    }
+                    final long afterWrite = System.nanoTime();
+                    blockedNanos.add(afterWrite - beforeWrite);
+                    sent.add(batch.frames);
+                    sentByThread += batch.frames;
+
+                    if (intervalNanos > 0) {
+                        final long due = start + (long)(sentByThread * intervalNanos);
+                        if (due > afterWrite) {
+                            LockSupport.parkNanos(due - afterWrite);
+                        }
+                    }
+                    if (System.nanoTime() >= deadline) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                if (!stopped) {
+                    LOG.error("Sender {} failed.", index, e);
+                    errors.add(count == Long.MAX_VALUE ? 1 : count - sentByThread);
+                }
+            } finally {
+                // Read once the thread is joined
+                sequencesBySender[index] = sentByThread;
+            }
+        }
+    }
+
+    /**
+     * A sequence of framed messages, encoded once.
+     */
+    private class Batch {
+        private final ByteBuffer buffer;
+        private final int frames;
+
+        private Batch(int maxFrames) {
+            int size = 0;
+            int numFrames = 0;
+            while (numFrames < maxFrames) {
+                final byte[] frame = SyslogTcpGenerator.this.frames.get(numFrames % SyslogTcpGenerator.this.frames.size());
+                if (numFrames > 0 && size + frame.length > MAX_BATCH_BYTES) {
+                    break;
+                }
+                size += frame.length;
+                numFrames++;
+            }
+            buffer = ByteBuffer.allocateDirect(size);
+            for (int i = 0; i < numFrames; i++) {
+                buffer.put(SyslogTcpGenerator.this.frames.get(i % SyslogTcpGenerator.this.frames.size()));
+            }
+            this.frames = numFrames;
+        }
+
+        /**
+         * Patches the sequence numbers and send timestamp of all the frames, which
+         * are all the same length when sequenced.
+         *
+         * @param first sequence number of the first frame
+         * @param step difference between the sequence numbers of consecutive frames
+         */
+        private void sequence(long first, int step) {
+            final int frameLength = buffer.capacity() / frames;
+            final long now = SequencedLoad.currentTimeMicros();
+            for (int i = 0; i < frames; i++) {
+                SequencedLoad.putDigits(buffer, i * frameLength + sequenceOffset, SequencedLoad.SEQUENCE_DIGITS, first + (long)i * step);
+                SequencedLoad.putDigits(buffer, i * frameLength + timestampOffset, SequencedLoad.TIMESTAMP_DIGITS, now);
+            }
+        }
+    }
+}
@@ -0,0 +1,527 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Replays captured syslog and trap traffic to the Minion.
+ *
+ * Two formats are supported, and detected from the start of the file:
+ * <ul>
+ * <li>pcap captures (not pcapng), from which the payloads of the UDP datagrams sent to the
+ * syslog and trap ports are extracted. Ethernet (with VLAN tags), Linux cooked (v1 and v2),
+ * raw IP and loopback link types are supported, with IPv4 or IPv6. Fragmented datagrams
+ * and those truncated by the capture's snap length are skipped.</li>
+ * <li>Line files, in which every line is sent as a syslog message.</li>
+ * </ul>
+ *
+ * The file is never loaded as a whole: it is memory-mapped a window at a time,
+ * and the datagrams are written to the channels straight from the mapped
+ * buffers, so captures of several gigabytes can be replayed.
+ *
+ * The packets of a pcap capture are sent with their original timing, divided by the
+ * speedup, or as fast as possible when the speedup is 0. Lines are sent at a fixed rate.
+ *
+ * @author jwhite
+ */
+public class TrafficReplayer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrafficReplayer.class);
+
+    public static enum Format {
+        PCAP,
+        LINES
+    }
+
+    private static final long DEFAULT_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    /**
+     * Maximum payload of a UDP datagram over IPv4
+     */
+    private static final int MAX_PAYLOAD = 65507;
+
+    private static final int PCAP_MAGIC_MICROS = 0xa1b2c3d4;
+    private static final int PCAP_MAGIC_NANOS = 0xa1b23c4d;
+    private static final int PCAPNG_MAGIC = 0x0a0d0d0a;
+    private static final int PCAP_HEADER_LENGTH = 24;
+    private static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    // Link types
+    private static final int LINKTYPE_NULL = 0;
+    private static final int LINKTYPE_ETHERNET = 1;
+    private static final int LINKTYPE_RAW_BSD = 12;
+    private static final int LINKTYPE_RAW = 101;
+    private static final int LINKTYPE_LOOP = 108;
+    private static final int LINKTYPE_LINUX_SLL = 113;
+    private static final int LINKTYPE_IPV4 = 228;
+    private static final int LINKTYPE_IPV6 = 229;
+    private static final int LINKTYPE_LINUX_SLL2 = 276;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_IPV6 = 0x86dd;
+    private static final Set<Integer> ETHERTYPE_VLAN = ImmutableSet.of(0x8100, 0x88a8, 0x9100);
+    private static final int IPPROTO_UDP = 17;
+
+    private final InetSocketAddress syslogTarget;
+    private final InetSocketAddress trapTarget;
+    private Set<Integer> syslogPorts = ImmutableSet.of(514);
+    private Set<Integer> trapPorts = ImmutableSet.of(162);
+    private double speedup = 1;
+    private double lineRate = 0;
+    private long windowSize = DEFAULT_WINDOW_SIZE;
+
+    private long sent;
+    private long errors;
+    private long skipped;
+    private long ignored;
+    private volatile boolean stopped;
+
+    /**
+     * @param syslogTarget where the syslog messages are sent, or null to ignore them
+     * @param trapTarget where the traps are sent, or null to ignore them
+     */
+    public TrafficReplayer(InetSocketAddress syslogTarget, InetSocketAddress trapTarget) {
+        this.syslogTarget = syslogTarget;
+        this.trapTarget = trapTarget;
+    }
+
+    /**
+     * The UDP destination ports of the syslog messages in pcap captures, 514 by default.
+     */
+    public TrafficReplayer withSyslogPorts(Integer... ports) {
+        syslogPorts = ImmutableSet.copyOf(ports);
+        return this;
+    }
+
+    /**
+     * The UDP destination ports of the traps in pcap captures, 162 by default.
+     */
+    public TrafficReplayer withTrapPorts(Integer... ports) {
+        trapPorts = ImmutableSet.copyOf(ports);
+        return this;
+    }
+
+    /**
+     * @param speedup factor by which the original timing of pcap captures is compressed,
+     *        1 to keep it, 0 to send the packets as fast as possible
+     */
+    public TrafficReplayer withSpeedup(double speedup) {
+        this.speedup = Math.max(speedup, 0);
+        return this;
+    }
+
+    /**
+     * @param lineRate number of lines sent per second when replaying line files, 0 for unlimited
+     */
+    public TrafficReplayer withLineRate(double lineRate) {
+        this.lineRate = Math.max(lineRate, 0);
+        return this;
+    }
+
+    /**
+     * Size of the regions of the file that are mapped at once.
+     */
+    public TrafficReplayer withWindowSize(long windowSize) {
+        if (windowSize < MAX_PAYLOAD + PCAP_RECORD_HEADER_LENGTH || windowSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    /**
+     * Stops a replay in progress, causing it to return early.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Number of packets or lines skipped by the last replay, because they could not be decoded
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Number of packets ignored by the last replay, because they were not sent to a syslog or trap port
+     */
+    public long getIgnored() {
+        return ignored;
+    }
+
+    public static Format detectFormat(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return detectFormat(channel);
+        }
+    }
+
+    private static Format detectFormat(FileChannel channel) throws IOException {
+        final ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+            // Keep reading
+        }
+        if (magic.hasRemaining()) {
+            return Format.LINES;
+        }
+        final int value = magic.getInt(0);
+        if (value == PCAPNG_MAGIC) {
+            throw new IOException("pcapng captures are not supported, convert them with: editcap -F pcap");
+        }
+        return isPcapMagic(value) || isPcapMagic(Integer.reverseBytes(value)) ? Format.PCAP : Format.LINES;
+    }
+
+    private static boolean isPcapMagic(int value) {
+        return value == PCAP_MAGIC_MICROS || value == PCAP_MAGIC_NANOS;
+    }
+
+    /**
+     * Replays the file, blocking until all of it was sent.
+     */
+    public LoadResult replay(Path file) throws IOException, InterruptedException {
+        stopped = false;
+        sent = errors = skipped = ignored = 0;
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+             DatagramChannel syslogChannel = open(syslogTarget);
+             DatagramChannel trapChannel = open(trapTarget)) {
+            final Format format = detectFormat(fileChannel);
+            LOG.info("Replaying {} ({}, {} bytes).", file, format, fileChannel.size());
+            final MappedWindow window = new MappedWindow(fileChannel, windowSize);
+            final long start = System.nanoTime();
+            if (format == Format.PCAP) {
+                replayPcap(window, syslogChannel, trapChannel, start);
+            } else {
+                replayLines(window, syslogChannel, start);
+            }
+            final LoadResult result = new LoadResult(sent, errors, System.nanoTime() - start, 0, 1,
+                    format == Format.LINES ? lineRate : 0);
+            LOG.info("Replayed {}: {}, skipped {}, ignored {}.", file, result, skipped, ignored);
+            return result;
+        }
+    }
+
+    private static DatagramChannel open(InetSocketAddress target) throws IOException {
+        if (target == null) {
+            return null;
+        }
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.connect(target);
+        return channel;
+    }
+
+    private void replayLines(MappedWindow window, DatagramChannel channel, long start) throws IOException, InterruptedException {
+        if (channel == null) {
+            throw new IllegalStateException("A syslog target is required to replay line files.");
+        }
+        final double intervalNanos = lineRate > 0 ? 1e9 / lineRate : 0;
+        long lineStart = 0;
+        long lines = 0;
+        while (lineStart < window.size() && !stopped) {
+            // Find the end of the line, keeping all of it in the window if it's short enough to be sent
+            long end = lineStart;
+            boolean tooLong = false;
+            while (end < window.size()) {
+                if (!tooLong && end - lineStart < MAX_PAYLOAD) {
+                    window.map(lineStart, (int)(end - lineStart + 1));
+                } else {
+                    tooLong = true;
+                    window.map(end, 1);
+                }
+                if (window.get(end) == '\n') {
+                    break;
+                }
+                end++;
+            }
+
+            long lineEnd = end;
+            if (!tooLong && lineEnd > lineStart && window.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (tooLong) {
+                skipped++;
+            } else if (lineEnd > lineStart) {
+                if (intervalNanos > 0) {
+                    pace(start + (long)(lines * intervalNanos));
+                }
+                send(channel, window.slice(lineStart, (int)(lineEnd - lineStart)));
+                lines++;
+            }
+            lineStart = end + 1;
+        }
+    }
+
+    private void replayPcap(MappedWindow window, DatagramChannel syslogChannel, DatagramChannel trapChannel, long start)
+            throws IOException, InterruptedException {
+        window.map(0, PCAP_HEADER_LENGTH);
+        final int magic = window.getInt(0);
+        final boolean swapped = !isPcapMagic(magic);
+        final boolean nanos = (swapped ? Integer.reverseBytes(magic) : magic) == PCAP_MAGIC_NANOS;
+        final int linkType = readInt(window, 20, swapped);
+        LOG.info("pcap capture with link type {} and {} timestamps.", linkType, nanos ? "nanosecond" : "microsecond");
+
+        long firstTimestampNanos = -1;
+        long position = PCAP_HEADER_LENGTH;
+        while (position + PCAP_RECORD_HEADER_LENGTH <= window.size() && !stopped) {
+            window.map(position, PCAP_RECORD_HEADER_LENGTH);
+            final long seconds = readInt(window, position, swapped) & 0xffffffffL;
+            final long fraction = readInt(window, position + 4, swapped) & 0xffffffffL;
+            final long capturedLength = readInt(window, position + 8, swapped) & 0xffffffffL;
+            final long dataPosition = position + PCAP_RECORD_HEADER_LENGTH;
+            if (dataPosition + capturedLength > window.size()) {
+                LOG.warn("The capture is truncated at offset {}.", position);
+                break;
+            }
+            position = dataPosition + capturedLength;
+            if (capturedLength > windowSize - PCAP_RECORD_HEADER_LENGTH) {
+                skipped++;
+                continue;
+            }
+            window.map(dataPosition, (int)capturedLength);
+
+            final long timestampNanos = seconds * 1000000000L + (nanos ? fraction : fraction * 1000L);
+            if (firstTimestampNanos < 0) {
+                firstTimestampNanos = timestampNanos;
+            }
+            if (speedup > 0) {
+                pace(start + (long)((timestampNanos - firstTimestampNanos) / speedup));
+            }
+            sendPacket(window, dataPosition, (int)capturedLength, linkType, syslogChannel, trapChannel);
+        }
+    }
+
+    /**
+     * Decodes the link, network and transport layers of a captured packet,
+     * and sends the UDP payload to the matching target.
+     */
+    private void sendPacket(MappedWindow window, long packet, int length, int linkType,
+            DatagramChannel syslogChannel, DatagramChannel trapChannel) throws IOException {
+        final long end = packet + length;
+        long ip;
+        switch (linkType) {
+        case LINKTYPE_ETHERNET: {
+            if (length < 14) {
+                skipped++;
+                return;
+            }
+            int etherType = window.getUnsignedShort(packet + 12);
+            ip = packet + 14;
+            while (ETHERTYPE_VLAN.contains(etherType) && ip + 4 <= end) {
+                etherType = window.getUnsignedShort(ip + 2);
+                ip += 4;
+            }
+            if (etherType != ETHERTYPE_IPV4 && etherType != ETHERTYPE_IPV6) {
+                ignored++;
+                return;
+            }
+            break;
+        }
+        case LINKTYPE_LINUX_SLL:
+            ip = packet + 16;
+            break;
+        case LINKTYPE_LINUX_SLL2:
+            ip = packet + 20;
+            break;
+        case LINKTYPE_NULL:
+        case LINKTYPE_LOOP:
+            ip = packet + 4;
+            break;
+        case LINKTYPE_RAW:
+        case LINKTYPE_RAW_BSD:
+        case LINKTYPE_IPV4:
+        case LINKTYPE_IPV6:
+            ip = packet;
+            break;
+        default:
+            throw new IOException("Unsupported link type: " + linkType);
+        }
+        if (ip >= end) {
+            skipped++;
+            return;
+        }
+
+        // The IP version is used rather than the link layer's protocol field, which is in a different place for each
+        final long udp;
+        final int version = (window.get(ip) & 0xff) >> 4;
+        if (version == 4) {
+            if (ip + 20 > end) {
+                skipped++;
+                return;
+            }
+            if (window.get(ip + 9) != IPPROTO_UDP) {
+                ignored++;
+                return;
+            }
+            // More fragments flag, or a fragment offset
+            if ((window.getUnsignedShort(ip + 6) & 0x3fff) != 0) {
+                skipped++;
+                return;
+            }
+            udp = ip + (window.get(ip) & 0x0f) * 4;
+        } else if (version == 6) {
+            if (ip + 40 > end) {
+                skipped++;
+                return;
+            }
+            // Extension headers are not followed
+            if (window.get(ip + 6) != IPPROTO_UDP) {
+                ignored++;
+                return;
+            }
+            udp = ip + 40;
+        } else {
+            ignored++;
+            return;
+        }
+        if (udp + 8 > end) {
+            skipped++;
+            return;
+        }
+
+        final int destinationPort = window.getUnsignedShort(udp + 2);
+        final DatagramChannel channel;
+        if (syslogPorts.contains(destinationPort)) {
+            channel = syslogChannel;
+        } else if (trapPorts.contains(destinationPort)) {
+            channel = trapChannel;
+        } else {
+            channel = null;
+        }
+        if (channel == null) {
+            ignored++;
+            return;
+        }
+        final int payloadLength = window.getUnsignedShort(udp + 4) - 8;
+        if (payloadLength < 0 || udp + 8 + payloadLength > end) {
+            // Truncated by the snap length
+            skipped++;
+            return;
+        }
+        send(channel, window.slice(udp + 8, payloadLength));
+    }
+
+    private void send(DatagramChannel channel, ByteBuffer payload) throws IOException {
+        try {
+            channel.write(payload);
+            sent++;
+        } catch (PortUnreachableException e) {
+            // Nothing is listening (yet), keep going
+            errors++;
+        }
+    }
+
+    private static void pace(long dueNanos) throws InterruptedException {
+        final long delay = dueNanos - System.nanoTime();
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static int readInt(MappedWindow window, long position, boolean swapped) {
+        final int value = window.getInt(position);
+        return swapped ? Integer.reverseBytes(value) : value;
+    }
+
+    /**
+     * A region of a file that is memory-mapped, and moved along the
+     * file as it's read. Positions are relative to the start of the file.
+     */
+    private static class MappedWindow {
+        private final FileChannel channel;
+        private final long size;
+        private final long windowSize;
+        private MappedByteBuffer buffer;
+        private long base;
+
+        private MappedWindow(FileChannel channel, long windowSize) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.windowSize = windowSize;
+        }
+
+        private long size() {
+            return size;
+        }
+
+        /**
+         * Ensures that the given range is mapped, moving the window to start at
+         * the given position if it isn't.
+         */
+        private void map(long position, int length) throws IOException {
+            if (buffer != null && position >= base && position + length <= base + buffer.limit()) {
+                return;
+            }
+            if (position + length > size || length > windowSize) {
+                throw new IOException(String.format("Cannot map %d bytes at offset %d of a %d byte file.", length, position, size));
+            }
+            base = position;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(windowSize, size - base));
+        }
+
+        private byte get(long position) {
+            return buffer.get((int)(position - base));
+        }
+
+        private int getInt(long position) {
+            return buffer.getInt((int)(position - base));
+        }
+
+        private int getUnsignedShort(long position) {
+            return buffer.getShort((int)(position - base)) & 0xffff;
+        }
+
+        /**
+         * Returns a buffer over the given range, which must be mapped,
+         * that remains valid after the window is moved.
+         */
+        private ByteBuffer slice(long position, int length) {
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position((int)(position - base));
+            slice.limit((int)(position - base) + length);
+            return slice;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.minion.stests.MinionSystem;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+
+/**
+ * The types of sequenced load that can be sent to the Minion, along
+ * with the UEI of the events they generate.
+ *
+ * @author jwhite
+ */
+public enum TrafficType {
+    SYSLOG_UDP("syslog-udp", SequencedLoad.SYSLOG_UEI),
+    /**
+     * Syslog over TCP, through the relay in the Minion container, which
+     * forwards the messages to the UDP listener
+     */
+    SYSLOG_TCP_RELAY("syslog-tcp-relay", SequencedLoad.SYSLOG_UEI),
+    TRAP("trap", TrapGenerator.WARM_START_UEI);
+
+    private final String name;
+    private final String uei;
+
+    private TrafficType(String name, String uei) {
+        this.name = name;
+        this.uei = uei;
+    }
+
+    public static TrafficType getByName(String name) {
+        for (TrafficType type : values()) {
+            if (type.name.equalsIgnoreCase(name) || type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported traffic type: " + name);
+    }
+
+    /**
+     * Returns the type with the given name, as long as the fleet can send it.
+     *
+     * @throws IllegalArgumentException if the type doesn't exist, or can't be sent by the fleet
+     */
+    public static TrafficType getFleetTypeByName(String name) {
+        final TrafficType type = getByName(name);
+        if (!type.canSendFromFleet()) {
+            throw new IllegalArgumentException("The fleet cannot send " + type + " traffic.");
+        }
+        return type;
+    }
+
+    /**
+     * The fleet only sends datagrams, so the TCP based types aren't supported.
+     */
+    public boolean canSendFromFleet() {
+        return this != SYSLOG_TCP_RELAY;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The UEI of the events generated by this type of traffic
+     */
+    public String getUei() {
+        return uei;
+    }
+
+    /**
+     * Sends sequenced load of this type to the Minion for the given amount of time.
+     *
+     * @param threads number of sending threads
+     * @param connections number of TCP connections, ignored by the UDP based types
+     */
+    public LoadResult sendFor(MinionSystem minionSystem, double rate, String stream, int threads, int connections,
+            long duration, TimeUnit unit) throws IOException, InterruptedException {
+        switch (this) {
+        case SYSLOG_UDP:
+            return SyslogGenerator.sequenced(minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "udp"),
+                    threads, rate, stream).sendFor(duration, unit);
+        case SYSLOG_TCP_RELAY:
+            return SyslogTcpGenerator.sequenced(minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "tcp"),
+                    connections, threads, rate, stream).sendFor(duration, unit);
+        case TRAP:
+            return new TrapGenerator(minionSystem.getServiceAddress(ContainerAlias.MINION, 162, "udp"),
+                    threads, rate, TrapGenerator.Version.V2C, stream).sendFor(duration, unit);
+        default:
+            throw new IllegalStateException("Unhandled traffic type: " + this);
+        }
+    }
+
+    /**
+     * Sends sequenced load of this type from the first n devices of the fleet to the
+     * Minion's container, so that the source addresses are seen by the Minion as is.
+     *
+     * @throws IllegalArgumentException if the fleet can't send this type, see {@link #canSendFromFleet()}
+     */
+    public LoadResult sendFromFleet(MinionSystem minionSystem, FleetClient fleet, double rate, String stream, int devices,
+            int threads, long duration, TimeUnit unit) throws IOException {
+        final String minionAddr = minionSystem.getContainerIpAddress(ContainerAlias.MINION);
+        switch (this) {
+        case SYSLOG_UDP:
+            return fleet.sendFor(PacketTemplate.syslog(stream), new InetSocketAddress(minionAddr, 1514),
+                    rate, duration, unit, devices, threads);
+        case TRAP:
+            final InetSocketAddress trapAddr = new InetSocketAddress(minionAddr, 162);
+            return fleet.sendFor(new TrapGenerator(trapAddr, 1, rate, TrapGenerator.Version.V2C, stream).getPacketTemplate(),
+                    trapAddr, rate, duration, unit, devices, threads);
+        default:
+            throw new IllegalArgumentException("The fleet cannot send " + this + " traffic.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Generates SNMP trap load by sending warmStart traps, as either
+ * SNMPv1 or SNMPv2c PDUs.
+ *
+ * The PDU is BER encoded once as a template, with placeholders for the
+ * request ID, the timestamp, and the sequence number and send time varbinds. Every thread
+ * has its own copy of the template, in which only the placeholders are
+ * overwritten before sending, without re-encoding the PDU.
+ *
+ * In order for the patched values to have the same length as the placeholders,
+ * the request ID and timestamp are always encoded on 4 bytes (i.e. they are
+ * kept in [0x800000, 0x7fffffff]) and the sequence number and send time are
+ * encoded as fixed-width decimal strings, see {@link SequencedLoad}.
+ *
+ * @author jwhite
+ */
+public class TrapGenerator extends UdpLoadGenerator {
+
+    public static enum Version {
+        V1,
+        V2C
+    }
+
+    /**
+     * Both versions of the trap generate this event
+     */
+    public static final String WARM_START_UEI = "uei.opennms.org/generic/traps/SNMP_Warm_Start";
+
+    public static final String ENTERPRISE_OID = ".1.3.6.1.4.1.5813";
+
+    /**
+     * Carries the sequence number of the trap, amongst all the traps sent by the generator
+     */
+    public static final String SEQUENCE_OID = ".1.3.6.1.4.1.5813.20.1.1";
+
+    /**
+     * Carries the name of the stream, which identifies the traps sent by the generator
+     */
+    public static final String STREAM_OID = ".1.3.6.1.4.1.5813.20.1.2";
+
+    /**
+     * Carries the time at which the trap was sent, in microseconds since the epoch
+     */
+    public static final String SENT_TIME_OID = ".1.3.6.1.4.1.5813.20.1.3";
+
+    public static final String DEFAULT_STREAM = "traps";
+
+    private static final String SYS_UPTIME_OID = ".1.3.6.1.2.1.1.3.0";
+    private static final String SNMP_TRAP_OID = ".1.3.6.1.6.3.1.1.4.1.0";
+    private static final String SNMP_TRAP_ENTERPRISE_OID = ".1.3.6.1.6.3.1.1.4.3.0";
+    private static final String WARM_START_OID = ".1.3.6.1.6.3.1.1.5.2";
+
+    // BER tags
+    private static final int INTEGER = 0x02;
+    private static final int OCTET_STRING = 0x04;
+    private static final int OBJECT_IDENTIFIER = 0x06;
+    private static final int SEQUENCE = 0x30;
+    private static final int IP_ADDRESS = 0x40;
+    private static final int TIMETICKS = 0x43;
+    private static final int TRAP_V1_PDU = 0xa4;
+    private static final int TRAP_V2_PDU = 0xa7;
+
+    /**
+     * Range of the values patched into the 4-byte integer fields
+     */
+    private static final int MIN_4_BYTE_VALUE = 0x800000;
+    private static final int MAX_4_BYTE_VALUE = 0x7fffffff;
+
+    // Placeholders, which are located in the encoded template
+    private static final int REQUEST_ID_PLACEHOLDER = 0x7eadbeef;
+    private static final int TIMETICKS_PLACEHOLDER = 0x7ecafe01;
+    private static final byte[] SEQUENCE_PLACEHOLDER = "#SEQUENCE#PLACEHOLD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SENT_TIME_PLACEHOLDER = "#SENT#TIMESTAMP#".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] template;
+    private final int requestIdOffset;
+    private final int timeticksOffset;
+    private final int sequenceOffset;
+    private final int sentTimeOffset;
+    private final long startNanos = System.nanoTime();
+
+    public TrapGenerator(InetSocketAddress target, int threads, double rate, Version version) {
+        this(target, threads, threads, rate, version, "public", DEFAULT_STREAM);
+    }
+
+    /**
+     * @param stream identifies the traps sent by this generator in the resulting events
+     */
+    public TrapGenerator(InetSocketAddress target, int threads, double rate, Version version, String stream) {
+        this(target, threads, threads, rate, version, "public", stream);
+    }
+
+    public TrapGenerator(InetSocketAddress target, int threads, int channels, double rate, Version version, String community, String stream) {
+        super(target, threads, channels, rate);
+        template = version == Version.V1 ? encodeV1Trap(community, stream) : encodeV2Trap(community, stream);
+        requestIdOffset = version == Version.V1 ? -1 : indexOf(template, encodeInteger(INTEGER, REQUEST_ID_PLACEHOLDER), 2);
+        timeticksOffset = indexOf(template, encodeInteger(TIMETICKS, TIMETICKS_PLACEHOLDER), 2);
+        sequenceOffset = indexOf(template, tlv(OCTET_STRING, SEQUENCE_PLACEHOLDER), 2);
+        sentTimeOffset = indexOf(template, tlv(OCTET_STRING, SENT_TIME_PLACEHOLDER), 2);
+    }
+
+    @Override
+    protected PacketSource newPacketSource(int thread) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(template.length);
+        buffer.put(template);
+        return new PacketSource() {
+            @Override
+            public ByteBuffer next(long sequence) {
+                if (requestIdOffset >= 0) {
+                    buffer.putInt(requestIdOffset, to4ByteValue(sequence));
+                }
+                // sysUpTime, in hundredths of a second
+                buffer.putInt(timeticksOffset, to4ByteValue((System.nanoTime() - startNanos) / 10000000L));
+                SequencedLoad.putDigits(buffer, sequenceOffset, SequencedLoad.SEQUENCE_DIGITS, sequence);
+                SequencedLoad.putDigits(buffer, sentTimeOffset, SequencedLoad.TIMESTAMP_DIGITS, SequencedLoad.currentTimeMicros());
+                buffer.clear();
+                return buffer;
+            }
+        };
+    }
+
+    /**
+     * Returns the encoded trap, with the sequence number and send time zeroed, for
+     * use by senders that patch these themselves. The request ID and timestamp are
+     * left as is.
+     */
+    public PacketTemplate getPacketTemplate() {
+        final byte[] bytes = Arrays.copyOf(template, template.length);
+        Arrays.fill(bytes, sequenceOffset, sequenceOffset + SequencedLoad.SEQUENCE_DIGITS, (byte)'0');
+        Arrays.fill(bytes, sentTimeOffset, sentTimeOffset + SequencedLoad.TIMESTAMP_DIGITS, (byte)'0');
+        return new PacketTemplate(bytes, sequenceOffset, sentTimeOffset);
+    }
+
+    /**
+     * Returns the size of the encoded traps, in bytes.
+     */
+    public int getTrapSize() {
+        return template.length;
+    }
+
+    private static int to4ByteValue(long value) {
+        return (int)(MIN_4_BYTE_VALUE + Math.floorMod(value, (long)MAX_4_BYTE_VALUE - MIN_4_BYTE_VALUE + 1));
+    }
+
+    private static byte[] encodeV2Trap(String community, String stream) {
+        final byte[] varbinds = tlv(SEQUENCE,
+                varbind(SYS_UPTIME_OID, encodeInteger(TIMETICKS, TIMETICKS_PLACEHOLDER)),
+                varbind(SNMP_TRAP_OID, encodeOid(WARM_START_OID)),
+                varbind(SNMP_TRAP_ENTERPRISE_OID, encodeOid(ENTERPRISE_OID)),
+                varbind(SEQUENCE_OID, tlv(OCTET_STRING, SEQUENCE_PLACEHOLDER)),
+                varbind(STREAM_OID, tlv(OCTET_STRING, stream.getBytes(StandardCharsets.US_ASCII))),
+                varbind(SENT_TIME_OID, tlv(OCTET_STRING, SENT_TIME_PLACEHOLDER)));
+        final byte[] pdu = tlv(TRAP_V2_PDU,
+                encodeInteger(INTEGER, REQUEST_ID_PLACEHOLDER),
+                encodeInteger(INTEGER, 0), // error-status
+                encodeInteger(INTEGER, 0), // error-index
+                varbinds);
+        return tlv(SEQUENCE,
+                encodeInteger(INTEGER, 1), // v2c
+                tlv(OCTET_STRING, community.getBytes(StandardCharsets.US_ASCII)),
+                pdu);
+    }
+
+    private static byte[] encodeV1Trap(String community, String stream) {
+        final byte[] varbinds = tlv(SEQUENCE,
+                varbind(SEQUENCE_OID, tlv(OCTET_STRING, SEQUENCE_PLACEHOLDER)),
+                varbind(STREAM_OID, tlv(OCTET_STRING, stream.getBytes(StandardCharsets.US_ASCII))),
+                varbind(SENT_TIME_OID, tlv(OCTET_STRING, SENT_TIME_PLACEHOLDER)));
+        final byte[] pdu = tlv(TRAP_V1_PDU,
+                encodeOid(ENTERPRISE_OID),
+                tlv(IP_ADDRESS, new byte[] { 127, 0, 0, 1 }), // agent-addr
+                encodeInteger(INTEGER, 1), // generic-trap: warmStart
+                encodeInteger(INTEGER, 0), // specific-trap
+                encodeInteger(TIMETICKS, TIMETICKS_PLACEHOLDER),
+                varbinds);
+        return tlv(SEQUENCE,
+                encodeInteger(INTEGER, 0), // v1
+                tlv(OCTET_STRING, community.getBytes(StandardCharsets.US_ASCII)),
+                pdu);
+    }
+
+    private static byte[] varbind(String oid, byte[] value) {
+        return tlv(SEQUENCE, encodeOid(oid), value);
+    }
+
+    /**
+     * Encodes a tag-length-value triplet, using the definite length form.
+     */
+    private static byte[] tlv(int tag, byte[]... contents) {
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        for (byte[] content : contents) {
+            value.write(content, 0, content.length);
+        }
+        final int length = value.size();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else if (length <= 0xff) {
+            out.write(0x81);
+            out.write(length);
+        } else {
+            out.write(0x82);
+            out.write(length >> 8);
+            out.write(length);
+        }
+        out.write(value.toByteArray(), 0, length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes the value using the minimal number of bytes, as a two's complement integer.
+     */
+    private static byte[] encodeInteger(int tag, long value) {
+        int length = 1;
+        while (length < 8 && (value >> (length * 8 - 1)) != 0 && (value >> (length * 8 - 1)) != -1) {
+            length++;
+        }
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[length - 1 - i] = (byte)(value >> (i * 8));
+        }
+        return tlv(tag, content);
+    }
+
+    private static byte[] encodeOid(String oid) {
+        final long[] arcs = Arrays.stream(oid.replaceFirst("^\\.", "").split("\\."))
+                .mapToLong(Long::parseLong)
+                .toArray();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBase128(out, arcs[0] * 40 + arcs[1]);
+        for (int i = 2; i < arcs.length; i++) {
+            writeBase128(out, arcs[i]);
+        }
+        return tlv(OBJECT_IDENTIFIER, out.toByteArray());
+    }
+
+    private static void writeBase128(ByteArrayOutputStream out, long value) {
+        int groups = 1;
+        while ((value >> (7 * groups)) != 0) {
+            groups++;
+        }
+        for (int i = groups - 1; i >= 0; i--) {
+            final int group = (int)((value >> (7 * i)) & 0x7f);
+            out.write(i > 0 ? group | 0x80 : group);
+        }
+    }
+
+    /**
+     * Locates the single occurrence of the pattern in the template.
+     *
+     * @param skip number of leading bytes in the pattern (i.e. the tag and length) that are not part of the returned offset
+     */
+    private static int indexOf(byte[] template, byte[] pattern, int skip) {
+        int found = -1;
+        for (int i = 0; i <= template.length - pattern.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(template, i, i + pattern.length), pattern)) {
+                if (found >= 0) {
+                    throw new IllegalStateException("Placeholder found more than once in the template.");
+                }
+                found = i;
+            }
+        }
+        if (found < 0) {
+            throw new IllegalStateException("Placeholder not found in the template.");
+        }
+        return found + skip;
+    }
+}
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Sends pre-encoded UDP packets to a single target from multiple threads,
+ * at a given rate.
+ *
+ * Every thread draws packets from its own {@link PacketSource}, which
+ * hands out buffers that are encoded once and patched in place, so that
+ * nothing is allocated per packet. The packets are written to a pool of
+ * connected DatagramChannels shared by the threads.
+ *
+ * The rate is spread evenly across the threads, each of which paces itself
+ * against the time the next packet is due, rather than sleeping after every
+ * packet. If the threads fall behind, the packets are sent as fast as possible
+ * until they catch up, and the achieved rate is reported along with the target
+ * rate, so that the generator's limits can be told apart from the target's.
+ *
+ * @author jwhite
+ */
+public abstract class UdpLoadGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UdpLoadGenerator.class);
+
+    /**
+     * Number of packets sent between checks of the clock when the rate is unlimited
+     */
+    private static final int UNLIMITED_BATCH_SIZE = 256;
+
+    /**
+     * Provides the packets sent by a single thread.
+     */
+    protected interface PacketSource {
+        /**
+         * Returns the next packet to send, ready to be written. The buffer
+         * is owned by the source and may be reused for subsequent packets.
+         *
+         * @param sequence index of the packet amongst all the packets sent by the generator
+         */
+        ByteBuffer next(long sequence);
+    }
+
+    private final InetSocketAddress target;
+    private final int threads;
+    private final int channels;
+    private final double rate;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean stopped;
+
+    /**
+     * @param target where the packets are sent
+     * @param threads number of sending threads
+     * @param channels number of channels shared by the threads
+     * @param rate total number of packets sent per second, or 0 to send as fast as possible
+     */
+    protected UdpLoadGenerator(InetSocketAddress target, int threads, int channels, double rate) {
+        if (threads < 1 || channels < 1) {
+            throw new IllegalArgumentException("At least one thread and one channel are required.");
+        }
+        this.target = target;
+        this.threads = threads;
+        this.channels = Math.min(channels, threads);
+        this.rate = Math.max(rate, 0);
+    }
+
+    /**
+     * Creates the source of packets for the given thread, called once per thread
+     * before any packets are sent.
+     */
+    protected abstract PacketSource newPacketSource(int thread);
+
+    /**
+     * Sends the given number of packets, blocking until they're all sent.
+     */
+    public LoadResult send(long count) throws IOException, InterruptedException {
+        return run(count, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sends packets for the given amount of time.
+     */
+    public LoadResult sendFor(long duration, TimeUnit unit) throws IOException, InterruptedException {
+        return run(Long.MAX_VALUE, unit.toNanos(duration));
+    }
+
+    /**
+     * Stops a run in progress, causing it to return early.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    private LoadResult run(long count, long durationNanos) throws IOException, InterruptedException {
+        stopped = false;
+        sent.reset();
+        errors.reset();
+
+        final List<DatagramChannel> channelPool = Lists.newArrayListWithCapacity(channels);
+        final List<Thread> senders = Lists.newArrayListWithCapacity(threads);
+        final long[] sequencesBySender = new long[threads];
+        try {
+            for (int i = 0; i < channels; i++) {
+                final DatagramChannel channel = DatagramChannel.open();
+                channel.connect(target);
+                channelPool.add(channel);
+            }
+
+            final long start = System.nanoTime();
+            final long deadline = durationNanos == Long.MAX_VALUE ? Long.MAX_VALUE : start + durationNanos;
+            for (int i = 0; i < threads; i++) {
+                // Split the packets as evenly as possible
+                final long threadCount = count == Long.MAX_VALUE ? Long.MAX_VALUE
+                        : count / threads + (i < count % threads ? 1 : 0);
+                final Sender sender = new Sender(i, threadCount, channelPool.get(i % channels),
+                        newPacketSource(i), start, deadline, sequencesBySender);
+                final Thread thread = new Thread(sender, String.format("%s-%d", getClass().getSimpleName(), i));
+                thread.setDaemon(true);
+                senders.add(thread);
+            }
+            senders.forEach(Thread::start);
+            for (Thread thread : senders) {
+                thread.join();
+            }
+
+            final LoadResult result = new LoadResult(sent.sum(), errors.sum(), System.nanoTime() - start, 0, threads, rate,
+                    sequencesBySender);
+            LOG.info("Sent to {}: {}", target, result);
+            return result;
+        } finally {
+            stopped = true;
+            for (Thread thread : senders) {
+                thread.interrupt();
+            }
+            for (DatagramChannel channel : channelPool) {
+                channel.close();
+            }
+        }
+    }
+
+    private class Sender implements Runnable {
+        private final int index;
+        private final long count;
+        private final DatagramChannel channel;
+        private final PacketSource source;
+        private final long start;
+        private final long deadline;
+        private final long[] sequencesBySender;
+
+        private Sender(int index, long count, DatagramChannel channel, PacketSource source, long start, long deadline,
+                long[] sequencesBySender) {
+            this.index = index;
+            this.count = count;
+            this.channel = channel;
+            this.source = source;
+            this.start = start;
+            this.deadline = deadline;
+            this.sequencesBySender = sequencesBySender;
+        }
+
+        @Override
+        public void run() {
+            // Interval between packets sent by this thread, in nanoseconds
+            final double intervalNanos = rate > 0 ? threads * 1e9 / rate : 0;
+            long sentByThread = 0;
+            long pendingSent = 0;
+            long pendingErrors = 0;
+            try {
+                while (sentByThread < count && !stopped) {
+                    // Interleave the sequence numbers of the threads
+                    final ByteBuffer packet = source.next(sentByThread * threads + index);
+                    try {
+                        channel.write(packet);
+                        pendingSent++;
+                    } catch (PortUnreachableException e) {
+                        // Nothing is listening (yet), keep going
+                        pendingErrors++;
+                    }
+                    sentByThread++;
+
+                    if (intervalNanos > 0) {
+                        final long due = start + (long)(sentByThread * intervalNanos);
+                        final long now = System.nanoTime();
+                        if (due > now) {
+                            flush(pendingSent, pendingErrors);
+                            pendingSent = pendingErrors = 0;
+                            LockSupport.parkNanos(due - now);
+                            if (System.nanoTime() >= deadline) {
+                                break;
+                            }
+                        } else if (now >= deadline) {
+                            break;
+                        }
+                    } else if (sentByThread % UNLIMITED_BATCH_SIZE == 0) {
+                        flush(pendingSent, pendingErrors);
+                        pendingSent = pendingErrors = 0;
+                        if (System.nanoTime() >= deadline) {
+                            break;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                if (!stopped) {
+                    LOG.error("Sender {} failed.", index, e);
+                }
+            } finally {
+                flush(pendingSent, pendingErrors);
+                // Read once the thread is joined
+                sequencesBySender[index] = sentByThread;
+            }
+        }
+
+        private void flush(long pendingSent, long pendingErrors) {
+            if (pendingSent > 0) {
+                sent.add(pendingSent);
+            }
+            if (pendingErrors > 0) {
+                errors.add(pendingErrors);
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.DiscoveryClient;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.FarmClient;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Measures the time taken by Discovery to sweep ranges of addresses
+ * through the Minion as the size of the ranges grows.
+ *
+ * The addresses that respond to the pings are the devices of the fleet
+ * simulator, whose addresses are aliased in its container. For every size,
+ * a new block of devices is provisioned and a range is configured at the
+ * Minion's location, ending with the block and starting with the addresses
+ * below it, which don't respond, so that the given fraction of the range
+ * responds. The range is swept once, and the time from saving the
+ * configuration to the last newSuspect event is recorded, along with the
+ * rate at which the addresses were swept and the events arrived.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=DiscoveryBenchmark -DrangeSizes=1000,5000,10000 -DresponderRatio=0.1 -DpacketsPerSecond=100
+ *
+ * @author jwhite
+ */
+public class DiscoveryBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiscoveryBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    private static final String FOREIGN_SOURCE = "discovery";
+
+    /**
+     * Rate at which Discovery sends the pings, which defaults to 1 per second in OpenNMS
+     */
+    private static final int PACKETS_PER_SECOND = Integer.getInteger("packetsPerSecond", 100);
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .withFleet(true)
+            .withDiscoveryRate(PACKETS_PER_SECOND)
+            .build();
+
+    private final List<Integer> rangeSizes = Arrays.stream(System.getProperty("rangeSizes", "1000,5000,10000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .collect(Collectors.toList());
+
+    /**
+     * Fraction of the addresses in every range that respond to the pings
+     */
+    private final double responderRatio = Double.parseDouble(System.getProperty("responderRatio", "0.1"));
+
+    /**
+     * Time allowed for the responses to the last pings, on top of the time taken to send them all
+     */
+    private static final long SWEEP_GRACE_MS = MINUTES.toMillis(2);
+
+    @Test
+    public void measureDiscovery() throws Exception {
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final long clockOffsetMs = DbUtils.getClockOffsetMicros(dataSource) / 1000;
+        final DiscoveryClient discoveryClient = new DiscoveryClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980),
+                minionSystem.getMinions().get(0).getLocation(), FOREIGN_SOURCE);
+
+        final BenchmarkReport report = new BenchmarkReport("discovery",
+                "range_size", "responders", "sweep_ms", "first_suspect_ms", "addresses_per_second",
+                "new_suspects", "found_ratio", "new_suspects_per_second");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("packetsPerSecond", PACKETS_PER_SECOND);
+        report.setProperty("responderRatio", responderRatio);
+        try (FarmClient fleet = new FarmClient(minionSystem.getServiceAddress(ContainerAlias.FLEET, FarmClient.CONTROL_PORT))) {
+            // The ranges must stay within the fleet's addresses, which depend on the size of the subnet
+            final String lowestAddress = fleet.getLowestAddress();
+            final int lowest = lowestAddress != null ? InetAddresses.coerceToInteger(InetAddresses.forString(lowestAddress)) : 0;
+            int provisioned = 0;
+            for (int i = 0; i < rangeSizes.size(); i++) {
+                final int rangeSize = rangeSizes.get(i);
+                final int responders = (int)Math.max(1, Math.round(rangeSize * responderRatio));
+
+                // Every sweep uses a new block of devices, which were never discovered, and the devices
+                // are aliased downwards, so the range starts below the block and ends with its first device
+                final List<String> addresses = fleet.provision(provisioned + responders);
+                final int end = InetAddresses.coerceToInteger(InetAddresses.forString(addresses.get(provisioned)));
+                if (lowestAddress == null || Integer.toUnsignedLong(end - rangeSize + 1) < Integer.toUnsignedLong(lowest)) {
+                    throw new IllegalStateException(String.format("A range of %d addresses ending at %s runs past the "
+                            + "fleet's lowest address %s. Use smaller ranges.", rangeSize, addresses.get(provisioned), lowestAddress));
+                }
+                final String rangeBegin = InetAddresses.toAddrString(InetAddresses.fromInteger(end - rangeSize + 1));
+                final String rangeEnd = addresses.get(provisioned);
+                provisioned += responders;
+
+                LOG.info("************************************************************");
+                LOG.info("Sweeping {} addresses from {} to {}, of which {} respond.", rangeSize, rangeBegin, rangeEnd, responders);
+                LOG.info("************************************************************");
+                if (i > 0) {
+                    // Don't sweep the range of the previous step again
+                    discoveryClient.removeIncludeRange(0);
+                }
+                discoveryClient.addIncludeRange(rangeBegin, rangeEnd);
+                final Date since = new Date(System.currentTimeMillis() + clockOffsetMs);
+                discoveryClient.saveAndRestart();
+
+                // The responders are swept last, so allow for the pings to all of the other addresses
+                final long sendMs = rangeSize * 1000L / PACKETS_PER_SECOND;
+                final EventStatistics stats = EventStatistics.awaitCount(dataSource,
+                        Collections.singleton(EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI), since,
+                        responders, sendMs + SWEEP_GRACE_MS, 2 * (sendMs + SWEEP_GRACE_MS));
+                LOG.info("Discovered {} of {} responders: {}", stats.getCount(), responders, stats);
+
+                final long sweepMs = stats.getLastCreated() != null ? stats.getLastCreated().getTime() - since.getTime() : 0;
+                final long firstSuspectMs = stats.getFirstCreated() != null ? stats.getFirstCreated().getTime() - since.getTime() : 0;
+                report.addRow(rangeSize, responders, sweepMs, firstSuspectMs,
+                        sweepMs > 0 ? rangeSize * 1000d / sweepMs : 0,
+                        stats.getCount(), (double)stats.getCount() / responders, stats.getRate());
+                report.write();
+            }
+        }
+    }
+}
@@ -27,34 +27,19 @@
  *******************************************************************************/
 package org.opennms.minion.stests;
 
-import static com.jayway.awaitility.Awaitility.await;
 import static java.util.concurrent.TimeUnit.MINUTES;
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertTrue;
 
-import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Date;
 
-import org.apache.http.HttpHost;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.fluent.Executor;
-import org.apache.http.client.fluent.Form;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.LaxRedirectStrategy;
 import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
-import org.opennms.core.criteria.Criteria;
-import org.opennms.core.criteria.CriteriaBuilder;
 import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
-import org.opennms.minion.stests.utils.DaoUtils;
-import org.opennms.minion.stests.utils.HibernateDaoFactory;
-import org.opennms.netmgt.dao.api.EventDao;
-import org.opennms.netmgt.dao.hibernate.EventDaoHibernate;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.DiscoveryClient;
+import org.opennms.minion.stests.utils.EventWatcher;
 import org.opennms.netmgt.events.api.EventConstants;
-import org.opennms.netmgt.model.OnmsEvent;
 
 /**
  * Verifies that we can issue scans on the Minion and generate newSuspect events.
@@ -64,62 +49,26 @@ import org.opennms.netmgt.model.OnmsEvent;
 public class DiscoveryTest {
 
     @ClassRule
-    public static MinionSystem minionSystem = MinionSystem.builder().build();
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder().shared(true).build();
 
     @Test
-    public void canDiscoverRemoteNodes() throws ClientProtocolException, IOException {
-        Date startOfTest = new Date();
- 
-        final String tomcatIp = minionSystem.getContainerInfo(ContainerAlias.TOMCAT)
-                .networkSettings().ipAddress();
+    public void canDiscoverRemoteNodes() throws Exception {
+        final String tomcatIp = minionSystem.getContainerIpAddress(ContainerAlias.TOMCAT);
         final InetSocketAddress opennmsHttp = minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980);
-        final HttpHost opennmsHttpHost = new HttpHost(opennmsHttp.getAddress().getHostAddress(), opennmsHttp.getPort());
-
-        HttpClient instance = HttpClientBuilder.create()
-                .setRedirectStrategy(new LaxRedirectStrategy()) // Ignore the 302 response to the POST
-                .build();
-
-        Executor executor = Executor.newInstance(instance)
-                .auth(opennmsHttpHost, "admin", "admin")
-                .authPreemptive(opennmsHttpHost);
-
-        // Configure Discovery with the specific address of our Tomcat server
-        // No REST endpoint is currently available, so we resort to POSTin nasty form data
-        executor.execute(Request.Post(String.format("http://%s:%d/opennms/admin/discovery/actionDiscovery?action=AddSpecific",
-                opennmsHttp.getAddress().getHostAddress(), opennmsHttp.getPort()))
-            .bodyForm(Form.form()
-                    .add("specificipaddress", tomcatIp)
-                    .add("specifictimeout", "2000")
-                    .add("specificretries", "1")
-                    .add("initialsleeptime", "30000")
-                    .add("restartsleeptime", "86400000")
-                    .add("foreignsource", "NODES")
-                    .add("location", "MINION")
-                    .add("retries", "1")
-                    .add("timeout", "2000")
-                    .build())).returnContent();
-
-        executor.execute(Request.Post(String.format("http://%s:%d/opennms/admin/discovery/actionDiscovery?action=SaveAndRestart",
-                opennmsHttp.getAddress().getHostAddress(), opennmsHttp.getPort()))
-            .bodyForm(Form.form()
-                    .add("initialsleeptime", "1")
-                    .add("restartsleeptime", "86400000")
-                    .add("foreignsource", "NODES")
-                    .add("location", "MINION")
-                    .add("retries", "1")
-                    .add("timeout", "2000")
-                    .build())).returnContent();
-
-        InetSocketAddress pgsql = minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432);
-        HibernateDaoFactory daoFactory = new HibernateDaoFactory(pgsql);
-        EventDao eventDao = daoFactory.getDao(EventDaoHibernate.class);
+        final InetSocketAddress pgsql = minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432);
 
+        // Start watching before the scan, so that only the events it generates are counted
         // TODO: Match the Monitoring System ID when this becomes available in the event
-        Criteria criteria = new CriteriaBuilder(OnmsEvent.class)
-                .eq("eventUei", EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI)
-                .ge("eventTime", startOfTest)
-                .toCriteria();
+        try (EventWatcher watcher = new EventWatcher(DbUtils.getOpenNMSDataSource(pgsql),
+                EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI)) {
+            // Configure Discovery with the specific address of our Tomcat server
+            final DiscoveryClient discoveryClient = new DiscoveryClient(opennmsHttp, "MINION", "NODES");
+            discoveryClient.addSpecific(tomcatIp);
+            discoveryClient.saveAndRestart();
 
-        await().atMost(1, MINUTES).pollInterval(10, SECONDS).until(DaoUtils.countMatchingCallable(eventDao, criteria), greaterThan(0));
+            assertTrue("No newSuspect event was received.",
+                    watcher.awaitCount(EventConstants.NEW_SUSPECT_INTERFACE_EVENT_UEI, 1, 1, MINUTES));
+        }
     }
 }
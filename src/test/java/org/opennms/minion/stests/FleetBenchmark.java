@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.DeliveryLedger;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.FleetClient;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.RequisitionBuilder;
+import org.opennms.minion.stests.utils.RestClient;
+import org.opennms.minion.stests.utils.TrafficType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures the ingestion rate as the number of devices sending
+ * syslog messages and traps to a single Minion grows.
+ *
+ * The traffic is sent by the fleet simulator, from a distinct source address
+ * for every device, and every device is provisioned as a node beforehand, so
+ * that the per-source lookups done by OpenNMS are exercised. The fraction of
+ * the events that were associated with a node is reported along with the rate.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=FleetBenchmark -DfleetSizes=10,100,1000,10000,50000 -Drate=10000 -Dtraffic=syslog-udp,trap
+ *
+ * @author jwhite
+ */
+public class FleetBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FleetBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    private static final String FOREIGN_SOURCE = "fleet";
+
+    /**
+     * The types of traffic to send from the fleet: syslog-udp and/or trap. Parsed before
+     * the system is spawned, so that a type the fleet can't send fails right away.
+     */
+    private static final List<TrafficType> TRAFFIC = Arrays.stream(System.getProperty("traffic", "syslog-udp,trap").split(","))
+            .map(String::trim)
+            .map(TrafficType::getFleetTypeByName)
+            .collect(Collectors.toList());
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .withFleet(true)
+            .build();
+
+    /**
+     * The number of devices, in increasing order, since the devices are only ever added
+     */
+    private final List<Integer> fleetSizes = Arrays.stream(System.getProperty("fleetSizes", "10,100,1000,10000,50000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .sorted()
+            .collect(Collectors.toList());
+
+    /**
+     * Total rate of the fleet, in messages per second, 0 for unlimited
+     */
+    private final double rate = Double.parseDouble(System.getProperty("rate", "10000"));
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 60);
+
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    /**
+     * Time allowed for every node to be imported, on top of a fixed 5 minutes
+     */
+    private static final long IMPORT_TIME_PER_NODE_MS = 50;
+
+    @Test
+    public void measureFleetIngestion() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        // The events are timestamped by OpenNMS, so the runs are started on its clock
+        final long clockOffsetMs = DbUtils.getClockOffsetMicros(dataSource) / 1000;
+        final RestClient restClient = new RestClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980));
+        final String location = minionSystem.getMinions().get(0).getLocation();
+
+        final BenchmarkReport report = new BenchmarkReport("fleet",
+                "devices", "traffic", "import_ms", "target_rate", "achieved_rate", "sent", "received", "events_per_second",
+                "lost", "duplicates", "resolved_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("threads", threads);
+        report.setProperty("durationSeconds", durationSeconds);
+        try (FleetClient fleet = new FleetClient(minionSystem.getServiceAddress(ContainerAlias.FLEET, FleetClient.CONTROL_PORT))) {
+            for (int devices : fleetSizes) {
+                final List<String> addresses = fleet.provision(devices);
+
+                LOG.info("************************************************************");
+                LOG.info("Importing {} devices.", devices);
+                LOG.info("************************************************************");
+                final long importStart = System.currentTimeMillis();
+                restClient.addOrReplaceRequisition(new RequisitionBuilder(minionSystem)
+                        .withForeignSourceName(FOREIGN_SOURCE)
+                        .withNodes("device", addresses, location)
+                        .build());
+                restClient.importRequisition(FOREIGN_SOURCE);
+                await().atMost(MINUTES.toMillis(5) + devices * IMPORT_TIME_PER_NODE_MS, MILLISECONDS)
+                        .pollInterval(5, SECONDS)
+                        .until(() -> DbUtils.countNodes(dataSource, FOREIGN_SOURCE) >= devices);
+                final long importMs = System.currentTimeMillis() - importStart;
+
+                for (TrafficType type : TRAFFIC) {
+                    LOG.info("************************************************************");
+                    LOG.info("Sending {} traffic from {} devices.", type, devices);
+                    LOG.info("************************************************************");
+                    final Date start = new Date(System.currentTimeMillis() + clockOffsetMs);
+                    final String stream = String.format("fleet-%s-%d-%d", type, devices, start.getTime());
+                    final LoadResult result = type.sendFromFleet(minionSystem, fleet, rate, stream, devices, threads,
+                            durationSeconds, SECONDS);
+                    final EventStatistics stats = EventStatistics.awaitCount(dataSource, ImmutableList.of(type.getUei()), start,
+                            result.getSent(), QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+                    final EventStatistics resolved = EventStatistics.queryWithNode(dataSource, ImmutableList.of(type.getUei()), start);
+                    final DeliveryLedger ledger = new DeliveryLedger();
+                    ledger.recordSent(stream, result);
+                    ledger.reconcile(dataSource, ImmutableList.of(type.getUei()), start);
+                    final DeliveryLedger.Summary delivery = ledger.getSummary(stream);
+                    report.addRow(devices, type, importMs, rate, result.getAchievedRate(), result.getSent(), stats.getCount(),
+                            stats.getRate(), delivery.getLost(), delivery.getDuplicates(),
+                            stats.getCount() > 0 ? (double)resolved.getCount() / stats.getCount() : 0d);
+                    report.write();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.BulkRequisition;
+import org.opennms.minion.stests.utils.BulkRequisition.Change;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the time taken to re-import a large requisition, of which only
+ * a fraction of the nodes changed, to tell whether the cost of the import
+ * grows with the size of the change or with the size of the requisition.
+ *
+ * The requisition is imported once, and then, for every type of change and
+ * fraction of changed nodes, the changed requisition is imported, followed
+ * by the original requisition, which reverts the same number of changes.
+ * Both are timed from triggering the import until the changes are visible
+ * in the database.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=IncrementalImportBenchmark -Dnodes=50000 -DchangeTypes=label,interface,service -DchangedRatios=0.001,0.01,0.1
+ *
+ * @author jwhite
+ */
+public class IncrementalImportBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalImportBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    private static final String FOREIGN_SOURCE = "incremental";
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    private final int nodes = Integer.getInteger("nodes", 50000);
+
+    private final int interfacesPerNode = Integer.getInteger("interfacesPerNode", 1);
+
+    private final List<Change> changeTypes = Arrays.stream(System.getProperty("changeTypes", "label,interface,service").split(","))
+            .map(String::trim)
+            .map(type -> Change.valueOf(type.toUpperCase(Locale.ROOT)))
+            .collect(Collectors.toList());
+
+    private final List<Double> changedRatios = Arrays.stream(System.getProperty("changedRatios", "0.001,0.01,0.1").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    /**
+     * Time allowed for every node to be imported, on top of a fixed 5 minutes
+     */
+    private static final long IMPORT_TIME_PER_NODE_MS = 50;
+
+    @FunctionalInterface
+    private static interface Count {
+        long get() throws Exception;
+    }
+
+    private DataSource dataSource;
+
+    private RestClient restClient;
+
+    @Test
+    public void measureIncrementalImport() throws Exception {
+        dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        restClient = new RestClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980));
+
+        final BenchmarkReport report = new BenchmarkReport("incremental-import",
+                "change", "changed_ratio", "changed_nodes", "apply_ms", "revert_ms");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("nodes", nodes);
+        report.setProperty("interfacesPerNode", interfacesPerNode);
+
+        LOG.info("************************************************************");
+        LOG.info("Importing the initial requisition of {} nodes.", nodes);
+        LOG.info("************************************************************");
+        final long initialImportMs = importAndAwait(newRequisition(), () -> DbUtils.countNodes(dataSource, FOREIGN_SOURCE), nodes);
+        report.setProperty("initial_import_ms", initialImportMs);
+        final long interfaces = DbUtils.countInterfaces(dataSource, FOREIGN_SOURCE);
+        final long services = DbUtils.countServices(dataSource, FOREIGN_SOURCE);
+
+        for (Change change : changeTypes) {
+            for (double changedRatio : changedRatios) {
+                final BulkRequisition changed = newRequisition().withChanges(change, changedRatio);
+                final int changedNodes = changed.getChangedNodes();
+                final Count count;
+                final long original;
+                switch (change) {
+                case LABEL:
+                    count = () -> DbUtils.countNodesWithLabel(dataSource, FOREIGN_SOURCE, "%" + BulkRequisition.CHANGED_LABEL_SUFFIX);
+                    original = 0;
+                    break;
+                case INTERFACE:
+                    count = () -> DbUtils.countInterfaces(dataSource, FOREIGN_SOURCE);
+                    original = interfaces;
+                    break;
+                default:
+                    count = () -> DbUtils.countServices(dataSource, FOREIGN_SOURCE);
+                    original = services;
+                    break;
+                }
+
+                LOG.info("************************************************************");
+                LOG.info("Changing the {} of {} nodes.", change, changedNodes);
+                LOG.info("************************************************************");
+                final long applyMs = importAndAwait(changed, count, original + changedNodes);
+
+                LOG.info("************************************************************");
+                LOG.info("Reverting the {} of {} nodes.", change, changedNodes);
+                LOG.info("************************************************************");
+                final long revertMs = importAndAwait(newRequisition(), count, original);
+
+                report.addRow(change, changedRatio, changedNodes, applyMs, revertMs);
+                report.write();
+            }
+        }
+    }
+
+    private BulkRequisition newRequisition() {
+        return new BulkRequisition(FOREIGN_SOURCE, nodes).withInterfacesPerNode(interfacesPerNode);
+    }
+
+    /**
+     * Sends and imports the requisition, and waits for the count to reach the expected value.
+     *
+     * @return the time from triggering the import until the count was reached
+     */
+    private long importAndAwait(BulkRequisition requisition, Count count, long expected) throws Exception {
+        restClient.addOrReplaceRequisition(requisition);
+        final long start = System.currentTimeMillis();
+        restClient.importRequisition(FOREIGN_SOURCE);
+        await().atMost(MINUTES.toMillis(5) + nodes * IMPORT_TIME_PER_NODE_MS, MILLISECONDS)
+                .pollInterval(1, SECONDS)
+                .until(() -> count.get() == expected);
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.FarmClient;
+import org.opennms.minion.stests.utils.JmxFarmClient;
+import org.opennms.minion.stests.utils.RequisitionBuilder;
+import org.opennms.minion.stests.utils.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the throughput and the latency of the JMX collection
+ * through the Minion as the number of targets grows.
+ *
+ * The targets are served by the JMX target farm, and are provisioned as
+ * nodes in the Minion's location, with the JMX-Farm service, which OpenNMS
+ * collects all of the targets' MBeans from. For every number of targets,
+ * the rate at which the collections are made and the attributes are read
+ * is recorded over the collection window, along with the time taken by
+ * the collections, as seen by the targets, and the fraction of the targets
+ * that were collected from.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=JmxCollectionBenchmark -Dtargets=100,250,500 -Dmbeans=10 -Dattributes=10 -DcollectionMinutes=10
+ *
+ * @author jwhite
+ */
+public class JmxCollectionBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxCollectionBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    private static final String FOREIGN_SOURCE = "jmx-targets";
+
+    private static final int MBEANS = Integer.getInteger("mbeans", 10);
+
+    private static final int ATTRIBUTES = Integer.getInteger("attributes", 10);
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .withJmxTargetFarm(true)
+            .withJmxMBeans(MBEANS, ATTRIBUTES)
+            .build();
+
+    /**
+     * The number of targets, in increasing order, since the targets are only ever added
+     */
+    private final List<Integer> targetCounts = Arrays.stream(System.getProperty("targets", "100,250,500").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .sorted()
+            .collect(Collectors.toList());
+
+    /**
+     * Should span at least one collection interval, which is 5 minutes
+     */
+    private final long collectionMinutes = Long.getLong("collectionMinutes", 10);
+
+    /**
+     * Time allowed for every node to be imported, on top of a fixed 5 minutes
+     */
+    private static final long IMPORT_TIME_PER_NODE_MS = 100;
+
+    @Test
+    public void measureJmxCollection() throws Exception {
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final RestClient restClient = new RestClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980));
+
+        final BenchmarkReport report = new BenchmarkReport("jmx-collection",
+                "targets", "import_ms", "collections_per_second", "attributes_per_second", "mean_collection_ms",
+                "max_collection_ms", "active_targets", "active_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("mbeans", MBEANS);
+        report.setProperty("attributes", ATTRIBUTES);
+        report.setProperty("collectionMinutes", collectionMinutes);
+        try (JmxFarmClient farm = new JmxFarmClient(minionSystem.getServiceAddress(ContainerAlias.JMX_TARGETS, FarmClient.CONTROL_PORT))) {
+            for (int targets : targetCounts) {
+                final List<String> addresses = farm.provision(targets);
+
+                LOG.info("************************************************************");
+                LOG.info("Importing {} JMX targets.", targets);
+                LOG.info("************************************************************");
+                final long importStart = System.currentTimeMillis();
+                restClient.addOrReplaceRequisition(new RequisitionBuilder(minionSystem)
+                        .withForeignSourceName(FOREIGN_SOURCE)
+                        .withJmxTargets(addresses)
+                        .build());
+                restClient.importRequisition(FOREIGN_SOURCE);
+                await().atMost(MINUTES.toMillis(5) + targets * IMPORT_TIME_PER_NODE_MS, MILLISECONDS)
+                        .pollInterval(5, SECONDS)
+                        .until(() -> DbUtils.countNodes(dataSource, FOREIGN_SOURCE) >= targets);
+                final long importMs = System.currentTimeMillis() - importStart;
+
+                LOG.info("************************************************************");
+                LOG.info("Collecting from {} JMX targets for {} minutes.", targets, collectionMinutes);
+                LOG.info("************************************************************");
+                final JmxFarmClient.Stats before = farm.getStats();
+                final long collectionStart = System.nanoTime();
+                Thread.sleep(MINUTES.toMillis(collectionMinutes));
+                final JmxFarmClient.Stats after = farm.getStats();
+                final double elapsedSeconds = (System.nanoTime() - collectionStart) / 1e9;
+                LOG.info("Collected from the JMX targets: {}", after);
+
+                report.addRow(targets, importMs,
+                        after.getSessions() / elapsedSeconds,
+                        (after.getAttributes() - before.getAttributes()) / elapsedSeconds,
+                        after.getMeanSessionMicros() / 1000d, after.getMaxSessionMicros() / 1000d,
+                        after.getActiveTargets(), (double)after.getActiveTargets() / targets);
+                report.write();
+            }
+        }
+    }
+}
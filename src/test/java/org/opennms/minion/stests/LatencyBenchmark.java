@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.DeliveryLedger;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LatencyHistogram;
+import org.opennms.minion.stests.utils.LoadStep;
+import org.opennms.minion.stests.utils.TrafficType;
+
+/**
+ * Measures the end-to-end latency from sending a syslog message or trap
+ * to the Minion, to the resulting event being persisted by OpenNMS.
+ *
+ * Every message carries its send time, which is compared to the creation
+ * time of the event, after correcting for the offset between the local
+ * clock and the Docker host's. The latencies are reported as percentiles
+ * for every traffic type and rate, since the tail typically grows well
+ * before the throughput stops keeping up. Every sequence number is also
+ * accounted for by a {@link DeliveryLedger}, so that losses, duplicates
+ * and reordering are reported along with the latencies.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=LatencyBenchmark -Dtraffic=syslog-udp,syslog-tcp-relay,trap -Drates=100,1000,10000
+ *
+ * @author jwhite
+ */
+public class LatencyBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    /**
+     * The types of traffic to benchmark: syslog-udp, syslog-tcp-relay and/or trap
+     */
+    private final List<TrafficType> traffic = Arrays.stream(System.getProperty("traffic", "syslog-udp,syslog-tcp-relay,trap").split(","))
+            .map(String::trim)
+            .map(TrafficType::getByName)
+            .collect(Collectors.toList());
+
+    /**
+     * The rates to benchmark, in messages per second
+     */
+    private final List<Double> rates = Arrays.stream(System.getProperty("rates", "100,1000,10000").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    private final int connections = Integer.getInteger("connections", 4);
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 60);
+
+    @Test
+    public void measureLatency() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final long clockOffsetMicros = DbUtils.getClockOffsetMicros(dataSource);
+        final LoadStep step = new LoadStep(minionSystem, dataSource, clockOffsetMicros)
+                .withThreads(threads)
+                .withConnections(connections)
+                .withDuration(durationSeconds, SECONDS);
+
+        final BenchmarkReport report = new BenchmarkReport("latency",
+                "traffic", "target_rate", "achieved_rate", "sent", "received",
+                "p50_ms", "p99_ms", "p999_ms", "max_ms", "mean_ms", "lost", "duplicates", "reordered", "loss_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("clock_offset_ms", clockOffsetMicros / 1000d);
+        for (TrafficType type : traffic) {
+            for (double rate : rates) {
+                final LoadStep.Result result = step.run(type, rate);
+                final LatencyHistogram histogram = result.getLatencies();
+                final DeliveryLedger.Summary delivery = result.getDelivery();
+                report.addRow(type, rate, result.getLoad().getAchievedRate(), result.getLoad().getSent(), histogram.getCount(),
+                        histogram.getValueAtPercentile(50) / 1000d, histogram.getValueAtPercentile(99) / 1000d,
+                        histogram.getValueAtPercentile(99.9) / 1000d, histogram.getMax() / 1000d,
+                        histogram.getMean() / 1000d, delivery.getLost(), delivery.getDuplicates(),
+                        delivery.getReordered(), delivery.getLossRatio());
+                report.write();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+/**
+ * Verifies that the logs of the containers are collected when
+ * a test method fails.
+ *
+ * @author jwhite
+ */
+public class LogCollectionTest {
+
+    /**
+     * Runs against a dedicated system, which is torn down as soon as
+     * the class completes, and fails. Not run directly by Surefire,
+     * which skips nested classes.
+     */
+    public static class FailingFixture {
+
+        @ClassRule
+        @Rule
+        public static MinionSystem minionSystem = MinionSystem.builder().useDatabaseSnapshot(true).build();
+
+        @Test
+        public void failToCollectLogs() {
+            throw new AssertionError("Failing on purpose, so that the logs are collected.");
+        }
+    }
+
+    @Test
+    public void canCollectLogsWhenTestFails() throws IOException {
+        final FileTime startOfTest = FileTime.fromMillis(System.currentTimeMillis());
+
+        final Result result = JUnitCore.runClasses(FailingFixture.class);
+        assertEquals(1, result.getRunCount());
+        assertEquals(1, result.getFailureCount());
+        assertEquals("Failing on purpose, so that the logs are collected.", result.getFailures().get(0).getMessage());
+
+        for (String archive : new String[] { "opennms_opt_opennms_logs.tar", "minion_opt_minion_data_log.tar" }) {
+            final Path path = ContainerMonitor.OUTPUT_DIRECTORY.resolve(archive);
+            assertTrue(path + " was not collected.", Files.isRegularFile(path)
+                    && Files.getLastModifiedTime(path).compareTo(startOfTest) >= 0
+                    && Files.size(path) > 0);
+        }
+    }
+}
@@ -30,14 +30,13 @@ import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.Matchers.greaterThan;
 
-import java.net.InetSocketAddress;
 import java.util.Date;
 
 import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.opennms.core.criteria.Criteria;
 import org.opennms.core.criteria.CriteriaBuilder;
-import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
 import org.opennms.minion.stests.utils.DaoUtils;
 import org.opennms.minion.stests.utils.HibernateDaoFactory;
 import org.opennms.netmgt.dao.api.MinionDao;
@@ -47,15 +46,14 @@ import org.opennms.netmgt.model.minion.OnmsMinion;
 public class MinionHeartBeatTest {
 
     @ClassRule
-    public static MinionSystem minionSystem = MinionSystem.builder().build();
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder().shared(true).build();
 
     @Test
     public void minionHeartBeatTestForLastUpdated() {
 
         Date startOfTest = new Date();
-        InetSocketAddress pgsql = minionSystem.getServiceAddress(ContainerAlias.POSTGRES,
-                                                                 5432);
-        HibernateDaoFactory daoFactory = new HibernateDaoFactory(pgsql);
+        HibernateDaoFactory daoFactory = minionSystem.getDaoFactory();
         MinionDao minionDao = daoFactory.getDao(MinionDaoHibernate.class);
 
         Criteria criteria = new CriteriaBuilder(OnmsMinion.class).ge("lastUpdated",
@@ -0,0 +1,227 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.SyslogGenerator;
+import org.opennms.minion.stests.utils.TrapGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Measures how the aggregate event throughput at OpenNMS grows
+ * with the number of Minions.
+ *
+ * For every Minion count, a new Minion System is spawned and every
+ * Minion is sent syslog messages and traps for the same amount of time.
+ * The Minions are driven as fast as the generators can send by default,
+ * so that the throughput is bound by the system and not by the pacing;
+ * with a fixed rate per Minion, the aggregate throughput would grow
+ * linearly by construction until OpenNMS saturates.
+ *
+ * The throughput is the number of events created while the load was
+ * sustained, after a warm-up period that absorbs the startup transients,
+ * and is compared to the throughput achieved with a single Minion.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=MinionScaleOutBenchmark -Dminions=1,2,4 -DresourceProfile=small
+ *
+ * @author jwhite
+ */
+public class MinionScaleOutBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MinionScaleOutBenchmark.class);
+
+    /**
+     * The Minion counts to benchmark i.e. -Dminions=1,2,4
+     */
+    private final List<Integer> minionCounts = Arrays.stream(System.getProperty("minions", "1,2,4").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .collect(Collectors.toList());
+
+    private final int minionsPerLocation = Integer.getInteger("minionsPerLocation", 1);
+
+    /**
+     * Limits applied to the containers i.e. -DresourceProfile=small
+     */
+    private final ResourceProfile resourceProfile = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    /**
+     * Rate at which syslog messages and traps are each sent to every Minion,
+     * in messages per second, 0 to send as fast as possible
+     */
+    private final int ratePerMinion = Integer.getInteger("ratePerMinion", 0);
+
+    /**
+     * Number of threads sending syslog messages and traps to every Minion
+     */
+    private final int threadsPerMinion = Integer.getInteger("threadsPerMinion", 1);
+
+    /**
+     * Time during which the load is sent before the throughput is measured
+     */
+    private final long warmUpSeconds = Long.getLong("warmUpSeconds", 30);
+
+    /**
+     * Time during which the throughput is measured
+     */
+    private final long durationSeconds = Long.getLong("durationSeconds", 120);
+
+    /**
+     * Stop waiting for events once none were created for this amount of time
+     */
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    @Test
+    public void measureScaleOut() throws Throwable {
+        final BenchmarkReport report = new BenchmarkReport("minion-scale-out",
+                "minions", "locations", "rate_per_minion", "sent", "send_rate", "received", "loss_ratio",
+                "window_ms", "events_per_second", "events_per_second_per_minion", "scaling_efficiency");
+        report.setResourceProfile(resourceProfile);
+
+        Double singleMinionRate = null;
+        for (int minionCount : minionCounts) {
+            final MinionSystem minionSystem = MinionSystem.builder()
+                    .withMinions(minionCount)
+                    .withMinionsPerLocation(minionsPerLocation)
+                    .withResourceProfile(resourceProfile)
+                    .build();
+            final Run[] runs = new Run[1];
+            minionSystem.apply(new Statement() {
+                @Override
+                public void evaluate() throws Throwable {
+                    runs[0] = run(minionSystem);
+                }
+            }, Description.createSuiteDescription(MinionScaleOutBenchmark.class)).evaluate();
+
+            final Run run = runs[0];
+            final double rate = run.getWindowRate();
+            if (minionCount == 1 || singleMinionRate == null) {
+                // Extrapolate from the smallest count when 1 isn't benchmarked
+                singleMinionRate = rate / minionCount;
+            }
+            report.addRow(minionCount, (minionCount + minionsPerLocation - 1) / minionsPerLocation,
+                    ratePerMinion, run.sent, run.sendRate, run.received.getCount(),
+                    run.sent > 0 ? 1 - (double)run.received.getCount() / run.sent : 0d,
+                    run.windowMs, rate, rate / minionCount,
+                    singleMinionRate > 0 ? rate / (singleMinionRate * minionCount) : 0d);
+            report.write();
+        }
+    }
+
+    private Run run(MinionSystem minionSystem) throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+
+        final List<MinionInstance> minions = minionSystem.getMinions();
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final List<String> ueis = ImmutableList.of(SyslogGenerator.DEFAULT_MESSAGE_UEI, TrapGenerator.WARM_START_UEI);
+        // The events are timestamped by OpenNMS, so the windows are opened and closed on its clock
+        final long clockOffsetMs = DbUtils.getClockOffsetMicros(dataSource) / 1000;
+        final Date start = new Date(System.currentTimeMillis() + clockOffsetMs);
+
+        LOG.info("************************************************************");
+        LOG.info("Sending syslog messages and traps to each of the {} Minions for {}s.",
+                minions.size(), warmUpSeconds + durationSeconds);
+        LOG.info("************************************************************");
+        final Run run = new Run();
+        final ExecutorService executor = Executors.newFixedThreadPool(minions.size() * 2);
+        try {
+            final List<Future<LoadResult>> senders = Lists.newArrayList();
+            for (MinionInstance minion : minions) {
+                final InetSocketAddress syslogAddr = minionSystem.getServiceAddress(minion.getContainerInfo(), 1514, "udp");
+                final InetSocketAddress trapAddr = minionSystem.getServiceAddress(minion.getContainerInfo(), 162, "udp");
+                senders.add(executor.submit(() -> new SyslogGenerator(syslogAddr, threadsPerMinion, ratePerMinion)
+                        .sendFor(warmUpSeconds + durationSeconds, SECONDS)));
+                senders.add(executor.submit(() -> new TrapGenerator(trapAddr, threadsPerMinion, ratePerMinion, TrapGenerator.Version.V2C)
+                        .sendFor(warmUpSeconds + durationSeconds, SECONDS)));
+            }
+
+            Thread.sleep(SECONDS.toMillis(warmUpSeconds));
+            final Date windowStart = new Date(System.currentTimeMillis() + clockOffsetMs);
+            final long windowStartNanos = System.nanoTime();
+            for (Future<LoadResult> sender : senders) {
+                final LoadResult result = sender.get();
+                run.sent += result.getSent();
+                run.sendRate += result.getAchievedRate();
+            }
+            // Only count the events created while the load was sustained
+            run.window = EventStatistics.query(dataSource, ueis, windowStart);
+            run.windowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - windowStartNanos);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Wait until all of the events were created, or until they stop being created
+        run.received = EventStatistics.awaitCount(dataSource, ueis, start, run.sent,
+                QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+        LOG.info("{} Minion(s): {} events/s while sending at {}/s, {}", minions.size(),
+                String.format("%.2f", run.getWindowRate()), String.format("%.2f", run.sendRate), run.received);
+        return run;
+    }
+
+    private static class Run {
+        private long sent;
+        private double sendRate;
+        private EventStatistics window;
+        private long windowMs;
+        private EventStatistics received;
+
+        private double getWindowRate() {
+            return windowMs > 0 ? window.getCount() * 1000d / windowMs : 0d;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.TrafficReplayer;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Replays captured syslog and trap traffic to a single Minion, and measures
+ * the rate at which the resulting events are created.
+ *
+ * The capture is either a pcap file, from which the UDP datagrams sent to ports
+ * 514 and 162 are replayed, or a file with a syslog message on every line.
+ * pcap captures are replayed at each of the given speedups, where 1 keeps the
+ * original timing and 0 sends the packets as fast as possible.
+ *
+ * Every run waits for the events of the previous run to stop being created,
+ * and only counts the events created after it started, as read on the
+ * OpenNMS clock.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=ReplayBenchmark -Dcapture=/path/to/capture.pcap -Dspeedups=1,10,0
+ *
+ * @author jwhite
+ */
+public class ReplayBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    private final String capture = System.getProperty("capture");
+
+    /**
+     * Factors by which the original timing of pcap captures is compressed, 0 for unlimited
+     */
+    private final List<Double> speedups = Arrays.stream(System.getProperty("speedups", "1").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    /**
+     * The rate at which line files are replayed, in messages per second, 0 for unlimited
+     */
+    private final double lineRate = Double.parseDouble(System.getProperty("lineRate", "1000"));
+
+    private static final List<String> EVENT_SOURCES = ImmutableList.of("syslogd", "trapd");
+
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    /**
+     * Time without any new events after which the previous run is considered drained
+     */
+    private static final long SETTLE_PERIOD_MS = SECONDS.toMillis(10);
+
+    @Test
+    public void replayCapture() throws Exception {
+        if (capture == null || !Files.isReadable(Paths.get(capture))) {
+            throw new IllegalArgumentException("Set -Dcapture to a readable pcap or syslog file, got: " + capture);
+        }
+        final Path captureFile = Paths.get(capture);
+        final TrafficReplayer.Format format = TrafficReplayer.detectFormat(captureFile);
+
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final InetSocketAddress syslogAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "udp");
+        final InetSocketAddress trapAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 162, "udp");
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        // The events are timestamped by OpenNMS, so the runs are started on its clock
+        final long clockOffsetMs = DbUtils.getClockOffsetMicros(dataSource) / 1000;
+
+        final BenchmarkReport report = new BenchmarkReport("replay",
+                "speedup", "line_rate", "achieved_rate", "sent", "send_errors", "skipped", "ignored",
+                "received", "events_per_second", "loss_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("capture", captureFile.getFileName());
+        report.setProperty("format", format);
+        // Line files have no timing to compress
+        final List<Double> runs = format == TrafficReplayer.Format.PCAP ? speedups : ImmutableList.of(0d);
+        Date previousStart = null;
+        for (double speedup : runs) {
+            if (previousStart != null) {
+                final Date since = previousStart;
+                EventStatistics.awaitQuiet(() -> EventStatistics.queryBySource(dataSource, EVENT_SOURCES, since),
+                        SETTLE_PERIOD_MS, MAX_DRAIN_TIME_MS);
+            }
+            final Date start = new Date(System.currentTimeMillis() + clockOffsetMs);
+            previousStart = start;
+            final TrafficReplayer replayer = new TrafficReplayer(syslogAddr, trapAddr)
+                    .withSpeedup(speedup)
+                    .withLineRate(lineRate);
+            final LoadResult result = replayer.replay(captureFile);
+            final EventStatistics stats = EventStatistics.awaitCount(
+                    () -> EventStatistics.queryBySource(dataSource, EVENT_SOURCES, start),
+                    result.getSent(), QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+            report.addRow(format == TrafficReplayer.Format.PCAP ? speedup : null,
+                    format == TrafficReplayer.Format.LINES ? lineRate : null,
+                    result.getAchievedRate(), result.getSent(), result.getErrors(), replayer.getSkipped(),
+                    replayer.getIgnored(), stats.getCount(), stats.getRate(),
+                    result.getSent() > 0 ? 1 - (double)stats.getCount() / result.getSent() : 0d);
+            report.write();
+        }
+    }
+}
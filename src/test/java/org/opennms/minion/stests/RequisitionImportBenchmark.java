@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.BulkRequisition;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the time taken to import requisitions of tens of thousands of nodes.
+ *
+ * For every number of nodes, a {@link BulkRequisition} is streamed to
+ * OpenNMS in a new foreign source, and imported. The time taken to send
+ * the requisition is recorded, followed by the time from triggering the
+ * import until every node was added to the database.
+ *
+ * The addresses of the nodes are not reachable, and the nodes are placed
+ * in the default location, unless one is given with -Dlocation.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=RequisitionImportBenchmark -Dnodes=10000,50000,100000 -DinterfacesPerNode=1
+ *
+ * @author jwhite
+ */
+public class RequisitionImportBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequisitionImportBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    private final List<Integer> nodeCounts = Arrays.stream(System.getProperty("nodes", "10000,50000,100000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .collect(Collectors.toList());
+
+    private final int interfacesPerNode = Integer.getInteger("interfacesPerNode", 1);
+
+    private final String location = System.getProperty("location");
+
+    /**
+     * Time allowed for every node to be imported, on top of a fixed 5 minutes
+     */
+    private static final long IMPORT_TIME_PER_NODE_MS = 50;
+
+    @Test
+    public void measureRequisitionImport() throws Exception {
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final RestClient restClient = new RestClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980));
+
+        final BenchmarkReport report = new BenchmarkReport("requisition-import",
+                "nodes", "interfaces_per_node", "post_ms", "import_ms", "nodes_per_second");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("location", location != null ? location : "Default");
+        int firstAddress = 1;
+        for (int nodes : nodeCounts) {
+            // Every requisition has its own foreign source and addresses, so that the imports don't overlap
+            final BulkRequisition requisition = new BulkRequisition("bulk-" + nodes, nodes)
+                    .withInterfacesPerNode(interfacesPerNode)
+                    .withFirstAddress(String.format("10.%d.%d.%d", firstAddress >> 16 & 0xff, firstAddress >> 8 & 0xff, firstAddress & 0xff))
+                    .withLocation(location);
+            firstAddress += nodes * interfacesPerNode;
+
+            LOG.info("************************************************************");
+            LOG.info("Sending a requisition of {} nodes with {} interface(s) each.", nodes, interfacesPerNode);
+            LOG.info("************************************************************");
+            final long postStart = System.currentTimeMillis();
+            restClient.addOrReplaceRequisition(requisition);
+            final long postMs = System.currentTimeMillis() - postStart;
+
+            LOG.info("************************************************************");
+            LOG.info("Importing {} nodes.", nodes);
+            LOG.info("************************************************************");
+            final long importStart = System.currentTimeMillis();
+            restClient.importRequisition(requisition.getForeignSource());
+            await().atMost(MINUTES.toMillis(5) + nodes * IMPORT_TIME_PER_NODE_MS, MILLISECONDS)
+                    .pollInterval(5, SECONDS)
+                    .until(() -> DbUtils.countNodes(dataSource, requisition.getForeignSource()) >= nodes);
+            final long importMs = System.currentTimeMillis() - importStart;
+
+            report.addRow(nodes, interfacesPerNode, postMs, importMs, nodes * 1000d / importMs);
+            report.write();
+        }
+    }
+}
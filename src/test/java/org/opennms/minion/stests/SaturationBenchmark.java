@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadStep;
+import org.opennms.minion.stests.utils.SaturationFinder;
+import org.opennms.minion.stests.utils.TrafficType;
+
+/**
+ * Finds the maximum rate a single Minion can sustain for each type of traffic,
+ * i.e. the highest rate at which the loss and the 99th percentile latency from
+ * sending to the event being persisted stay below the given thresholds.
+ *
+ * Every step is recorded in the saturation-steps report, and the maximum
+ * sustainable rate of every scenario in the saturation report, along with
+ * what ended the search. When it's bound_by generator, the generator could
+ * not drive the next step, and the Minion can sustain more than reported.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=SaturationBenchmark -Dtraffic=syslog-udp,trap -Dmode=binary -DmaxLossRatio=0.001 -DmaxP99Ms=5000
+ *
+ * @author jwhite
+ */
+public class SaturationBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    /**
+     * The types of traffic to benchmark: syslog-udp, syslog-tcp-relay and/or trap
+     */
+    private final List<TrafficType> traffic = Arrays.stream(System.getProperty("traffic", "syslog-udp,syslog-tcp-relay,trap").split(","))
+            .map(String::trim)
+            .map(TrafficType::getByName)
+            .collect(Collectors.toList());
+
+    private final SaturationFinder.Mode mode = SaturationFinder.Mode.valueOf(System.getProperty("mode", "binary").toUpperCase());
+
+    private final double startRate = Double.parseDouble(System.getProperty("startRate", "1000"));
+
+    private final double maxRate = Double.parseDouble(System.getProperty("maxRate", "1000000"));
+
+    private final double stepFactor = Double.parseDouble(System.getProperty("stepFactor", "2"));
+
+    private final double resolution = Double.parseDouble(System.getProperty("resolution", "0.05"));
+
+    private final double maxLossRatio = Double.parseDouble(System.getProperty("maxLossRatio", "0.001"));
+
+    private final double maxP99Ms = Double.parseDouble(System.getProperty("maxP99Ms", "5000"));
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    private final int connections = Integer.getInteger("connections", 4);
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 30);
+
+    @Test
+    public void findMaxSustainableRate() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final LoadStep step = new LoadStep(minionSystem, dataSource, DbUtils.getClockOffsetMicros(dataSource))
+                .withThreads(threads)
+                .withConnections(connections)
+                .withDuration(durationSeconds, SECONDS);
+        final SaturationFinder finder = new SaturationFinder()
+                .withMode(mode)
+                .withRates(startRate, maxRate)
+                .withStepFactor(stepFactor)
+                .withResolution(resolution)
+                .withMaxLossRatio(maxLossRatio)
+                .withMaxP99Ms(maxP99Ms);
+
+        final BenchmarkReport stepsReport = new BenchmarkReport("saturation-steps",
+                "traffic", "step", "target_rate", "achieved_rate", "delivered_rate", "loss_ratio", "p99_ms", "result");
+        final BenchmarkReport report = new BenchmarkReport("saturation",
+                "traffic", "max_sustainable_rate", "delivered_rate", "loss_ratio", "p99_ms", "steps", "bound_by", "reason");
+        for (BenchmarkReport r : Arrays.asList(stepsReport, report)) {
+            r.setResourceProfile(RESOURCE_PROFILE);
+            r.setProperty("mode", mode);
+            r.setProperty("max_loss_ratio", maxLossRatio);
+            r.setProperty("max_p99_ms", maxP99Ms);
+        }
+
+        for (TrafficType type : traffic) {
+            final LoadStep.Result best = finder.find(rate -> step.run(type, rate));
+            final List<LoadStep.Result> steps = finder.getSteps();
+            for (int i = 0; i < steps.size(); i++) {
+                final LoadStep.Result result = steps.get(i);
+                final String reason = finder.getFailureReason(result);
+                stepsReport.addRow(type, i + 1, result.getTargetRate(), result.getLoad().getAchievedRate(),
+                        result.getDeliveredRate(), result.getDelivery().getLossRatio(), result.getP99Ms(),
+                        reason == null ? "passed" : reason);
+            }
+            if (best != null) {
+                report.addRow(type, best.getTargetRate(), best.getDeliveredRate(), best.getDelivery().getLossRatio(),
+                        best.getP99Ms(), steps.size(), finder.getBound().toString().toLowerCase(), finder.getBoundReason());
+            } else {
+                report.addRow(type, 0d, 0d, null, null, steps.size(), finder.getBound().toString().toLowerCase(), finder.getBoundReason());
+            }
+            stepsReport.write();
+            report.write();
+        }
+    }
+}
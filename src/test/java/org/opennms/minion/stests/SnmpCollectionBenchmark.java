@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.AgentFarmClient;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.FarmClient;
+import org.opennms.minion.stests.utils.RequisitionBuilder;
+import org.opennms.minion.stests.utils.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the SNMP load that OpenNMS places on the agents through
+ * the Minion as the number of agents grows.
+ *
+ * The agents are served by the SNMP agent farm, and are provisioned as
+ * nodes in the Minion's location, so that they are scanned, polled and
+ * collected from through the Minion. For every number of agents, the time
+ * taken to import and scan the nodes is recorded, followed by the rate
+ * at which the agents are queried over the collection window, and the
+ * fraction of the agents that were queried.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=SnmpCollectionBenchmark -Dagents=100,1000,5000 -DcollectionMinutes=10
+ *
+ * @author jwhite
+ */
+public class SnmpCollectionBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SnmpCollectionBenchmark.class);
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    private static final String FOREIGN_SOURCE = "agents";
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .withSnmpAgentFarm(true)
+            .build();
+
+    /**
+     * The number of agents, in increasing order, since the agents are only ever added
+     */
+    private final List<Integer> agentCounts = Arrays.stream(System.getProperty("agents", "100,1000,5000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .sorted()
+            .collect(Collectors.toList());
+
+    /**
+     * Should span at least one collection interval, which defaults to 5 minutes
+     */
+    private final long collectionMinutes = Long.getLong("collectionMinutes", 10);
+
+    /**
+     * Time allowed for every node to be imported and scanned, on top of a fixed 5 minutes
+     */
+    private static final long SCAN_TIME_PER_NODE_MS = 100;
+
+    @Test
+    public void measureSnmpCollection() throws Exception {
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+        final RestClient restClient = new RestClient(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8980));
+
+        final BenchmarkReport report = new BenchmarkReport("snmp-collection",
+                "agents", "import_ms", "scan_ms", "requests_per_second", "varbinds_per_second", "active_agents",
+                "active_ratio", "errors");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("collectionMinutes", collectionMinutes);
+        try (AgentFarmClient farm = new AgentFarmClient(minionSystem.getServiceAddress(ContainerAlias.SNMP_AGENTS, FarmClient.CONTROL_PORT))) {
+            for (int agents : agentCounts) {
+                final List<String> addresses = farm.provision(agents);
+
+                LOG.info("************************************************************");
+                LOG.info("Importing {} agents.", agents);
+                LOG.info("************************************************************");
+                final long importStart = System.currentTimeMillis();
+                restClient.addOrReplaceRequisition(new RequisitionBuilder(minionSystem)
+                        .withForeignSourceName(FOREIGN_SOURCE)
+                        .withSnmpAgents(addresses)
+                        .build());
+                restClient.importRequisition(FOREIGN_SOURCE);
+                final long maxWaitMs = MINUTES.toMillis(5) + agents * SCAN_TIME_PER_NODE_MS;
+                await().atMost(maxWaitMs, MILLISECONDS)
+                        .pollInterval(5, SECONDS)
+                        .until(() -> DbUtils.countNodes(dataSource, FOREIGN_SOURCE) >= agents);
+                final long importMs = System.currentTimeMillis() - importStart;
+                await().atMost(maxWaitMs, MILLISECONDS)
+                        .pollInterval(5, SECONDS)
+                        .until(() -> DbUtils.countScannedNodes(dataSource, FOREIGN_SOURCE) >= agents);
+                final long scanMs = System.currentTimeMillis() - importStart;
+
+                LOG.info("************************************************************");
+                LOG.info("Collecting from {} agents for {} minutes.", agents, collectionMinutes);
+                LOG.info("************************************************************");
+                final AgentFarmClient.Stats before = farm.getStats();
+                final long collectionStart = System.nanoTime();
+                Thread.sleep(MINUTES.toMillis(collectionMinutes));
+                final AgentFarmClient.Stats after = farm.getStats();
+                final double elapsedSeconds = (System.nanoTime() - collectionStart) / 1e9;
+
+                report.addRow(agents, importMs, scanMs,
+                        (after.getRequests() - before.getRequests()) / elapsedSeconds,
+                        (after.getVarbinds() - before.getVarbinds()) / elapsedSeconds,
+                        after.getActiveAgents(), (double)after.getActiveAgents() / agents,
+                        after.getErrors() - before.getErrors());
+                report.write();
+            }
+        }
+    }
+}
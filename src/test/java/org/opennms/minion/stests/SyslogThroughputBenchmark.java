@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.SyslogGenerator;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures how many syslog messages per second a single Minion
+ * can turn into events.
+ *
+ * Messages are sent to the Minion's UDP listener at each of the given
+ * rates for a fixed amount of time, and the rate at which the resulting
+ * events are created is compared to the rate at which they were sent.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=SyslogThroughputBenchmark -Drates=1000,10000,100000
+ *
+ * @author jwhite
+ */
+public class SyslogThroughputBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    /**
+     * The rates to benchmark, in messages per second, 0 for unlimited
+     */
+    private final List<Double> rates = Arrays.stream(System.getProperty("rates", "1000,10000,100000").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 60);
+
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    @Test
+    public void measureSyslogThroughput() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final InetSocketAddress syslogAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "udp");
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+
+        final BenchmarkReport report = new BenchmarkReport("syslog-throughput",
+                "target_rate", "achieved_rate", "sent", "send_errors", "received", "events_per_second", "loss_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        for (double rate : rates) {
+            final Date start = new Date();
+            final LoadResult result = new SyslogGenerator(syslogAddr, threads, rate)
+                    .sendFor(durationSeconds, SECONDS);
+            final EventStatistics stats = EventStatistics.awaitCount(dataSource,
+                    ImmutableList.of(SyslogGenerator.DEFAULT_MESSAGE_UEI), start, result.getSent(),
+                    QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+            report.addRow(rate, result.getAchievedRate(), result.getSent(), result.getErrors(), stats.getCount(),
+                    stats.getRate(), result.getSent() > 0 ? 1 - (double)stats.getCount() / result.getSent() : 0d);
+            report.write();
+        }
+    }
+}
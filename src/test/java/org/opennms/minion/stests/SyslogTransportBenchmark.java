@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.NetUtils;
+import org.opennms.minion.stests.utils.SyslogGenerator;
+import org.opennms.minion.stests.utils.SyslogTcpGenerator;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures the syslog throughput of a single Minion when the messages
+ * are sent over UDP and, optionally, through a TCP relay.
+ *
+ * At each of the given rates, messages are sent over UDP. With -DtcpRelay=true,
+ * they're then sent over TCP using many concurrent connections, with
+ * octet-counting framing. The Minion has no TCP syslog listener, so the
+ * TCP messages are received by a relay in the Minion container which
+ * forwards them to the UDP listener, so the tcp-relay series is bound by
+ * the relay, and the Minion never pushes back on the TCP senders: when it's
+ * overloaded, the relayed datagrams are dropped just like the UDP ones.
+ * The fraction of time the TCP senders spent blocked on writes is recorded
+ * as relay_blocked_ratio, and shows when the relay stops keeping up.
+ *
+ * The tcp-relay series therefore measures the relay in front of the Minion's
+ * UDP listener, not the Minion's TCP backpressure, and is only run on request,
+ * with a warning recorded in the report's properties.
+ *
+ * The relay is checked after every TCP run, since the relayed messages
+ * are lost if it exits.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=SyslogTransportBenchmark -Drates=1000,10000,50000 -DtcpRelay=true -Dconnections=50
+ *
+ * @author jwhite
+ */
+public class SyslogTransportBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    /**
+     * The rates to benchmark, in messages per second, 0 for unlimited
+     */
+    private final List<Double> rates = Arrays.stream(System.getProperty("rates", "1000,10000,50000").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    /**
+     * Also send the messages through the TCP relay
+     */
+    private final boolean tcpRelay = Boolean.getBoolean("tcpRelay");
+
+    /**
+     * Number of concurrent TCP connections
+     */
+    private final int connections = Integer.getInteger("connections", 50);
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 60);
+
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    @Test
+    public void compareTransports() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final InetSocketAddress udpAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "udp");
+        final InetSocketAddress tcpAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 1514, "tcp");
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+
+        final BenchmarkReport report = new BenchmarkReport("syslog-transport",
+                "transport", "connections", "target_rate", "achieved_rate", "sent", "send_errors", "relay_blocked_ratio",
+                "received", "events_per_second", "loss_ratio");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        if (tcpRelay) {
+            report.setProperty("warning", "tcp-relay measures a TCP to UDP relay in front of the Minion's UDP listener, "
+                    + "not the Minion's TCP backpressure");
+        }
+        for (double rate : rates) {
+            Date start = new Date();
+            final LoadResult udpResult = new SyslogGenerator(udpAddr, threads, rate)
+                    .sendFor(durationSeconds, SECONDS);
+            addRow(report, "udp", 0, udpResult, awaitEvents(dataSource, start, udpResult));
+            if (!tcpRelay) {
+                report.write();
+                continue;
+            }
+
+            start = new Date();
+            final LoadResult tcpResult = new SyslogTcpGenerator(tcpAddr, connections, threads, rate)
+                    .sendFor(durationSeconds, SECONDS);
+            assertTrue("The syslog TCP relay in the Minion container isn't accepting connections anymore.",
+                    NetUtils.isTcpPortOpen(tcpAddr));
+            addRow(report, "tcp-relay", connections, tcpResult, awaitEvents(dataSource, start, tcpResult));
+            report.write();
+        }
+    }
+
+    private static EventStatistics awaitEvents(DataSource dataSource, Date start, LoadResult result) throws Exception {
+        return EventStatistics.awaitCount(dataSource, ImmutableList.of(SyslogGenerator.DEFAULT_MESSAGE_UEI),
+                start, result.getSent(), QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+    }
+
+    private static void addRow(BenchmarkReport report, String transport, int connections, LoadResult result, EventStatistics stats) {
+        // Sending datagrams never blocks, so the ratio is only meaningful for the relay
+        report.addRow(transport, connections, result.getTargetRate(), result.getAchievedRate(), result.getSent(),
+                result.getErrors(), connections > 0 ? result.getBlockedRatio() : "", stats.getCount(), stats.getRate(),
+                result.getSent() > 0 ? 1 - (double)stats.getCount() / result.getSent() : 0d);
+    }
+}
@@ -37,6 +37,7 @@ import java.net.InetSocketAddress;
 import java.util.Date;
 
 import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.opennms.core.criteria.Criteria;
 import org.opennms.core.criteria.CriteriaBuilder;
@@ -65,7 +66,8 @@ public class TrapTest {
     private static final Logger LOG = LoggerFactory.getLogger(TrapTest.class);
 
     @ClassRule
-    public static MinionSystem minionSystem = MinionSystem.builder().build();
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder().shared(true).build();
     //public static MinionSystem minionSystem = MinionSystem.builder().skipTearDown(true).build();
     //public static MinionSystem minionSystem = MinionSystem.builder().useExisting(true).build();
 
@@ -118,8 +120,7 @@ public class TrapTest {
         }
 
         // Connect to the postgresql container
-        InetSocketAddress pgsql = minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432);
-        HibernateDaoFactory daoFactory = new HibernateDaoFactory(pgsql);
+        HibernateDaoFactory daoFactory = minionSystem.getDaoFactory();
         EventDao eventDao = daoFactory.getDao(EventDaoHibernate.class);
 
         // Parsing the message correctly relies on the customized syslogd-configuration.xml that is part of the OpenNMS image
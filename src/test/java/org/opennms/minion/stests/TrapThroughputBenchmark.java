@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.sql.DataSource;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.opennms.minion.stests.NewMinionSystem.ContainerAlias;
+import org.opennms.minion.stests.utils.BenchmarkReport;
+import org.opennms.minion.stests.utils.DbUtils;
+import org.opennms.minion.stests.utils.DeliveryLedger;
+import org.opennms.minion.stests.utils.EventStatistics;
+import org.opennms.minion.stests.utils.KarafUtils;
+import org.opennms.minion.stests.utils.LoadResult;
+import org.opennms.minion.stests.utils.TrapGenerator;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Measures how many SNMP traps per second a single Minion
+ * can turn into events.
+ *
+ * Traps are sent to the Minion's trap listener at each of the given
+ * rates for a fixed amount of time, and the rate at which the resulting
+ * events are created is compared to the rate at which they were sent.
+ * The rate achieved by the generator is recorded, so that its limits
+ * can be told apart from the Minion's. The traps are numbered, and the
+ * events are reconciled with a {@link DeliveryLedger} to tell losses
+ * apart from duplicates.
+ *
+ * Run with:
+ *   mvn test -Pbenchmarks -Dtest=TrapThroughputBenchmark -Drates=1000,10000,100000 -Dversion=V2C
+ *
+ * @author jwhite
+ */
+public class TrapThroughputBenchmark {
+
+    private static final ResourceProfile RESOURCE_PROFILE = ResourceProfile.getByName(System.getProperty("resourceProfile", "unlimited"));
+
+    @ClassRule
+    @Rule
+    public static MinionSystem minionSystem = MinionSystem.builder()
+            .withResourceProfile(RESOURCE_PROFILE)
+            .build();
+
+    /**
+     * The rates to benchmark, in messages per second, 0 for unlimited
+     */
+    private final List<Double> rates = Arrays.stream(System.getProperty("rates", "1000,10000,100000").split(","))
+            .map(String::trim)
+            .map(Double::valueOf)
+            .collect(Collectors.toList());
+
+    private final int threads = Integer.getInteger("threads", 4);
+
+    private final TrapGenerator.Version version = TrapGenerator.Version.valueOf(System.getProperty("version", "V2C"));
+
+    private final long durationSeconds = Long.getLong("durationSeconds", 60);
+
+    private static final long QUIET_PERIOD_MS = SECONDS.toMillis(30);
+
+    private static final long MAX_DRAIN_TIME_MS = MINUTES.toMillis(10);
+
+    @Test
+    public void measureTrapThroughput() throws Exception {
+        KarafUtils.installEventHandlers(minionSystem.getServiceAddress(ContainerAlias.OPENNMS, 8101));
+        final InetSocketAddress trapAddr = minionSystem.getServiceAddress(ContainerAlias.MINION, 162, "udp");
+        final DataSource dataSource = DbUtils.getOpenNMSDataSource(minionSystem.getServiceAddress(ContainerAlias.POSTGRES, 5432));
+
+        final BenchmarkReport report = new BenchmarkReport("trap-throughput",
+                "target_rate", "achieved_rate", "sent", "send_errors", "received", "events_per_second", "loss_ratio",
+                "lost", "duplicates", "reordered");
+        report.setResourceProfile(RESOURCE_PROFILE);
+        report.setProperty("version", version);
+        for (double rate : rates) {
+            final Date start = new Date();
+            final String stream = String.format("trap-throughput-%d-%d", (long)rate, start.getTime());
+            final LoadResult result = new TrapGenerator(trapAddr, threads, rate, version, stream)
+                    .sendFor(durationSeconds, SECONDS);
+            final EventStatistics stats = EventStatistics.awaitCount(dataSource,
+                    ImmutableList.of(TrapGenerator.WARM_START_UEI), start, result.getSent(),
+                    QUIET_PERIOD_MS, MAX_DRAIN_TIME_MS);
+            final DeliveryLedger ledger = new DeliveryLedger();
+            ledger.recordSent(stream, result);
+            ledger.reconcile(dataSource, ImmutableList.of(TrapGenerator.WARM_START_UEI), start);
+            final DeliveryLedger.Summary delivery = ledger.getSummary(stream);
+            report.addRow(rate, result.getAchievedRate(), result.getSent(), result.getErrors(), stats.getCount(),
+                    stats.getRate(), result.getSent() > 0 ? 1 - (double)stats.getCount() / result.getSent() : 0d,
+                    delivery.getLost(), delivery.getDuplicates(), delivery.getReordered());
+            report.write();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.internal.AssumptionViolatedException;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Applies the rule the way the JUnit runner does when a field is annotated
+ * with both @ClassRule and @Rule, and verifies what's passed to after().
+ *
+ * @author jwhite
+ */
+public class ExternalResourceRuleTest {
+
+    private static class RecordingRule extends ExternalResourceRule {
+        private final List<String> calls = Lists.newArrayList();
+
+        @Override
+        protected void before() {
+            calls.add("before");
+        }
+
+        @Override
+        protected void after(boolean didFail) {
+            calls.add("after(" + didFail + ")");
+        }
+    }
+
+    private static final Statement PASSING = new Statement() {
+        @Override
+        public void evaluate() {
+            // pass
+        }
+    };
+
+    private static final Statement FAILING = new Statement() {
+        @Override
+        public void evaluate() {
+            throw new AssertionError("failed");
+        }
+    };
+
+    private static final Statement SKIPPED = new Statement() {
+        @Override
+        public void evaluate() {
+            throw new AssumptionViolatedException("skipped");
+        }
+    };
+
+    @Test
+    public void canTearDownWithoutFailures() throws Throwable {
+        final RecordingRule rule = new RecordingRule();
+        runClass(rule, PASSING, PASSING);
+        assertEquals(Lists.newArrayList("before", "after(false)"), rule.calls);
+    }
+
+    @Test
+    public void canDetectFailedTest() throws Throwable {
+        final RecordingRule rule = new RecordingRule();
+        runClass(rule, PASSING, FAILING, PASSING);
+        assertEquals(Lists.newArrayList("before", "after(true)"), rule.calls);
+    }
+
+    @Test
+    public void canIgnoreSkippedTest() throws Throwable {
+        final RecordingRule rule = new RecordingRule();
+        runClass(rule, SKIPPED, PASSING);
+        assertEquals(Lists.newArrayList("before", "after(false)"), rule.calls);
+    }
+
+    @Test
+    public void canResetFailuresBetweenClasses() throws Throwable {
+        final RecordingRule rule = new RecordingRule();
+        runClass(rule, FAILING);
+        runClass(rule, PASSING);
+        assertEquals(Lists.newArrayList("before", "after(true)", "before", "after(false)"), rule.calls);
+    }
+
+    @Test
+    public void canDetectFailedSetUp() throws Throwable {
+        final RecordingRule rule = new RecordingRule() {
+            @Override
+            protected void before() {
+                super.before();
+                throw new IllegalStateException("failed");
+            }
+        };
+        try {
+            runClass(rule, PASSING);
+            fail("The set up failure was swallowed.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(Lists.newArrayList("before", "after(true)"), rule.calls);
+    }
+
+    /**
+     * Runs the tests like BlockJUnit4ClassRunner: the class statement wraps the test
+     * statements, and a failing test is reported without failing the class statement.
+     */
+    private static void runClass(ExternalResourceRule rule, Statement... tests) throws Throwable {
+        final Statement children = new Statement() {
+            @Override
+            public void evaluate() {
+                for (int i = 0; i < tests.length; i++) {
+                    final Description description = Description.createTestDescription(ExternalResourceRuleTest.class, "test" + i);
+                    try {
+                        rule.apply(tests[i], description).evaluate();
+                    } catch (Throwable t) {
+                        // Reported to the RunNotifier by the runner
+                    }
+                }
+            }
+        };
+        rule.apply(children, Description.createSuiteDescription(ExternalResourceRuleTest.class)).evaluate();
+    }
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * @author jwhite
+ */
+public class DeliveryLedgerTest {
+
+    private static final String STREAM = "test";
+
+    @Test
+    public void canInterleaveSequencesOfSenders() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        // Sender 0 used 0, 2 and 4, and sender 1 used 1 and 3
+        ledger.recordSent(STREAM, newLoadResult(3, 2));
+        receive(ledger, 0, 1, 2, 3, 4);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(5, summary.getSent());
+        assertEquals(5, summary.getDelivered());
+        assertEquals(0, summary.getLost());
+        assertEquals(0, summary.getUnexpected());
+    }
+
+    @Test
+    public void canAccountForLoss() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, newLoadResult(3, 2));
+        receive(ledger, 0, 1, 3);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(5, summary.getSent());
+        assertEquals(3, summary.getReceived());
+        assertEquals(3, summary.getDelivered());
+        assertEquals(2, summary.getLost());
+        assertEquals(0.4, summary.getLossRatio(), 0.0001);
+    }
+
+    @Test
+    public void canAccountForDuplicates() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, newLoadResult(2, 2));
+        receive(ledger, 0, 1, 1, 2, 3, 3, 3);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(4, summary.getSent());
+        assertEquals(7, summary.getReceived());
+        assertEquals(4, summary.getDelivered());
+        assertEquals(3, summary.getDuplicates());
+        assertEquals(0, summary.getLost());
+        assertEquals(3d / 7, summary.getDuplicateRatio(), 0.0001);
+    }
+
+    @Test
+    public void canDetectReorderingPerSender() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, newLoadResult(3, 3));
+        // Sender 0 used 0 and 3, sender 1 used 1 and 4, and sender 2 used 2 and 5. Receiving 0 after 5
+        // and 3 after 4 only interleaves the senders, while 2 after 5 and 1 after 4 are reordered.
+        receive(ledger, 5, 0, 2, 4, 3, 1);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(6, summary.getDelivered());
+        assertEquals(2, summary.getReordered());
+        assertEquals(2d / 6, summary.getReorderRatio(), 0.0001);
+    }
+
+    @Test
+    public void canNotCountDuplicatesAsReordered() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, newLoadResult(3));
+        receive(ledger, 0, 1, 2, 0);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(1, summary.getDuplicates());
+        assertEquals(0, summary.getReordered());
+    }
+
+    @Test
+    public void canCountUnexpectedSequences() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, newLoadResult(2, 2));
+        receive(ledger, 0, 1, 2, 3, 4, 10);
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(4, summary.getSent());
+        assertEquals(6, summary.getReceived());
+        assertEquals(4, summary.getDelivered());
+        assertEquals(2, summary.getUnexpected());
+        assertEquals(0, summary.getLost());
+    }
+
+    @Test
+    public void canIgnoreOutOfRangeAndUnknownStreams() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        ledger.recordSent(STREAM, 0);
+        receive(ledger, -1, Integer.MAX_VALUE, Long.MAX_VALUE);
+        ledger.recordReceived(new LoadEvent(SequencedLoad.SYSLOG_UEI, "other", 0, 0, 0));
+
+        final DeliveryLedger.Summary summary = ledger.getSummary(STREAM);
+        assertEquals(1, summary.getSent());
+        assertEquals(0, summary.getReceived());
+        assertEquals(0, summary.getUnexpected());
+        assertEquals(1, summary.getLost());
+        assertEquals(ImmutableSet.of(STREAM), ledger.getStreams());
+    }
+
+    @Test
+    public void canRejectInvalidSends() {
+        final DeliveryLedger ledger = new DeliveryLedger();
+        try {
+            ledger.recordSent(STREAM, -1);
+            fail("A negative sequence number was accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ledger.recordSent(STREAM, newLoadResult());
+            fail("A run without sequence numbers was accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        ledger.recordSent(STREAM, newLoadResult(1, 1));
+        try {
+            ledger.recordSent(STREAM, newLoadResult(1, 1, 1));
+            fail("A run with a different number of senders was accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ledger.getSummary("other");
+            fail("A summary was returned for a stream that was never sent.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static LoadResult newLoadResult(long... sequencesBySender) {
+        long sent = 0;
+        for (long sequences : sequencesBySender) {
+            sent += sequences;
+        }
+        return new LoadResult(sent, 0, 1000000000L, 0, sequencesBySender.length, 0, sequencesBySender);
+    }
+
+    private static void receive(DeliveryLedger ledger, long... sequences) {
+        for (long sequence : sequences) {
+            ledger.recordReceived(new LoadEvent(SequencedLoad.SYSLOG_UEI, STREAM, sequence, 0, 0));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.opennms.minion.stests.utils.SaturationFinder.Bound;
+import org.opennms.minion.stests.utils.SaturationFinder.Mode;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Verifies the search against simulated Minions and generators, which
+ * lose messages above their capacity and fall short of the target rate
+ * above theirs, respectively.
+ *
+ * @author jwhite
+ */
+public class SaturationFinderTest {
+
+    private static final long STEP_SECONDS = 60;
+
+    @Test
+    public void canFindSaturationPointInSteps() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.STEPPED);
+        final LoadStep.Result best = finder.find(simulate(5000, Double.MAX_VALUE));
+
+        assertEquals(4000, best.getTargetRate(), 0);
+        assertEquals(Bound.MINION, finder.getBound());
+        assertTrue(finder.getBoundReason().startsWith("loss ratio"));
+        assertEquals(ImmutableList.of(1000d, 2000d, 4000d, 8000d), getRates(finder));
+    }
+
+    @Test
+    public void canNarrowDownSaturationPoint() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.BINARY);
+        final LoadStep.Result best = finder.find(simulate(5000, Double.MAX_VALUE));
+
+        assertEquals(5000, best.getTargetRate(), 0);
+        assertEquals(Bound.MINION, finder.getBound());
+        // Bracketed between 4000 and 8000 by the steps, and then bisected
+        assertEquals(ImmutableList.of(1000d, 2000d, 4000d, 8000d, 6000d, 5000d, 5500d, 5250d), getRates(finder));
+    }
+
+    @Test
+    public void canStopWhenGeneratorIsBottleneck() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.BINARY);
+        final LoadStep.Result best = finder.find(simulate(10000, 3000));
+
+        assertEquals(2000, best.getTargetRate(), 0);
+        assertEquals(Bound.GENERATOR, finder.getBound());
+        assertTrue(finder.getBoundReason().startsWith("generator only achieved 3000.00/s"));
+        // The Minion never failed, so there's nothing to narrow down
+        assertEquals(ImmutableList.of(1000d, 2000d, 4000d), getRates(finder));
+    }
+
+    @Test
+    public void canKeepMinionBoundWhenGeneratorStopsNarrowing() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.BINARY);
+        // The Minion fails on latency at 4000/s, and the generator can't drive the 3000/s in between
+        final LoadStep.Result best = finder.find(rate -> {
+            if (rate == 3000) {
+                return newResult(rate, 2000, 0, 10);
+            } else if (rate >= 4000) {
+                return newResult(rate, rate, 0, 10000);
+            }
+            return newResult(rate, rate, 0, 10);
+        });
+
+        assertEquals(2000, best.getTargetRate(), 0);
+        assertEquals(Bound.MINION, finder.getBound());
+        assertTrue(finder.getBoundReason(), finder.getBoundReason().startsWith("p99 10000.0 ms > 5000.0 ms at 4000/s"));
+        assertTrue(finder.getBoundReason(), finder.getBoundReason().contains("generator only achieved 2000.00/s at 3000/s"));
+        assertEquals(ImmutableList.of(1000d, 2000d, 4000d, 3000d), getRates(finder));
+    }
+
+    @Test
+    public void canFailAllSteps() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.BINARY);
+        final LoadStep.Result best = finder.find(simulate(500, Double.MAX_VALUE));
+
+        assertNull(best);
+        assertEquals(Bound.MINION, finder.getBound());
+        assertEquals(ImmutableList.of(1000d), getRates(finder));
+    }
+
+    @Test
+    public void canReachMaxRate() throws Exception {
+        final SaturationFinder finder = newFinder(Mode.BINARY).withRates(1000, 5000);
+        final LoadStep.Result best = finder.find(simulate(100000, Double.MAX_VALUE));
+
+        assertEquals(5000, best.getTargetRate(), 0);
+        assertEquals(Bound.MAX_RATE, finder.getBound());
+        assertNull(finder.getBoundReason());
+        // The last step is capped at the max rate
+        assertEquals(ImmutableList.of(1000d, 2000d, 4000d, 5000d), getRates(finder));
+    }
+
+    private static SaturationFinder newFinder(Mode mode) {
+        return new SaturationFinder()
+                .withMode(mode)
+                .withRates(1000, 100000)
+                .withStepFactor(2)
+                .withResolution(0.05)
+                .withMaxLossRatio(0.001)
+                .withMaxP99Ms(5000)
+                .withMinAchievedRatio(0.95);
+    }
+
+    /**
+     * Simulates a Minion that loses 10% of the messages above its capacity,
+     * driven by a generator that can't exceed its own.
+     */
+    private static SaturationFinder.Probe simulate(double minionCapacity, double generatorCapacity) {
+        return rate -> {
+            final double achievedRate = Math.min(rate, generatorCapacity);
+            return newResult(rate, achievedRate, achievedRate > minionCapacity ? 0.1 : 0, 100);
+        };
+    }
+
+    private static LoadStep.Result newResult(double targetRate, double achievedRate, double lossRatio, long p99Ms) {
+        final long sent = Math.round(achievedRate * STEP_SECONDS);
+        final long delivered = sent - Math.round(sent * lossRatio);
+        final LoadResult load = new LoadResult(sent, 0, TimeUnit.SECONDS.toNanos(STEP_SECONDS), 0, 1, targetRate);
+        final EventStatistics events = new EventStatistics(delivered, new Date(0), new Date(TimeUnit.SECONDS.toMillis(STEP_SECONDS)));
+        final LatencyHistogram latencies = new LatencyHistogram();
+        latencies.record(TimeUnit.MILLISECONDS.toMicros(p99Ms));
+        final DeliveryLedger.Summary delivery = new DeliveryLedger.Summary("test", sent, delivered, delivered, 0, 0, 0);
+        return new LoadStep.Result(TrafficType.SYSLOG_UDP, targetRate, load, events, latencies, delivery);
+    }
+
+    private static List<Double> getRates(SaturationFinder finder) {
+        final List<Double> rates = Lists.newArrayList();
+        for (LoadStep.Result step : finder.getSteps()) {
+            rates.add(step.getTargetRate());
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2016 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2016 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.minion.stests.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Replays the small captures in src/test/resources/captures to local
+ * sockets, and verifies the payloads that were extracted from them.
+ *
+ * ethernet.pcap is little-endian, with microsecond timestamps, and contains:
+ * <ol>
+ * <li>a syslog message over IPv4, with two VLAN tags (802.1ad and 802.1Q)</li>
+ * <li>a trap over IPv6</li>
+ * <li>a TCP segment, a DNS query and an ARP packet, which are ignored</li>
+ * <li>the first fragment of a syslog message, which is skipped</li>
+ * <li>a syslog message truncated by the snap length, which is skipped</li>
+ * </ol>
+ *
+ * linux-sll.pcap is big-endian, with nanosecond timestamps, and contains
+ * a syslog message over IPv4 followed by one over IPv6, captured on the
+ * Linux "any" device.
+ *
+ * @author jwhite
+ */
+public class TrafficReplayerTest {
+
+    private DatagramSocket syslogSocket;
+    private DatagramSocket trapSocket;
+
+    @Before
+    public void setUp() throws Exception {
+        syslogSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        trapSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        syslogSocket.setSoTimeout(5000);
+        trapSocket.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() {
+        syslogSocket.close();
+        trapSocket.close();
+    }
+
+    @Test
+    public void canReplayEthernetCapture() throws Exception {
+        final TrafficReplayer replayer = newReplayer();
+        final LoadResult result = replayer.replay(getCapture("ethernet.pcap"));
+
+        assertEquals(2, result.getSent());
+        assertEquals(0, result.getErrors());
+        assertEquals(3, replayer.getIgnored());
+        assertEquals(2, replayer.getSkipped());
+        assertEquals(ImmutableList.of("<190>Mar 11 08:35:17 host1 test: vlan ipv4"), receive(syslogSocket, 1));
+        assertEquals(ImmutableList.of("0\u000bipv6 trap\u0000"), receive(trapSocket, 1));
+    }
+
+    @Test
+    public void canReplayLinuxCookedCapture() throws Exception {
+        final TrafficReplayer replayer = newReplayer();
+        final LoadResult result = replayer.replay(getCapture("linux-sll.pcap"));
+
+        assertEquals(2, result.getSent());
+        assertEquals(0, replayer.getIgnored());
+        assertEquals(0, replayer.getSkipped());
+        assertEquals(ImmutableList.of("<190>Mar 11 08:35:19 host3 test: sll ipv4",
+                "<190>Mar 11 08:35:20 host4 test: sll ipv6"), receive(syslogSocket, 2));
+    }
+
+    @Test
+    public void canDetectFormat() throws Exception {
+        assertEquals(TrafficReplayer.Format.PCAP, TrafficReplayer.detectFormat(getCapture("ethernet.pcap")));
+        assertEquals(TrafficReplayer.Format.PCAP, TrafficReplayer.detectFormat(getCapture("linux-sll.pcap")));
+    }
+
+    private TrafficReplayer newReplayer() {
+        return new TrafficReplayer((InetSocketAddress)syslogSocket.getLocalSocketAddress(),
+                (InetSocketAddress)trapSocket.getLocalSocketAddress())
+                .withSpeedup(0);
+    }
+
+    private static Path getCapture(String name) throws Exception {
+        return Paths.get(TrafficReplayerTest.class.getResource("/captures/" + name).toURI());
+    }
+
+    private static List<String> receive(DatagramSocket socket, int count) throws Exception {
+        final List<String> payloads = Lists.newArrayList();
+        final byte[] buffer = new byte[65535];
+        for (int i = 0; i < count; i++) {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            payloads.add(new String(Arrays.copyOf(packet.getData(), packet.getLength()), StandardCharsets.ISO_8859_1));
+        }
+        return payloads;
+    }
+}